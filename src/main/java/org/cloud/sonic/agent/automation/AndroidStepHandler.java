@@ -37,6 +37,7 @@ import io.appium.java_client.touch.WaitOptions;
 import io.appium.java_client.touch.offset.PointOption;
 import org.cloud.sonic.agent.bridge.android.AndroidDeviceBridgeTool;
 import org.cloud.sonic.agent.bridge.android.AndroidDeviceThreadPool;
+import org.cloud.sonic.agent.bridge.android.UiaServerPool;
 import org.cloud.sonic.agent.common.interfaces.ErrorType;
 import org.cloud.sonic.agent.common.interfaces.ResultDetailStatus;
 import org.cloud.sonic.agent.common.interfaces.StepType;
@@ -96,6 +97,8 @@ public class AndroidStepHandler {
 
     //文件名列表
     private List<String> fileList = new ArrayList<>();
+    //租用的UIA2服务，关闭driver时归还
+    private UiaServerPool.Lease uiaLease;
 
     public LogUtil getLog() {
         return log;
@@ -113,6 +116,10 @@ public class AndroidStepHandler {
         globalParams = jsonObject;
     }
 
+    public void setUiaLease(UiaServerPool.Lease uiaLease) {
+        this.uiaLease = uiaLease;
+    }
+
     /**
      * @return
      * @author ZhouYiXun
@@ -132,6 +139,52 @@ public class AndroidStepHandler {
      */
     public void startAndroidDriver(String udId) throws InterruptedException {
         this.udId = udId;
+        //随机systemPort
+        DesiredCapabilities desiredCapabilities = newCapabilities(udId, PortTool.getPort());
+        try {
+            AppiumServer.start(udId);
+            androidDriver = new AndroidDriver(AppiumServer.serviceMap.get(udId).getUrl(), desiredCapabilities);
+            androidDriver.manage().timeouts().implicitlyWait(30, TimeUnit.SECONDS);
+            log.sendStepLog(StepType.PASS, "连接设备驱动成功", "");
+        } catch (Exception e) {
+            log.sendStepLog(StepType.ERROR, "连接设备驱动失败！", "");
+            //测试标记为失败
+            setResultDetailStatus(ResultDetailStatus.FAIL);
+            throw e;
+        }
+        logDeviceInfo();
+    }
+
+    /**
+     * @param iDevice
+     * @param uiaPort 租用的UIA2服务端口，见 {@link UiaServerPool#lease}
+     * @return void
+     * @des 通过该设备常驻的Appium服务连接预热池中已启动的UIA2服务，Appium不再安装或拉起UIA2，
+     * 会话结束时只删除session，Appium服务和UIA2服务继续保留给下一个用例，由 {@link UiaServerPool} 统一停止
+     */
+    public void startAndroidDriver(IDevice iDevice, int uiaPort) throws Exception {
+        this.udId = iDevice.getSerialNumber();
+        DesiredCapabilities desiredCapabilities = newCapabilities(udId, uiaPort);
+        //UIA2服务已由预热池安装并启动，设备也已初始化过
+        desiredCapabilities.setCapability("skipServerInstallation", true);
+        desiredCapabilities.setCapability("skipDeviceInitialization", true);
+        try {
+            if (AppiumServer.serviceMap.get(udId) == null || !AppiumServer.serviceMap.get(udId).isRunning()) {
+                AppiumServer.start(udId);
+            }
+            androidDriver = new AndroidDriver(AppiumServer.serviceMap.get(udId).getUrl(), desiredCapabilities);
+            androidDriver.manage().timeouts().implicitlyWait(30, TimeUnit.SECONDS);
+            log.sendStepLog(StepType.PASS, "连接设备驱动成功", "");
+        } catch (Exception e) {
+            log.sendStepLog(StepType.ERROR, "连接设备驱动失败！", "");
+            //测试标记为失败
+            setResultDetailStatus(ResultDetailStatus.FAIL);
+            throw e;
+        }
+        logDeviceInfo();
+    }
+
+    private DesiredCapabilities newCapabilities(String udId, int systemPort) {
         DesiredCapabilities desiredCapabilities = new DesiredCapabilities();
         //微信webView配置
         ChromeOptions chromeOptions = new ChromeOptions();
@@ -164,20 +217,12 @@ public class AndroidStepHandler {
         desiredCapabilities.setCapability(MobileCapabilityType.BROWSER_NAME, "");
         //指定设备序列号
         desiredCapabilities.setCapability(MobileCapabilityType.UDID, udId);
-        //随机systemPort
-        desiredCapabilities.setCapability(AndroidMobileCapabilityType.SYSTEM_PORT, PortTool.getPort());
+        desiredCapabilities.setCapability(AndroidMobileCapabilityType.SYSTEM_PORT, systemPort);
         desiredCapabilities.setCapability("skipLogcatCapture", true);
-        try {
-            AppiumServer.start(udId);
-            androidDriver = new AndroidDriver(AppiumServer.serviceMap.get(udId).getUrl(), desiredCapabilities);
-            androidDriver.manage().timeouts().implicitlyWait(30, TimeUnit.SECONDS);
-            log.sendStepLog(StepType.PASS, "连接设备驱动成功", "");
-        } catch (Exception e) {
-            log.sendStepLog(StepType.ERROR, "连接设备驱动失败！", "");
-            //测试标记为失败
-            setResultDetailStatus(ResultDetailStatus.FAIL);
-            throw e;
-        }
+        return desiredCapabilities;
+    }
+
+    private void logDeviceInfo() throws InterruptedException {
         Capabilities capabilities = androidDriver.getCapabilities();
         Thread.sleep(100);
         log.androidInfo("Android", capabilities.getCapability("platformVersion").toString(),
@@ -190,7 +235,7 @@ public class AndroidStepHandler {
     /**
      * @return void
      * @author ZhouYiXun
-     * @des 关闭driver
+     * @des 关闭driver，归还UIA2服务
      * @date 2021/8/16 20:21
      */
     public void closeAndroidDriver() {
@@ -205,7 +250,13 @@ public class AndroidStepHandler {
             setResultDetailStatus(ResultDetailStatus.WARN);
             e.printStackTrace();
         } finally {
-            AppiumServer.close(udId);
+            if (uiaLease != null) {
+                //Appium服务随租用的UIA2服务保留，由预热池停止
+                uiaLease.release(testPackage);
+                uiaLease = null;
+            } else {
+                AppiumServer.close(udId);
+            }
         }
     }
 
@@ -22,13 +22,13 @@ import org.apache.commons.exec.CommandLine;
 import org.apache.commons.exec.DefaultExecutor;
 import org.apache.commons.exec.PumpStreamHandler;
 import org.cloud.sonic.agent.bridge.ios.SibTool;
+import org.cloud.sonic.agent.bridge.ios.WdaPool;
 import org.cloud.sonic.agent.common.enums.ConditionEnum;
 import org.cloud.sonic.agent.common.enums.SonicEnum;
 import org.cloud.sonic.agent.common.interfaces.ErrorType;
 import org.cloud.sonic.agent.common.interfaces.ResultDetailStatus;
 import org.cloud.sonic.agent.common.interfaces.StepType;
 import org.cloud.sonic.agent.common.maps.IOSInfoMap;
-import org.cloud.sonic.agent.common.maps.IOSProcessMap;
 import org.cloud.sonic.agent.common.models.HandleDes;
 import org.cloud.sonic.agent.tests.LogUtil;
 import org.cloud.sonic.agent.tests.common.RunStepThread;
@@ -61,7 +61,6 @@ import java.io.File;
 import java.io.FileWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.Calendar;
-import java.util.List;
 import java.util.UUID;
 
 import static org.testng.Assert.*;
@@ -76,6 +75,8 @@ public class IOSStepHandler {
     private IOSDriver iosDriver;
     private JSONObject globalParams = new JSONObject();
     private String udId = "";
+    //租用的WDA，关闭driver时归还
+    private WdaPool.Lease wdaLease;
 
     private int status = ResultDetailStatus.PASS;
 
@@ -95,6 +96,10 @@ public class IOSStepHandler {
         globalParams = jsonObject;
     }
 
+    public void setWdaLease(WdaPool.Lease wdaLease) {
+        this.wdaLease = wdaLease;
+    }
+
     public void startIOSDriver(String udId, int wdaPort) throws Exception {
         this.udId = udId;
         try {
@@ -125,15 +130,10 @@ public class IOSStepHandler {
             setResultDetailStatus(ResultDetailStatus.WARN);
             e.printStackTrace();
         } finally {
-            if (IOSProcessMap.getMap().get(udId) != null) {
-                List<Process> processList = IOSProcessMap.getMap().get(udId);
-                for (Process p : processList) {
-                    if (p != null) {
-                        p.children().forEach(ProcessHandle::destroy);
-                        p.destroy();
-                    }
-                }
-                IOSProcessMap.getMap().remove(udId);
+            // WDA归还到预热池，不再随driver一起停止
+            if (wdaLease != null) {
+                wdaLease.release();
+                wdaLease = null;
             }
         }
     }
@@ -20,11 +20,11 @@ import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 import com.android.ddmlib.*;
-import org.cloud.sonic.agent.common.maps.AndroidThreadMap;
 import org.cloud.sonic.agent.common.maps.AndroidWebViewMap;
 import org.cloud.sonic.agent.common.maps.GlobalProcessMap;
 import org.cloud.sonic.agent.tests.android.AndroidBatteryThread;
 import org.cloud.sonic.agent.tools.BytesTool;
+import org.cloud.sonic.agent.tools.Lifecycle;
 import org.cloud.sonic.agent.tools.PortTool;
 import org.cloud.sonic.agent.tools.ScheduleTool;
 import org.cloud.sonic.agent.tools.file.DownloadTool;
@@ -63,7 +63,7 @@ import static org.cloud.sonic.agent.tools.BytesTool.sendText;
  * @date 2021/08/16 19:26
  */
 @ConditionalOnProperty(value = "modules.android.enable", havingValue = "true")
-@DependsOn({"androidThreadPoolInit"})
+@DependsOn({"androidThreadPoolInit", "transportOutboxInit"})
 @Component
 @Order(value = Ordered.HIGHEST_PRECEDENCE)
 public class AndroidDeviceBridgeTool implements ApplicationListener<ContextRefreshedEvent> {
@@ -587,11 +587,10 @@ public class AndroidDeviceBridgeTool implements ApplicationListener<ContextRefre
         return result;
     }
 
-    public static int startUiaServer(IDevice iDevice) throws InstallException {
-        Thread s = AndroidThreadMap.getMap().get(String.format("%s-uia-thread", iDevice.getSerialNumber()));
-        if (s != null) {
-            s.interrupt();
-        }
+    /**
+     * 检查UIA2服务端版本，不一致时重新安装
+     */
+    public static void installUiaServer(IDevice iDevice) throws InstallException {
         if (!checkUiaApkVersion(iDevice)) {
             iDevice.uninstallPackage("io.appium.uiautomator2.server");
             iDevice.uninstallPackage("io.appium.uiautomator2.server.test");
@@ -602,42 +601,50 @@ public class AndroidDeviceBridgeTool implements ApplicationListener<ContextRefre
                     true, new InstallReceiver(), 180L, 180L, TimeUnit.MINUTES
                     , "-r", "-t");
         }
-        int port = PortTool.getPort();
+    }
+
+    /**
+     * 启动UIA2服务并等待就绪，用例与调试通过 {@link UiaServerPool#lease(IDevice)} 复用已启动的服务
+     *
+     * @return 服务线程，中断即停止服务
+     */
+    static UiaThread startUiaServer(IDevice iDevice, int port) {
         UiaThread uiaThread = new UiaThread(iDevice, port);
         uiaThread.start();
-        int wait = 0;
-        while (!uiaThread.getIsOpen()) {
-            try {
-                Thread.sleep(500);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-            wait++;
-            if (wait >= 20) {
-                break;
-            }
+        // 服务启动或instrument提前退出时立即返回，最多等待10秒
+        try {
+            uiaThread.getLifecycle().awaitReady(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-        AndroidThreadMap.getMap().put(String.format("%s-uia-thread", iDevice.getSerialNumber()), uiaThread);
-        return port;
+        return uiaThread;
     }
 
-    static class UiaThread extends Thread {
+    static class UiaThread extends Thread implements Lifecycle.Aware {
 
         private IDevice iDevice;
         private int port;
-        private boolean isOpen = false;
+        private final Lifecycle lifecycle = new Lifecycle();
 
         public UiaThread(IDevice iDevice, int port) {
             this.iDevice = iDevice;
             this.port = port;
+            this.setDaemon(true);
+            this.setName(String.format("android-uia-%s", iDevice.getSerialNumber()));
+        }
+
+        public int getPort() {
+            return port;
         }
 
-        public boolean getIsOpen() {
-            return isOpen;
+        @Override
+        public Lifecycle getLifecycle() {
+            return lifecycle;
         }
 
         @Override
         public void run() {
+            lifecycle.markStarted();
             forward(iDevice, port, 6790);
             try {
                 iDevice.executeShellCommand("am instrument -w io.appium.uiautomator2.server.test/androidx.test.runner.AndroidJUnitRunner",
@@ -650,9 +657,10 @@ public class AndroidDeviceBridgeTool implements ApplicationListener<ContextRefre
                                     try {
                                         Thread.sleep(2000);
                                     } catch (InterruptedException e) {
-                                        e.printStackTrace();
+                                        // 保留中断标记，isCancelled据此结束instrument
+                                        Thread.currentThread().interrupt();
                                     }
-                                    isOpen = true;
+                                    lifecycle.markReady();
                                 }
                             }
 
@@ -662,12 +670,14 @@ public class AndroidDeviceBridgeTool implements ApplicationListener<ContextRefre
 
                             @Override
                             public boolean isCancelled() {
-                                return false;
+                                // 中断本线程即结束instrument
+                                return isInterrupted();
                             }
                         }, 0, TimeUnit.MILLISECONDS);
             } catch (Exception e) {
             } finally {
                 AndroidDeviceBridgeTool.removeForward(iDevice, port, 6790);
+                lifecycle.markTerminated();
             }
         }
 
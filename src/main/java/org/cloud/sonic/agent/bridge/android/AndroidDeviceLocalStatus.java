@@ -19,6 +19,7 @@ package org.cloud.sonic.agent.bridge.android;
 import com.alibaba.fastjson.JSONObject;
 import org.cloud.sonic.agent.common.interfaces.DeviceStatus;
 import org.cloud.sonic.agent.common.maps.AndroidDeviceManagerMap;
+import org.cloud.sonic.agent.tests.SuiteScheduler;
 import org.cloud.sonic.agent.transport.TransportWorker;
 
 /**
@@ -91,6 +92,8 @@ public class AndroidDeviceLocalStatus {
             }
         }
         AndroidDeviceManagerMap.getMap().remove(udId);
+        // 设备空闲后立即开始排队的用例
+        SuiteScheduler.onDeviceFree(udId);
     }
 
     /**
@@ -109,5 +112,7 @@ public class AndroidDeviceLocalStatus {
             }
         }
         AndroidDeviceManagerMap.getMap().remove(udId);
+        // 设备空闲后立即开始排队的用例
+        SuiteScheduler.onDeviceFree(udId);
     }
 }
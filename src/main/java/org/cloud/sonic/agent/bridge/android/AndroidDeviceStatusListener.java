@@ -79,6 +79,7 @@ public class AndroidDeviceStatusListener implements AndroidDebugBridge.IDeviceCh
         logger.info("Android device: " + device.getSerialNumber() + " OFFLINE！");
         AndroidDeviceManagerMap.getMap().remove(device.getSerialNumber());
         DevicesBatteryMap.getTempMap().remove(device.getSerialNumber());
+        UiaServerPool.remove(device.getSerialNumber());
         send(device);
     }
 
@@ -1,11 +1,12 @@
 package org.cloud.sonic.agent.bridge.android;
 
+import org.cloud.sonic.agent.tools.AgentExecutors;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
 
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * @author ZhouYiXun
@@ -18,7 +19,8 @@ public class AndroidDeviceThreadPool {
     public static ExecutorService cachedThreadPool;
 
     @Bean
+    @DependsOn({"agentExecutorsInit"})
     public void androidThreadPoolInit() {
-        cachedThreadPool = Executors.newCachedThreadPool();
+        cachedThreadPool = AgentExecutors.newExecutor("android-device");
     }
 }
\ No newline at end of file
@@ -0,0 +1,270 @@
+/*
+ *  Copyright (C) [SonicCloudOrg] Sonic Project
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.cloud.sonic.agent.bridge.android;
+
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.InstallException;
+import lombok.extern.slf4j.Slf4j;
+import org.cloud.sonic.agent.automation.AppiumServer;
+import org.cloud.sonic.agent.tools.PortTool;
+import org.cloud.sonic.agent.tools.ScheduleTool;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UiAutomator2服务预热池
+ * <p>
+ * 每台设备保持一个已启动的UIA2服务，用例或调试结束后归还而不是停止，下次租用时只做一次 /status 探测，
+ * 探测失败或instrument已退出时才重新启动；服务端APK版本在设备每次上线后只检查一次。
+ * 归还时停止被测应用并回到桌面，下一个用例从干净的应用状态开始；空闲超过
+ * modules.android.uia-keep-alive-minutes 的服务会被停止，为0时归还即停止。
+ * <p>
+ * 同一台设备同时只会被一个用例或调试会话占用，未归还时再次租用会失败；租用与归还按设备加锁，不同设备之间互不影响。
+ * 租用得到的端口由 {@link org.cloud.sonic.agent.automation.AndroidStepHandler#startAndroidDriver(IDevice, int)}
+ * 作为systemPort交给该设备的Appium服务，Appium服务同样跨用例保留，停止UIA2服务时一起关闭
+ */
+@ConditionalOnProperty(value = "modules.android.enable", havingValue = "true")
+@Configuration
+@Slf4j
+public class UiaServerPool {
+
+    /**
+     * 健康探测的连接与读取超时，毫秒
+     */
+    private static final int PROBE_TIMEOUT = 1000;
+
+    @Value("${modules.android.uia-keep-alive-minutes:30}")
+    private long keepAliveMinutes;
+
+    private static long keepAlive = TimeUnit.MINUTES.toMillis(30);
+
+    private static final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * 本次上线后已检查过APK版本的设备
+     */
+    private static final Set<String> checkedDevices = ConcurrentHashMap.newKeySet();
+
+    private static class Entry {
+        private AndroidDeviceBridgeTool.UiaThread uiaThread;
+
+        /**
+         * 每次租用加一，旧的租约归还时不影响新的租约
+         */
+        private long generation = 0;
+
+        private boolean leased = false;
+
+        private long idleSince;
+    }
+
+    /**
+     * 一次租用，归还多次只生效一次
+     */
+    public static class Lease {
+        private final String udId;
+
+        private final Entry entry;
+
+        private final long generation;
+
+        private final int port;
+
+        private Lease(String udId, Entry entry, long generation, int port) {
+            this.udId = udId;
+            this.entry = entry;
+            this.generation = generation;
+            this.port = port;
+        }
+
+        public String getUdId() {
+            return udId;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        /**
+         * 归还服务，停止被测应用并回到桌面，服务继续保持运行
+         *
+         * @param testPackage 本次打开过的应用包名，没有时传空
+         */
+        public void release(String testPackage) {
+            UiaServerPool.release(this, testPackage);
+        }
+    }
+
+    @Bean
+    public void uiaServerPoolInit() {
+        keepAlive = TimeUnit.MINUTES.toMillis(keepAliveMinutes);
+        ScheduleTool.scheduleAtFixedRate(UiaServerPool::evictIdle, 1, 1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 租用设备上的UIA2服务，已有可用的服务时直接复用
+     *
+     * @throws IllegalStateException 该设备的服务已被租用且还未归还
+     */
+    public static Lease lease(IDevice iDevice) throws InstallException {
+        String udId = iDevice.getSerialNumber();
+        while (true) {
+            Entry entry = entries.computeIfAbsent(udId, k -> new Entry());
+            synchronized (entry) {
+                // 等锁期间设备下线被remove，服务不能装到已不在池中的entry上，否则不会再被回收
+                if (entries.get(udId) != entry) {
+                    continue;
+                }
+                return leaseLocked(iDevice, entry);
+            }
+        }
+    }
+
+    /**
+     * 需持有entry锁
+     */
+    private static Lease leaseLocked(IDevice iDevice, Entry entry) throws InstallException {
+        String udId = iDevice.getSerialNumber();
+        if (entry.leased) {
+            throw new IllegalStateException(String.format("uia2 server of %s is already leased", udId));
+        }
+        if (entry.uiaThread != null && isHealthy(entry.uiaThread)) {
+            log.info("{} reuse uia2 server on port {}", udId, entry.uiaThread.getPort());
+        } else {
+            stop(iDevice, entry);
+            if (checkedDevices.add(udId)) {
+                try {
+                    AndroidDeviceBridgeTool.installUiaServer(iDevice);
+                } catch (InstallException | RuntimeException e) {
+                    checkedDevices.remove(udId);
+                    throw e;
+                }
+            }
+            entry.uiaThread = AndroidDeviceBridgeTool.startUiaServer(iDevice, PortTool.getPort());
+            log.info("{} start uia2 server on port {}", udId, entry.uiaThread.getPort());
+        }
+        entry.leased = true;
+        entry.generation++;
+        return new Lease(udId, entry, entry.generation, entry.uiaThread.getPort());
+    }
+
+    private static void release(Lease lease, String testPackage) {
+        Entry entry = lease.entry;
+        synchronized (entry) {
+            if (!entry.leased || entry.generation != lease.generation) {
+                return;
+            }
+            entry.leased = false;
+            entry.idleSince = System.currentTimeMillis();
+            IDevice iDevice = AndroidDeviceBridgeTool.getIDeviceByUdId(lease.udId);
+            if (iDevice == null || keepAlive <= 0) {
+                shutdown(lease.udId, iDevice, entry);
+                return;
+            }
+            if (testPackage != null && testPackage.length() > 0) {
+                AndroidDeviceBridgeTool.executeCommand(iDevice, "am force-stop " + testPackage);
+            }
+            AndroidDeviceBridgeTool.pressKey(iDevice, 3);
+        }
+    }
+
+    /**
+     * 设备下线时调用，停止服务，重新上线后再检查APK版本
+     */
+    public static void remove(String udId) {
+        checkedDevices.remove(udId);
+        Entry entry = entries.remove(udId);
+        if (entry != null) {
+            synchronized (entry) {
+                shutdown(udId, null, entry);
+            }
+        }
+    }
+
+    private static void evictIdle() {
+        long now = System.currentTimeMillis();
+        entries.forEach((udId, entry) -> {
+            synchronized (entry) {
+                if (entry.leased || entry.uiaThread == null) {
+                    return;
+                }
+                if (!entry.uiaThread.getLifecycle().isTerminated() && now - entry.idleSince < keepAlive) {
+                    return;
+                }
+                log.info("{} uia2 server idle for {}s, stop it", udId, (now - entry.idleSince) / 1000);
+                shutdown(udId, AndroidDeviceBridgeTool.getIDeviceByUdId(udId), entry);
+            }
+        });
+    }
+
+    /**
+     * 已就绪、instrument仍在运行并且 /status 能正常返回
+     */
+    private static boolean isHealthy(AndroidDeviceBridgeTool.UiaThread uiaThread) {
+        if (!uiaThread.getLifecycle().isReady() || uiaThread.getLifecycle().isTerminated()) {
+            return false;
+        }
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(
+                    String.format("http://127.0.0.1:%d/wd/hub/status", uiaThread.getPort())).openConnection();
+            connection.setConnectTimeout(PROBE_TIMEOUT);
+            connection.setReadTimeout(PROBE_TIMEOUT);
+            return connection.getResponseCode() == HttpURLConnection.HTTP_OK;
+        } catch (IOException e) {
+            log.info("probe uia2 server on port {} failed: {}", uiaThread.getPort(), e.getMessage());
+            return false;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * 不再保留该设备的服务，连同Appium服务一起关闭
+     */
+    private static void shutdown(String udId, IDevice iDevice, Entry entry) {
+        stop(iDevice, entry);
+        AppiumServer.close(udId);
+    }
+
+    /**
+     * 停止服务，设备已离线时传入null，只结束本地线程
+     */
+    private static void stop(IDevice iDevice, Entry entry) {
+        AndroidDeviceBridgeTool.UiaThread uiaThread = entry.uiaThread;
+        entry.uiaThread = null;
+        if (uiaThread == null) {
+            return;
+        }
+        uiaThread.interrupt();
+        if (iDevice != null) {
+            AndroidDeviceBridgeTool.executeCommand(iDevice, "am force-stop io.appium.uiautomator2.server");
+        }
+    }
+}
@@ -20,6 +20,7 @@ import com.alibaba.fastjson.JSONObject;
 import org.cloud.sonic.agent.common.interfaces.DeviceStatus;
 import org.cloud.sonic.agent.common.maps.IOSDeviceManagerMap;
 import org.cloud.sonic.agent.common.maps.IOSInfoMap;
+import org.cloud.sonic.agent.tests.SuiteScheduler;
 import org.cloud.sonic.agent.transport.TransportWorker;
 
 public class IOSDeviceLocalStatus {
@@ -59,6 +60,8 @@ public class IOSDeviceLocalStatus {
             }
         }
         IOSDeviceManagerMap.getMap().remove(udId);
+        // 设备空闲后立即开始排队的用例
+        SuiteScheduler.onDeviceFree(udId);
     }
 
     public static void finishError(String udId) {
@@ -70,5 +73,7 @@ public class IOSDeviceLocalStatus {
             }
         }
         IOSDeviceManagerMap.getMap().remove(udId);
+        // 设备空闲后立即开始排队的用例
+        SuiteScheduler.onDeviceFree(udId);
     }
 }
@@ -21,7 +21,9 @@ import com.alibaba.fastjson.JSONObject;
 import org.cloud.sonic.agent.common.interfaces.DeviceStatus;
 import org.cloud.sonic.agent.common.interfaces.PlatformType;
 import org.cloud.sonic.agent.common.maps.*;
+import org.cloud.sonic.agent.tools.AgentExecutors;
 import org.cloud.sonic.agent.tools.BytesTool;
+import org.cloud.sonic.agent.tools.Lifecycle;
 import org.cloud.sonic.agent.transport.TransportWorker;
 import org.cloud.sonic.agent.tests.ios.IOSBatteryThread;
 import org.cloud.sonic.agent.tools.PortTool;
@@ -48,12 +50,12 @@ import java.io.InputStreamReader;
 import java.net.Socket;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import static org.cloud.sonic.agent.tools.BytesTool.sendText;
 
 @ConditionalOnProperty(value = "modules.ios.enable", havingValue = "true")
-@DependsOn({"iOSThreadPoolInit"})
+@DependsOn({"iOSThreadPoolInit", "transportOutboxInit"})
 @Component
 @Order(value = Ordered.HIGHEST_PRECEDENCE)
 public class SibTool implements ApplicationListener<ContextRefreshedEvent> {
@@ -166,6 +168,7 @@ public class SibTool implements ApplicationListener<ContextRefreshedEvent> {
         TransportWorker.send(deviceStatus);
         IOSDeviceManagerMap.getMap().remove(jsonObject.getString("serialNumber"));
         DevicesBatteryMap.getTempMap().remove(jsonObject.getString("serialNumber"));
+        WdaPool.remove(jsonObject.getString("serialNumber"));
     }
 
     public static void sendOnlineStatus(JSONObject jsonObject) {
@@ -193,10 +196,12 @@ public class SibTool implements ApplicationListener<ContextRefreshedEvent> {
         return r != null ? r : "";
     }
 
-    public static int[] startWda(String udId) throws IOException, InterruptedException {
-        List<Process> processList;
-        if (IOSProcessMap.getMap().get(udId) != null) {
-            processList = IOSProcessMap.getMap().get(udId);
+    /**
+     * 停止agent在该设备上启动的WDA进程
+     */
+    public static void stopWda(String udId) {
+        List<Process> processList = IOSProcessMap.getMap().remove(udId);
+        if (processList != null) {
             for (Process p : processList) {
                 if (p != null) {
                     p.children().forEach(ProcessHandle::destroy);
@@ -204,6 +209,32 @@ public class SibTool implements ApplicationListener<ContextRefreshedEvent> {
                 }
             }
         }
+    }
+
+    /**
+     * agent在该设备上启动的WDA进程是否还在运行
+     */
+    public static boolean isWdaAlive(String udId) {
+        List<Process> processList = IOSProcessMap.getMap().get(udId);
+        if (processList == null) {
+            return false;
+        }
+        for (Process p : processList) {
+            if (p == null || !p.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 启动WDA并等待就绪，已有的WDA进程会先停止；用例与调试通过 {@link WdaPool#lease(String)} 复用已启动的WDA
+     *
+     * @return wda端口与mjpeg端口，启动超时返回0
+     */
+    public static int[] startWda(String udId) throws IOException, InterruptedException {
+        stopWda(udId);
+        List<Process> processList;
         Socket wda = PortTool.getBindSocket();
         Socket mjpeg = PortTool.getBindSocket();
         int wdaPort = PortTool.releaseAndGetPort(wda);
@@ -220,15 +251,17 @@ public class SibTool implements ApplicationListener<ContextRefreshedEvent> {
         InputStreamReader inputStreamReader = new InputStreamReader(wdaProcess.getInputStream());
         BufferedReader stdInput = new BufferedReader(inputStreamReader);
         Process finalWdaProcess = wdaProcess;
-        Semaphore isFinish = new Semaphore(0);
-        Thread wdaThread = new Thread(() -> {
+        // 输出启动成功后就绪，wda进程退出后结束
+        Lifecycle lifecycle = new Lifecycle();
+        Thread wdaThread = AgentExecutors.newThread(String.format("ios-wda-%s", udId), () -> {
+            lifecycle.markStarted();
             String s;
             while (finalWdaProcess.isAlive()) {
                 try {
                     if ((s = stdInput.readLine()) != null) {
                         logger.info(s);
                         if (s.contains("WebDriverAgent server start successful")) {
-                            isFinish.release();
+                            lifecycle.markReady();
                         }
                     }
                 } catch (IOException e) {
@@ -246,16 +279,14 @@ public class SibTool implements ApplicationListener<ContextRefreshedEvent> {
                 e.printStackTrace();
             }
             logger.info("WebDriverAgent print thread shutdown.");
+            lifecycle.markTerminated();
         });
         wdaThread.start();
-        int wait = 0;
-        while (!isFinish.tryAcquire()) {
-            Thread.sleep(500);
-            wait++;
-            if (wait >= 120) {
-                logger.info(udId + " WebDriverAgent start timeout!");
-                return new int[]{0, 0};
-            }
+        if (!lifecycle.awaitReady(60, TimeUnit.SECONDS)) {
+            logger.info(udId + " WebDriverAgent start timeout!");
+            wdaProcess.children().forEach(ProcessHandle::destroy);
+            wdaProcess.destroy();
+            return new int[]{0, 0};
         }
         processList = new ArrayList<>();
         processList.add(wdaProcess);
@@ -283,7 +314,7 @@ public class SibTool implements ApplicationListener<ContextRefreshedEvent> {
     }
 
     public static void getSysLog(String udId, String filter, Session session) {
-        new Thread(() -> {
+        AgentExecutors.startThread(String.format("ios-syslog-%s", udId), () -> {
             stopSysLog(udId);
             String system = System.getProperty("os.name").toLowerCase();
             Process ps = null;
@@ -320,7 +351,7 @@ public class SibTool implements ApplicationListener<ContextRefreshedEvent> {
             } catch (Exception e) {
                 e.printStackTrace();
             }
-        }).start();
+        });
     }
 
     public static void stopOrientationWatcher(String udId) {
@@ -333,7 +364,7 @@ public class SibTool implements ApplicationListener<ContextRefreshedEvent> {
     }
 
     public static void orientationWatcher(String udId, Session session) {
-        new Thread(() -> {
+        AgentExecutors.startThread(String.format("ios-orientation-%s", udId), () -> {
             String system = System.getProperty("os.name").toLowerCase();
             Process ps = null;
             String commandLine = "%s orientation -w -u %s";
@@ -383,7 +414,7 @@ public class SibTool implements ApplicationListener<ContextRefreshedEvent> {
             } catch (Exception e) {
                 e.printStackTrace();
             }
-        }).start();
+        });
     }
 
     public static void getAppList(String udId, Session session) {
@@ -0,0 +1,261 @@
+/*
+ *  Copyright (C) [SonicCloudOrg] Sonic Project
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.cloud.sonic.agent.bridge.ios;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cloud.sonic.agent.tools.ScheduleTool;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * WebDriverAgent预热池
+ * <p>
+ * 每台设备保持一个已启动的WDA及其wda/mjpeg端口，调试会话或用例结束后归还而不是停止，
+ * 下次租用时只做一次 /status 探测，进程已退出或探测失败时才重新启动。
+ * 后台每隔 {@link #MAINTAIN_INTERVAL} 秒检查空闲的WDA：异常退出的自动重启，空闲超过
+ * modules.ios.wda-keep-alive-minutes 的停止，为0时归还即停止。
+ * <p>
+ * 同一台设备同时只会被一个用例或调试会话占用，租用、归还与后台检查按设备加锁
+ */
+@ConditionalOnProperty(value = "modules.ios.enable", havingValue = "true")
+@Configuration
+@Slf4j
+public class WdaPool {
+
+    /**
+     * 后台检查间隔，秒
+     */
+    public static final long MAINTAIN_INTERVAL = 30;
+
+    /**
+     * 健康探测的连接与读取超时，毫秒
+     */
+    private static final int PROBE_TIMEOUT = 1000;
+
+    @Value("${modules.ios.wda-keep-alive-minutes:30}")
+    private long keepAliveMinutes;
+
+    private static long keepAlive = TimeUnit.MINUTES.toMillis(30);
+
+    private static final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private static class Entry {
+        private int wdaPort = 0;
+
+        private int mjpegPort = 0;
+
+        /**
+         * 每次租用加一，旧的租约归还时不影响新的租约
+         */
+        private long generation = 0;
+
+        private boolean leased = false;
+
+        private long idleSince;
+
+        /**
+         * 后台检查已提交，避免同一台设备重复检查
+         */
+        private final AtomicBoolean maintaining = new AtomicBoolean(false);
+    }
+
+    /**
+     * 一次租用，归还多次只生效一次
+     */
+    public static class Lease {
+        private final String udId;
+
+        private final Entry entry;
+
+        private final long generation;
+
+        private final int wdaPort;
+
+        private final int mjpegPort;
+
+        private Lease(String udId, Entry entry, long generation, int wdaPort, int mjpegPort) {
+            this.udId = udId;
+            this.entry = entry;
+            this.generation = generation;
+            this.wdaPort = wdaPort;
+            this.mjpegPort = mjpegPort;
+        }
+
+        public String getUdId() {
+            return udId;
+        }
+
+        /**
+         * @return 启动失败时为0
+         */
+        public int getWdaPort() {
+            return wdaPort;
+        }
+
+        public int getMjpegPort() {
+            return mjpegPort;
+        }
+
+        /**
+         * 归还WDA，WDA继续保持运行
+         */
+        public void release() {
+            WdaPool.release(this);
+        }
+    }
+
+    @Bean
+    public void wdaPoolInit() {
+        keepAlive = TimeUnit.MINUTES.toMillis(keepAliveMinutes);
+        ScheduleTool.scheduleAtFixedRate(WdaPool::maintain, MAINTAIN_INTERVAL, MAINTAIN_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 租用设备上的WDA，已有可用的WDA时直接复用
+     */
+    public static Lease lease(String udId) throws IOException, InterruptedException {
+        Entry entry = entries.computeIfAbsent(udId, k -> new Entry());
+        synchronized (entry) {
+            if (isHealthy(udId, entry)) {
+                log.info("{} reuse WebDriverAgent on port {}", udId, entry.wdaPort);
+            } else {
+                start(udId, entry);
+            }
+            entry.leased = true;
+            entry.generation++;
+            return new Lease(udId, entry, entry.generation, entry.wdaPort, entry.mjpegPort);
+        }
+    }
+
+    private static void release(Lease lease) {
+        Entry entry = lease.entry;
+        synchronized (entry) {
+            if (!entry.leased || entry.generation != lease.generation) {
+                return;
+            }
+            entry.leased = false;
+            entry.idleSince = System.currentTimeMillis();
+            if (keepAlive <= 0) {
+                stop(lease.udId, entry);
+            }
+        }
+    }
+
+    /**
+     * 设备下线时调用，停止WDA
+     */
+    public static void remove(String udId) {
+        Entry entry = entries.remove(udId);
+        if (entry != null) {
+            synchronized (entry) {
+                stop(udId, entry);
+            }
+        }
+    }
+
+    private static void maintain() {
+        entries.forEach((udId, entry) -> {
+            if (entry.wdaPort == 0 || !entry.maintaining.compareAndSet(false, true)) {
+                return;
+            }
+            IOSDeviceThreadPool.cachedThreadPool.execute(() -> {
+                try {
+                    maintain(udId, entry);
+                } finally {
+                    entry.maintaining.set(false);
+                }
+            });
+        });
+    }
+
+    private static void maintain(String udId, Entry entry) {
+        synchronized (entry) {
+            if (entry.leased || entry.wdaPort == 0) {
+                return;
+            }
+            long idle = System.currentTimeMillis() - entry.idleSince;
+            if (idle >= keepAlive) {
+                log.info("{} WebDriverAgent idle for {}s, stop it", udId, idle / 1000);
+                stop(udId, entry);
+                return;
+            }
+            if (isHealthy(udId, entry)) {
+                return;
+            }
+            log.info("{} WebDriverAgent is unhealthy, restart it", udId);
+            try {
+                start(udId, entry);
+            } catch (IOException e) {
+                log.error("{} restart WebDriverAgent failed", udId, e);
+                stop(udId, entry);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void start(String udId, Entry entry) throws IOException, InterruptedException {
+        entry.wdaPort = 0;
+        entry.mjpegPort = 0;
+        int[] ports = SibTool.startWda(udId);
+        entry.wdaPort = ports[0];
+        entry.mjpegPort = ports[1];
+        if (entry.wdaPort != 0) {
+            log.info("{} start WebDriverAgent on port {}, mjpeg port {}", udId, entry.wdaPort, entry.mjpegPort);
+        }
+    }
+
+    private static void stop(String udId, Entry entry) {
+        SibTool.stopWda(udId);
+        entry.wdaPort = 0;
+        entry.mjpegPort = 0;
+    }
+
+    /**
+     * 进程仍在运行并且 /status 能正常返回
+     */
+    private static boolean isHealthy(String udId, Entry entry) {
+        if (entry.wdaPort == 0 || !SibTool.isWdaAlive(udId)) {
+            return false;
+        }
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(
+                    String.format("http://127.0.0.1:%d/status", entry.wdaPort)).openConnection();
+            connection.setConnectTimeout(PROBE_TIMEOUT);
+            connection.setReadTimeout(PROBE_TIMEOUT);
+            return connection.getResponseCode() == HttpURLConnection.HTTP_OK;
+        } catch (IOException e) {
+            log.info("{} probe WebDriverAgent on port {} failed: {}", udId, entry.wdaPort, e.getMessage());
+            return false;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ *  Copyright (C) [SonicCloudOrg] Sonic Project
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.cloud.sonic.agent.common.maps;
+
+import org.cloud.sonic.agent.tests.android.ScreenCaptureHub;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 投屏采集中心，key为 {@link ScreenCaptureHub#getHubKey()}，同一台设备同样的投屏参数只保留一个采集进程
+ */
+public class ScreenHubMap {
+    private static Map<String, ScreenCaptureHub<?>> screenHubMap = new ConcurrentHashMap<>();
+
+    public static Map<String, ScreenCaptureHub<?>> getMap() {
+        return screenHubMap;
+    }
+}
@@ -1,5 +1,6 @@
 package org.cloud.sonic.agent.common.maps;
 
+import org.cloud.sonic.agent.tools.WebSocketLogChannel;
 import org.springframework.lang.NonNull;
 import org.springframework.util.Assert;
 
@@ -35,6 +36,7 @@ public class WebSocketSessionMap {
     public static void removeSession(String sessionId) {
         Assert.hasText(sessionId, "sessionId must not be blank");
         sessionMap.remove(sessionId);
+        WebSocketLogChannel.remove(sessionId);
     }
 
     public static Session getSession(String sessionId) {
@@ -0,0 +1,158 @@
+/*
+ *  Copyright (C) [SonicCloudOrg] Sonic Project
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.cloud.sonic.agent.tests;
+
+import com.alibaba.fastjson.JSON;
+
+/**
+ * 步骤日志等消息的轻量模型
+ * <p>
+ * 字段按添加顺序保存，只在 {@link #toJSONString()} 时序列化一次，序列化使用线程内复用的缓冲区；
+ * 得到的字符串同时用于文件日志、调试WebSocket与发往server的消息，不再各自序列化
+ */
+public class LogEvent {
+
+    private static final int INITIAL_FIELDS = 10;
+
+    /**
+     * 复用缓冲区的最大容量，超过后丢弃，避免个别超大日志长期占用内存
+     */
+    private static final int MAX_CACHED_BUFFER = 64 * 1024;
+
+    private static final ThreadLocal<StringBuilder> buffers = ThreadLocal.withInitial(() -> new StringBuilder(1024));
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final String msg;
+
+    private String[] keys = new String[INITIAL_FIELDS];
+
+    private Object[] values = new Object[INITIAL_FIELDS];
+
+    private int size = 0;
+
+    private LogEvent(String msg) {
+        this.msg = msg;
+        put("msg", msg);
+    }
+
+    public static LogEvent of(String msg) {
+        return new LogEvent(msg);
+    }
+
+    public String getMsg() {
+        return msg;
+    }
+
+    /**
+     * 添加字段，已存在时覆盖
+     *
+     * @param value 字符串、数字、布尔值，其他类型按fastjson序列化
+     */
+    public LogEvent put(String key, Object value) {
+        for (int i = 0; i < size; i++) {
+            if (keys[i].equals(key)) {
+                values[i] = value;
+                return this;
+            }
+        }
+        if (size == keys.length) {
+            String[] newKeys = new String[size * 2];
+            Object[] newValues = new Object[size * 2];
+            System.arraycopy(keys, 0, newKeys, 0, size);
+            System.arraycopy(values, 0, newValues, 0, size);
+            keys = newKeys;
+            values = newValues;
+        }
+        keys[size] = key;
+        values[size] = value;
+        size++;
+        return this;
+    }
+
+    public String toJSONString() {
+        StringBuilder builder = buffers.get();
+        builder.setLength(0);
+        builder.append('{');
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            writeString(builder, keys[i]);
+            builder.append(':');
+            writeValue(builder, values[i]);
+        }
+        builder.append('}');
+        String text = builder.toString();
+        if (builder.capacity() > MAX_CACHED_BUFFER) {
+            buffers.remove();
+        }
+        return text;
+    }
+
+    @Override
+    public String toString() {
+        return toJSONString();
+    }
+
+    private static void writeValue(StringBuilder builder, Object value) {
+        if (value == null) {
+            builder.append("null");
+        } else if (value instanceof String) {
+            writeString(builder, (String) value);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Boolean
+                || value instanceof Short || value instanceof Byte) {
+            builder.append(value);
+        } else {
+            builder.append(JSON.toJSONString(value));
+        }
+    }
+
+    private static void writeString(StringBuilder builder, String value) {
+        builder.append('"');
+        int start = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            builder.append(value, start, i);
+            switch (c) {
+                case '"':
+                    builder.append("\\\"");
+                    break;
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                default:
+                    builder.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xf]);
+            }
+            start = i + 1;
+        }
+        builder.append(value, start, length).append('"');
+    }
+}
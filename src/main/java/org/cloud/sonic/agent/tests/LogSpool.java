@@ -0,0 +1,400 @@
+/*
+ *  Copyright (C) [SonicCloudOrg] Sonic Project
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.cloud.sonic.agent.tests;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cloud.sonic.agent.tools.AgentExecutors;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 测试日志的本地落盘
+ * <p>
+ * TESTING模式下的日志除了发往server，还按 rid-cid-udId 写入各自的gzip文件，长时间运行时server异常也不会丢失，
+ * 排查问题时也不需要在所有设备共用的agent日志中查找。文件超过设定大小后滚动为下一个文件，
+ * 文件名为 rid-cid-udId.序号.log.gz，每行一条JSON。
+ * <p>
+ * 日志线程只把消息放入无锁队列，由单个写线程批量写入，写完一批后同步刷新压缩流，已写入的部分随时可读；
+ * 收到status消息（一条用例在一台设备上结束）后关闭对应文件。落盘的日志可以通过 {@link #replay} 重新读取，
+ * server丢失某次结果的日志时据此重新发送。
+ */
+@Configuration
+@Slf4j
+public class LogSpool {
+
+    /**
+     * 文件超过多久没有写入时关闭，避免异常结束的用例一直占用文件句柄
+     */
+    private static final long IDLE_CLOSE_TIME = TimeUnit.MINUTES.toMillis(30);
+
+    /**
+     * 队列为空时写线程的最长等待时间
+     */
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+    private static final String SUFFIX = ".log.gz";
+
+    @Value("${sonic.agent.spool.path:test-output/spool}")
+    private String spoolPath;
+
+    @Value("${sonic.agent.spool.file-size-mb:64}")
+    private long spoolFileSizeMb;
+
+    @Value("${sonic.agent.spool.keep-days:7}")
+    private int spoolKeepDays;
+
+    private static final ConcurrentLinkedQueue<Record> queue = new ConcurrentLinkedQueue<>();
+
+    private static final Map<String, SpoolFile> files = new HashMap<>();
+
+    private static volatile File dir;
+
+    private static long maxFileSize;
+
+    private static volatile Thread writer;
+
+    private static volatile boolean waiting = false;
+
+    @Bean
+    @DependsOn({"agentExecutorsInit"})
+    public void logSpoolInit() {
+        start(new File(spoolPath), spoolFileSizeMb * 1024 * 1024, TimeUnit.DAYS.toMillis(spoolKeepDays));
+    }
+
+    /**
+     * @param spoolDir 存放目录
+     * @param fileSize 单个文件未压缩的大小上限，超过后滚动
+     * @param keepTime 启动时删除修改时间早于该时长的文件
+     */
+    static synchronized void start(File spoolDir, long fileSize, long keepTime) {
+        if (writer != null) {
+            return;
+        }
+        if (!spoolDir.exists() && !spoolDir.mkdirs()) {
+            log.error("create log spool dir {} failed, test logs will not be spooled.", spoolDir.getAbsolutePath());
+            return;
+        }
+        cleanExpired(spoolDir, keepTime);
+        maxFileSize = fileSize;
+        dir = spoolDir;
+        writer = AgentExecutors.startThread("log-spool", LogSpool::writeLoop);
+    }
+
+    /**
+     * 停止写线程并关闭所有文件，队列中剩余的日志会先写完
+     */
+    static synchronized void stop() throws InterruptedException {
+        Thread current = writer;
+        if (current == null) {
+            return;
+        }
+        writer = null;
+        current.interrupt();
+        current.join();
+    }
+
+    /**
+     * 追加一条已序列化的日志
+     */
+    public static void append(int resultId, int caseId, String udId, String text) {
+        offer(new Record(key(resultId, caseId, udId), text));
+    }
+
+    /**
+     * 该结果的日志已写完，关闭文件
+     */
+    public static void close(int resultId, int caseId, String udId) {
+        offer(new Record(key(resultId, caseId, udId), null));
+    }
+
+    /**
+     * 按写入顺序读取落盘的日志，包括写线程已刷新但尚未关闭的部分
+     *
+     * @return 读取的条数
+     */
+    public static int replay(int resultId, int caseId, String udId, Consumer<String> consumer) throws IOException {
+        File spoolDir = dir;
+        if (spoolDir == null) {
+            return 0;
+        }
+        int count = 0;
+        for (File file : listFiles(spoolDir, key(resultId, caseId, udId))) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new TruncatedInputStream(new GZIPInputStream(new FileInputStream(file))), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // 最后一行可能还没有写完整
+                    if (!line.isEmpty() && line.charAt(line.length() - 1) == '}') {
+                        consumer.accept(line);
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    private static void offer(Record record) {
+        Thread current = writer;
+        if (current == null) {
+            return;
+        }
+        queue.offer(record);
+        if (waiting) {
+            LockSupport.unpark(current);
+        }
+    }
+
+    private static void writeLoop() {
+        while (true) {
+            Record record = queue.poll();
+            if (record == null) {
+                if (Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                flushAll();
+                closeIdle(System.currentTimeMillis());
+                waiting = true;
+                if (queue.isEmpty()) {
+                    LockSupport.parkNanos(PARK_NANOS);
+                }
+                waiting = false;
+                continue;
+            }
+            try {
+                write(record);
+            } catch (IOException e) {
+                log.error("write log spool {} failed.", record.key, e);
+                closeQuietly(files.remove(record.key));
+            }
+        }
+        files.values().forEach(LogSpool::closeQuietly);
+        files.clear();
+    }
+
+    private static void write(Record record) throws IOException {
+        SpoolFile file = files.get(record.key);
+        if (record.text == null) {
+            if (file != null) {
+                files.remove(record.key);
+                file.close();
+            }
+            return;
+        }
+        if (file == null) {
+            file = new SpoolFile(dir, record.key);
+            files.put(record.key, file);
+        } else if (file.written >= maxFileSize) {
+            file.rotate();
+        }
+        file.write(record.text);
+    }
+
+    private static void flushAll() {
+        Iterator<SpoolFile> iterator = files.values().iterator();
+        while (iterator.hasNext()) {
+            SpoolFile file = iterator.next();
+            try {
+                file.flush();
+            } catch (IOException e) {
+                log.error("flush log spool {} failed.", file.key, e);
+                closeQuietly(file);
+                iterator.remove();
+            }
+        }
+    }
+
+    private static void closeIdle(long now) {
+        Iterator<SpoolFile> iterator = files.values().iterator();
+        while (iterator.hasNext()) {
+            SpoolFile file = iterator.next();
+            if (now - file.lastWrite > IDLE_CLOSE_TIME) {
+                closeQuietly(file);
+                iterator.remove();
+            }
+        }
+    }
+
+    private static void closeQuietly(SpoolFile file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            file.close();
+        } catch (IOException e) {
+            log.error("close log spool {} failed.", file.key, e);
+        }
+    }
+
+    private static void cleanExpired(File spoolDir, long keepTime) {
+        File[] expired = spoolDir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (expired == null) {
+            return;
+        }
+        long deadline = System.currentTimeMillis() - keepTime;
+        for (File file : expired) {
+            if (file.lastModified() < deadline && !file.delete()) {
+                log.info("delete expired log spool {} failed.", file.getName());
+            }
+        }
+    }
+
+    /**
+     * 该key已有的文件，按序号排序
+     */
+    private static List<File> listFiles(File spoolDir, String key) {
+        String prefix = key + ".";
+        File[] found = spoolDir.listFiles((d, name) -> name.startsWith(prefix) && name.endsWith(SUFFIX)
+                && indexOf(name, prefix) >= 0);
+        if (found == null) {
+            return Collections.emptyList();
+        }
+        List<File> result = new ArrayList<>(Arrays.asList(found));
+        result.sort(Comparator.comparingInt(f -> indexOf(f.getName(), prefix)));
+        return result;
+    }
+
+    private static int indexOf(String name, String prefix) {
+        try {
+            return Integer.parseInt(name.substring(prefix.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * udId可能是 ip:port 的形式，文件名中不能出现的字符替换为下划线
+     */
+    static String key(int resultId, int caseId, String udId) {
+        StringBuilder builder = new StringBuilder(udId.length() + 24);
+        builder.append(resultId).append('-').append(caseId).append('-');
+        for (int i = 0; i < udId.length(); i++) {
+            char c = udId.charAt(i);
+            builder.append(Character.isLetterOrDigit(c) || c == '.' || c == '_' || c == '-' ? c : '_');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 正在写入的文件末尾还没有gzip结束标记，读到已刷新的位置时视为结束，而不是抛出EOFException
+     */
+    private static class TruncatedInputStream extends FilterInputStream {
+
+        TruncatedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return super.read();
+            } catch (EOFException e) {
+                return -1;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                return super.read(b, off, len);
+            } catch (EOFException e) {
+                return -1;
+            }
+        }
+    }
+
+    private static class Record {
+        private final String key;
+
+        /**
+         * null表示关闭文件
+         */
+        private final String text;
+
+        Record(String key, String text) {
+            this.key = key;
+            this.text = text;
+        }
+    }
+
+    /**
+     * 一个key当前打开的gzip文件，只由写线程访问
+     */
+    private static class SpoolFile {
+        private final File dir;
+        private final String key;
+        private int index;
+        private Writer out;
+        private long written;
+        private long lastWrite;
+        private boolean dirty;
+
+        SpoolFile(File dir, String key) throws IOException {
+            this.dir = dir;
+            this.key = key;
+            List<File> existing = listFiles(dir, key);
+            // 同一结果关闭后又有日志时，从新的序号开始，不改动已关闭的文件
+            this.index = existing.isEmpty() ? 0 : indexOf(existing.get(existing.size() - 1).getName(), key + ".") + 1;
+            open();
+        }
+
+        private void open() throws IOException {
+            File file = new File(dir, key + "." + index + SUFFIX);
+            out = new BufferedWriter(new OutputStreamWriter(
+                    new GZIPOutputStream(new FileOutputStream(file), 8192, true), StandardCharsets.UTF_8));
+            written = 0;
+            dirty = false;
+        }
+
+        void write(String text) throws IOException {
+            out.write(text);
+            out.write('\n');
+            written += text.length() + 1;
+            lastWrite = System.currentTimeMillis();
+            dirty = true;
+        }
+
+        void rotate() throws IOException {
+            out.close();
+            index++;
+            open();
+        }
+
+        void flush() throws IOException {
+            if (dirty) {
+                out.flush();
+                dirty = false;
+            }
+        }
+
+        void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -20,14 +20,13 @@ import com.alibaba.fastjson.JSONObject;
 import org.cloud.sonic.agent.common.interfaces.DeviceStatus;
 import org.cloud.sonic.agent.common.interfaces.StepType;
 import org.cloud.sonic.agent.common.maps.WebSocketSessionMap;
+import org.cloud.sonic.agent.tools.LogClock;
+import org.cloud.sonic.agent.tools.WebSocketLogChannel;
 import org.cloud.sonic.agent.transport.TransportWorker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.websocket.Session;
-import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 
 /**
  * @author ZhouYiXun
@@ -50,62 +49,76 @@ public class LogUtil {
      * @date 2021/8/16 19:57
      */
     public void send(JSONObject message) {
+        LogEvent event = LogEvent.of(message.getString("msg"));
+        message.forEach(event::put);
+        send(event);
+    }
+
+    /**
+     * @param event
+     * @return void
+     * @des 判断发送到哪个地方，只序列化一次，文件日志与发送的内容相同；
+     * 时间取自 {@link LogClock}，发往server为毫秒时间戳，调试时为 HH:mm:ss；
+     * 测试时同时写入 {@link LogSpool}，status消息表示该结果结束
+     */
+    public void send(LogEvent event) {
         //先加上消息附带信息
-        message.put("cid", caseId);
-        message.put("rid", resultId);
-        message.put("udId", udId);
-        if (type.equals(DeviceStatus.DEBUGGING)) {
-            sendToWebSocket(WebSocketSessionMap.getSession(sessionId), message);
+        event.put("cid", caseId);
+        event.put("rid", resultId);
+        event.put("udId", udId);
+        boolean isDebugging = type.equals(DeviceStatus.DEBUGGING);
+        boolean isTesting = type.equals(DeviceStatus.TESTING);
+        if (isDebugging) {
+            event.put("time", getDateToString());
+        } else if (isTesting) {
+            event.put("time", LogClock.now());
+        }
+        String text = event.toJSONString();
+        if (isDebugging) {
+            sendToWebSocket(WebSocketSessionMap.getSession(sessionId), text);
         }
-        if (type.equals(DeviceStatus.TESTING)) {
-            sendToServer(message);
+        if (isTesting) {
+            sendToServer(event.getMsg(), text);
+            LogSpool.append(resultId, caseId, udId, text);
+            if ("status".equals(event.getMsg())) {
+                LogSpool.close(resultId, caseId, udId);
+            }
         }
-        logger.info(message.toJSONString());
+        logger.info(text);
     }
 
     /**
-     * @param message
+     * @param msg
+     * @param text
      * @return void
      * @author ZhouYiXun
      * @des 发送到服务端
      * @date 2021/8/16 19:57
      */
-    private void sendToServer(JSONObject message) {
-        message.put("time", new Date());
-        TransportWorker.send(message);
+    private void sendToServer(String msg, String text) {
+        TransportWorker.send(msg, text);
     }
 
     /**
      * @param session
-     * @param message
+     * @param text
      * @return void
      * @author ZhouYiXun
-     * @des 通过session发送给前端
+     * @des 通过session异步发送给前端
      * @date 2021/8/16 19:57
      */
-    private void sendToWebSocket(Session session, JSONObject message) {
-        if (session == null || !session.isOpen()) {
-            return;
-        }
-        synchronized (session) {
-            try {
-                message.put("time", getDateToString());
-                session.getBasicRemote().sendText(message.toJSONString());
-            } catch (IllegalStateException | IOException e) {
-                logger.error(e.getMessage());
-            }
-        }
+    private void sendToWebSocket(Session session, String text) {
+        WebSocketLogChannel.send(session, text);
     }
 
     /**
      * @return java.lang.String
      * @author ZhouYiXun
-     * @des format一下时间
+     * @des format一下时间，同一秒内复用格式化结果
      * @date 2021/8/16 19:58
      */
     public String getDateToString() {
-        SimpleDateFormat sf = new SimpleDateFormat("HH:mm:ss");
-        return sf.format(new Date());
+        return LogClock.formatTime();
     }
 
     /**
@@ -118,8 +131,7 @@ public class LogUtil {
      * @date 2021/8/16 19:58
      */
     public void sendElapsed(int totalTime, int platform, String version) {
-        JSONObject log = new JSONObject();
-        log.put("msg", "elapsed");
+        LogEvent log = LogEvent.of("elapsed");
         log.put("pf", platform);
         log.put("ver", version);
         log.put("run", totalTime);
@@ -136,8 +148,7 @@ public class LogUtil {
      * @date 2021/8/16 19:58
      */
     public void sendStepLog(int status, String des, String detail) {
-        JSONObject log = new JSONObject();
-        log.put("msg", "step");
+        LogEvent log = LogEvent.of("step");
         log.put("des", des);
         log.put("status", status);
         log.put("log", detail);
@@ -153,8 +164,7 @@ public class LogUtil {
      * @date 2021/8/16 19:58
      */
     public void sendPerLog(String packageName, int type, JSONObject detail) {
-        JSONObject log = new JSONObject();
-        log.put("msg", "perform");
+        LogEvent log = LogEvent.of("perform");
         log.put("des", packageName);
         log.put("log", detail.toJSONString());
         log.put("status", type);
@@ -170,8 +180,7 @@ public class LogUtil {
      * @date 2021/8/16 19:58
      */
     public void sendRecordLog(boolean isSupport, String fileName, String url) {
-        JSONObject log = new JSONObject();
-        log.put("msg", "record");
+        LogEvent log = LogEvent.of("record");
         log.put("status", isSupport ? 1 : 0);
         log.put("des", fileName);
         log.put("log", url);
@@ -201,8 +210,7 @@ public class LogUtil {
      * @date 2021/8/16 19:58
      */
     public void sendStatusLog(int status) {
-        JSONObject log = new JSONObject();
-        log.put("msg", "status");
+        LogEvent log = LogEvent.of("status");
         log.put("des", "");
         log.put("log", "");
         log.put("status", status);
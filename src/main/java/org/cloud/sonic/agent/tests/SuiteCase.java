@@ -0,0 +1,49 @@
+/*
+ *  Copyright (C) [SonicCloudOrg] Sonic Project
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.cloud.sonic.agent.tests;
+
+/**
+ * {@link SuiteScheduler} 中排队的一条用例在一台设备上的执行，由各平台的boot线程实现
+ */
+public interface SuiteCase {
+
+    TaskKey getTaskKey();
+
+    String getName();
+
+    /**
+     * 设备空闲时标记为测试中
+     *
+     * @return false表示设备正在被调试等占用
+     */
+    boolean occupyDevice();
+
+    /**
+     * 设备被占用，开始等待时回调一次
+     */
+    void onWaitDevice();
+
+    /**
+     * 等待设备超时，用例跳过
+     */
+    void onWaitDeviceTimeOut();
+
+    /**
+     * 开始执行，结束时需要回调 {@link SuiteScheduler#onCaseFinished}
+     */
+    void start();
+}
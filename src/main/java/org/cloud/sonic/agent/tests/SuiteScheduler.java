@@ -0,0 +1,452 @@
+/*
+ *  Copyright (C) [SonicCloudOrg] Sonic Project
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.cloud.sonic.agent.tests;
+
+import com.alibaba.fastjson.JSONObject;
+import lombok.extern.slf4j.Slf4j;
+import org.cloud.sonic.agent.automation.AndroidStepHandler;
+import org.cloud.sonic.agent.automation.IOSStepHandler;
+import org.cloud.sonic.agent.bridge.android.AndroidDeviceBridgeTool;
+import org.cloud.sonic.agent.bridge.android.AndroidDeviceLocalStatus;
+import org.cloud.sonic.agent.bridge.ios.IOSDeviceLocalStatus;
+import org.cloud.sonic.agent.bridge.ios.SibTool;
+import org.cloud.sonic.agent.common.interfaces.DeviceStatus;
+import org.cloud.sonic.agent.common.interfaces.PlatformType;
+import org.cloud.sonic.agent.tests.android.AndroidTestTaskBootThread;
+import org.cloud.sonic.agent.tests.ios.IOSTestTaskBootThread;
+import org.cloud.sonic.agent.tools.ScheduleTool;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 测试套件调度器
+ * <p>
+ * 每台设备一个用例队列，同一台设备上的用例按下发顺序串行执行，设备之间互不等待，
+ * 上一条用例结束后立即开始下一条；同时运行的用例总数不超过 sonic.agent.case-concurrency。
+ * 设备正在被调试等占用时，用例在队列中等待，设备释放时（见DeviceLocalStatus的finish）立即重新尝试，
+ * 超过 {@link #WAIT_DEVICE_TIMEOUT} 仍未释放则跳过该用例。
+ * <p>
+ * 占用设备会发送状态消息，和其他用例回调一样在锁外执行：锁内先为队首用例占好位置，锁外占用设备，
+ * 失败时再放回队首。
+ * <p>
+ * 结果被强制停止后，该结果还在排队的用例直接移除
+ */
+@Configuration
+@Slf4j
+public class SuiteScheduler {
+
+    /**
+     * 设备被占用时最长的等待时间
+     */
+    public static final long WAIT_DEVICE_TIMEOUT = TimeUnit.MINUTES.toMillis(10);
+
+    @Value("${sonic.agent.case-concurrency:0}")
+    private int caseConcurrency;
+
+    private static final Object lock = new Object();
+
+    /**
+     * 各设备的用例队列
+     */
+    private static final Map<String, DeviceQueue> queues = new HashMap<>();
+
+    /**
+     * 因全局并发数已满而等待的设备
+     */
+    private static final Deque<String> waitingDevices = new ArrayDeque<>();
+
+    /**
+     * 已排队或正在运行的用例，用于忽略重复下发
+     */
+    private static final Set<TaskKey> scheduled = new HashSet<>();
+
+    /**
+     * 各结果剩余的用例数
+     */
+    private static final Map<Integer, Integer> remainingByRid = new HashMap<>();
+
+    private static int running = 0;
+
+    private static int maxRunning = Integer.MAX_VALUE;
+
+    @Bean
+    public void suiteSchedulerInit() {
+        setMaxRunning(caseConcurrency);
+    }
+
+    /**
+     * @param max 同时运行的用例数上限，小于等于0表示不限制
+     */
+    public static void setMaxRunning(int max) {
+        List<QueuedCase> toStart;
+        synchronized (lock) {
+            maxRunning = max <= 0 ? Integer.MAX_VALUE : max;
+            toStart = drainWaitingDevices();
+        }
+        start(toStart);
+    }
+
+    /**
+     * 下发的测试套件，按用例顺序加入各设备的队列，离线的设备跳过
+     *
+     * @param platform {@link PlatformType}
+     * @param cases    用例列表，每个用例带有设备列表
+     */
+    public static void submit(int platform, List<JSONObject> cases) {
+        List<SuiteCase> suiteCases = new ArrayList<>();
+        for (JSONObject dataInfo : cases) {
+            for (JSONObject device : dataInfo.getJSONArray("device").toJavaList(JSONObject.class)) {
+                String udId = device.getString("udId");
+                if (!isOnline(platform, udId)) {
+                    continue;
+                }
+                JSONObject deviceTestData = new JSONObject();
+                deviceTestData.put("steps", dataInfo.getJSONArray("steps"));
+                deviceTestData.put("rid", dataInfo.getInteger("rid"));
+                deviceTestData.put("cid", dataInfo.getInteger("cid"));
+                deviceTestData.put("gp", dataInfo.getJSONObject("gp"));
+                deviceTestData.put("device", device);
+                suiteCases.add(newCase(platform, deviceTestData));
+            }
+        }
+        enqueue(suiteCases);
+    }
+
+    /**
+     * 加入各设备的队列，已排队或正在运行的用例忽略
+     */
+    public static void enqueue(List<SuiteCase> suiteCases) {
+        List<QueuedCase> toStart = new ArrayList<>();
+        synchronized (lock) {
+            Set<String> devices = new LinkedHashSet<>();
+            for (SuiteCase suiteCase : suiteCases) {
+                TaskKey key = suiteCase.getTaskKey();
+                if (!scheduled.add(key)) {
+                    log.info("Task {} repeat! Maybe cause by network, ignore...", key);
+                    continue;
+                }
+                remainingByRid.merge(key.getResultId(), 1, Integer::sum);
+                queues.computeIfAbsent(key.getUdId(), DeviceQueue::new).cases.add(new QueuedCase(suiteCase));
+                devices.add(key.getUdId());
+            }
+            for (String udId : devices) {
+                tryStart(queues.get(udId), toStart);
+            }
+        }
+        start(toStart);
+    }
+
+    /**
+     * 该结果是否还有排队或正在运行的用例
+     */
+    public static boolean isRunning(int resultId) {
+        synchronized (lock) {
+            return remainingByRid.containsKey(resultId);
+        }
+    }
+
+    /**
+     * 强制停止结果时调用，移除该结果还在排队的用例，正在运行的由 {@link TaskManager} 停止
+     */
+    public static void cancel(int resultId) {
+        List<QueuedCase> toStart = new ArrayList<>();
+        synchronized (lock) {
+            for (DeviceQueue queue : new ArrayList<>(queues.values())) {
+                Iterator<QueuedCase> iterator = queue.cases.iterator();
+                while (iterator.hasNext()) {
+                    QueuedCase queued = iterator.next();
+                    if (queued.suiteCase.getTaskKey().getResultId() == resultId) {
+                        iterator.remove();
+                        log.info("任务【{}】中断，跳过", queued.suiteCase.getName());
+                        release(queued.suiteCase.getTaskKey());
+                    }
+                }
+                if (queue.claimed != null && queue.claimed.suiteCase.getTaskKey().getResultId() == resultId) {
+                    queue.claimed.cancelled = true;
+                }
+                tryStart(queue, toStart);
+            }
+        }
+        start(toStart);
+    }
+
+    /**
+     * 用例执行结束，由boot线程在finally中调用
+     */
+    public static void onCaseFinished(TaskKey key) {
+        List<QueuedCase> toStart = new ArrayList<>();
+        synchronized (lock) {
+            DeviceQueue queue = queues.get(key.getUdId());
+            if (queue == null || queue.running == null || !queue.running.equals(key)) {
+                return;
+            }
+            queue.running = null;
+            running--;
+            release(key);
+            tryStart(queue, toStart);
+            toStart.addAll(drainWaitingDevices());
+        }
+        start(toStart);
+        log.info("任务【{}】完成", key);
+    }
+
+    /**
+     * 设备被释放（调试结束等），尝试开始该设备排队的用例
+     */
+    public static void onDeviceFree(String udId) {
+        List<QueuedCase> toStart = new ArrayList<>();
+        synchronized (lock) {
+            DeviceQueue queue = queues.get(udId);
+            if (queue != null) {
+                tryStart(queue, toStart);
+            }
+        }
+        start(toStart);
+    }
+
+    /**
+     * 尝试开始队首的用例，需要持有lock；队首用例先占好位置放入toStart，在锁外占用设备并启动
+     */
+    private static void tryStart(DeviceQueue queue, List<QueuedCase> toStart) {
+        if (queue.running != null) {
+            if (queue.claimed != null) {
+                // 锁外正在占用设备，期间设备可能被释放，占用失败时需要重试
+                queue.retry = true;
+            }
+            return;
+        }
+        QueuedCase head = queue.cases.peek();
+        if (head == null) {
+            queues.remove(queue.udId);
+            return;
+        }
+        if (running >= maxRunning) {
+            if (!queue.waitingSlot) {
+                queue.waitingSlot = true;
+                waitingDevices.add(queue.udId);
+            }
+            return;
+        }
+        queue.cases.poll();
+        queue.running = head.suiteCase.getTaskKey();
+        queue.claimed = head;
+        running++;
+        toStart.add(head);
+    }
+
+    /**
+     * 设备被占用，放回队首等待设备释放
+     */
+    private static void onOccupyFailed(QueuedCase queued) {
+        TaskKey key = queued.suiteCase.getTaskKey();
+        List<QueuedCase> toStart = new ArrayList<>();
+        boolean firstWait = false;
+        boolean timeout = false;
+        synchronized (lock) {
+            DeviceQueue queue = queues.get(key.getUdId());
+            boolean retry = queue.retry;
+            queue.claimed = null;
+            queue.retry = false;
+            queue.running = null;
+            running--;
+            if (queued.cancelled) {
+                release(key);
+            } else if (queued.waitUntil > 0 && System.currentTimeMillis() >= queued.waitUntil) {
+                timeout = true;
+                release(key);
+            } else {
+                queue.cases.addFirst(queued);
+                if (queued.waitUntil == 0 && !retry) {
+                    firstWait = true;
+                    queued.waitUntil = System.currentTimeMillis() + WAIT_DEVICE_TIMEOUT;
+                    ScheduleTool.schedule(() -> onWaitTimeout(queued), WAIT_DEVICE_TIMEOUT, TimeUnit.MILLISECONDS);
+                }
+            }
+            if (retry || queue.cases.peek() != queued) {
+                tryStart(queue, toStart);
+            }
+            toStart.addAll(drainWaitingDevices());
+        }
+        if (firstWait) {
+            queued.suiteCase.onWaitDevice();
+        }
+        if (timeout) {
+            queued.suiteCase.onWaitDeviceTimeOut();
+        }
+        start(toStart);
+    }
+
+    private static List<QueuedCase> drainWaitingDevices() {
+        List<QueuedCase> toStart = new ArrayList<>();
+        while (running < maxRunning && !waitingDevices.isEmpty()) {
+            DeviceQueue queue = queues.get(waitingDevices.poll());
+            if (queue != null) {
+                queue.waitingSlot = false;
+                tryStart(queue, toStart);
+            }
+        }
+        return toStart;
+    }
+
+    private static void onWaitTimeout(QueuedCase queued) {
+        TaskKey key = queued.suiteCase.getTaskKey();
+        List<QueuedCase> toStart = new ArrayList<>();
+        synchronized (lock) {
+            DeviceQueue queue = queues.get(key.getUdId());
+            if (queue == null || queue.cases.peek() != queued) {
+                return;
+            }
+            queue.cases.poll();
+            release(key);
+            tryStart(queue, toStart);
+        }
+        queued.suiteCase.onWaitDeviceTimeOut();
+        start(toStart);
+    }
+
+    /**
+     * 用例不再排队或运行，需要持有lock
+     */
+    private static void release(TaskKey key) {
+        scheduled.remove(key);
+        remainingByRid.computeIfPresent(key.getResultId(), (rid, count) -> count > 1 ? count - 1 : null);
+    }
+
+    /**
+     * 在锁外占用设备并启动boot线程
+     */
+    private static void start(List<QueuedCase> toStart) {
+        for (QueuedCase queued : toStart) {
+            SuiteCase suiteCase = queued.suiteCase;
+            TaskKey key = suiteCase.getTaskKey();
+            if (!suiteCase.occupyDevice()) {
+                onOccupyFailed(queued);
+                continue;
+            }
+            boolean cancelled;
+            synchronized (lock) {
+                queues.get(key.getUdId()).claimed = null;
+                cancelled = queued.cancelled;
+            }
+            if (cancelled) {
+                log.info("任务【{}】中断，跳过", suiteCase.getName());
+                freeDevice(key, false);
+                onCaseFinished(key);
+                continue;
+            }
+            try {
+                TaskManager.startBootThread(key, (Thread) suiteCase);
+            } catch (RuntimeException e) {
+                log.error("start task {} failed.", suiteCase.getName(), e);
+                freeDevice(key, true);
+                onCaseFinished(key);
+            }
+        }
+    }
+
+    /**
+     * boot线程没有启动，由这里释放已占用的设备
+     */
+    private static void freeDevice(TaskKey key, boolean error) {
+        if (key.getPlatform() == PlatformType.ANDROID) {
+            if (error) {
+                AndroidDeviceLocalStatus.finishError(key.getUdId());
+            } else {
+                AndroidDeviceLocalStatus.finish(key.getUdId());
+            }
+        } else {
+            if (error) {
+                IOSDeviceLocalStatus.finishError(key.getUdId());
+            } else {
+                IOSDeviceLocalStatus.finish(key.getUdId());
+            }
+        }
+    }
+
+    private static boolean isOnline(int platform, String udId) {
+        if (platform == PlatformType.ANDROID) {
+            return AndroidDeviceBridgeTool.getIDeviceByUdId(udId) != null
+                    && AndroidDeviceBridgeTool.getIDeviceByUdId(udId).getState().toString().equals("ONLINE");
+        }
+        if (platform == PlatformType.IOS) {
+            return SibTool.getDeviceList().contains(udId);
+        }
+        return false;
+    }
+
+    private static SuiteCase newCase(int platform, JSONObject jsonObject) {
+        int rid = jsonObject.getInteger("rid");
+        int cid = jsonObject.getInteger("cid");
+        String udId = jsonObject.getJSONObject("device").getString("udId");
+        JSONObject gp = jsonObject.getJSONObject("gp");
+        if (platform == PlatformType.ANDROID) {
+            AndroidStepHandler androidStepHandler = new AndroidStepHandler();
+            androidStepHandler.setGlobalParams(gp);
+            androidStepHandler.setTestMode(cid, rid, udId, DeviceStatus.TESTING, "");
+            return new AndroidTestTaskBootThread(jsonObject, androidStepHandler);
+        }
+        IOSStepHandler iosStepHandler = new IOSStepHandler();
+        iosStepHandler.setGlobalParams(gp);
+        iosStepHandler.setTestMode(cid, rid, udId, DeviceStatus.TESTING, "");
+        return new IOSTestTaskBootThread(jsonObject, iosStepHandler);
+    }
+
+    private static class DeviceQueue {
+        private final String udId;
+        private final Deque<QueuedCase> cases = new ArrayDeque<>();
+        /**
+         * 正在运行的用例
+         */
+        private TaskKey running;
+        /**
+         * 是否已在waitingDevices中
+         */
+        private boolean waitingSlot;
+        /**
+         * 已占好位置、正在锁外占用设备的用例
+         */
+        private QueuedCase claimed;
+        /**
+         * 占用设备期间有过释放通知
+         */
+        private boolean retry;
+
+        DeviceQueue(String udId) {
+            this.udId = udId;
+        }
+    }
+
+    private static class QueuedCase {
+        private final SuiteCase suiteCase;
+        /**
+         * 等待设备释放的截止时间，0表示还没有开始等待
+         */
+        private long waitUntil;
+        /**
+         * 占用设备期间结果被强制停止
+         */
+        private boolean cancelled;
+
+        QueuedCase(SuiteCase suiteCase) {
+            this.suiteCase = suiteCase;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ *  Copyright (C) [SonicCloudOrg] Sonic Project
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.cloud.sonic.agent.tests;
+
+import java.util.Objects;
+
+/**
+ * 测试任务的标识，对应一条用例在一台设备上的一次执行，调试任务的resultId为0
+ * <p>
+ * 代替原来由线程名拼接再 split("-") 解析的方式，udId中带有"-"（如模拟器序列号、iOS的UDID）时也不会解析错
+ */
+public final class TaskKey {
+
+    /**
+     * {@link org.cloud.sonic.agent.common.interfaces.PlatformType}
+     */
+    private final int platform;
+
+    private final int resultId;
+
+    private final int caseId;
+
+    private final String udId;
+
+    private final int hash;
+
+    public TaskKey(int platform, int resultId, int caseId, String udId) {
+        this.platform = platform;
+        this.resultId = resultId;
+        this.caseId = caseId;
+        this.udId = udId;
+        this.hash = Objects.hash(platform, resultId, caseId, udId);
+    }
+
+    public int getPlatform() {
+        return platform;
+    }
+
+    public int getResultId() {
+        return resultId;
+    }
+
+    public int getCaseId() {
+        return caseId;
+    }
+
+    public String getUdId() {
+        return udId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TaskKey)) {
+            return false;
+        }
+        TaskKey other = (TaskKey) o;
+        return platform == other.platform && resultId == other.resultId && caseId == other.caseId
+                && Objects.equals(udId, other.udId);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return platform + "-" + resultId + "-" + caseId + "-" + udId;
+    }
+}
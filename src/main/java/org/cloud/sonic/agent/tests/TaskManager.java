@@ -16,216 +16,105 @@
  */
 package org.cloud.sonic.agent.tests;
 
-import org.cloud.sonic.agent.common.interfaces.PlatformType;
-import org.cloud.sonic.agent.tests.android.AndroidTestTaskBootThread;
 import org.cloud.sonic.agent.tests.common.RunStepThread;
-import org.cloud.sonic.agent.tests.ios.IOSTestTaskBootThread;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.springframework.util.CollectionUtils;
 
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
-import java.util.stream.Collectors;
-
-import static org.cloud.sonic.agent.tests.SuiteListener.runningTestsMap;
 
 /**
+ * 测试任务登记表
+ * <p>
+ * 以 {@link TaskKey} 为key登记boot线程与它启动的子线程，另外按udId索引正在运行的任务，查询都是直接取map；
+ * boot线程结束时在finally中回调 {@link #onBootThreadFinished}，不再在每次登记时扫描所有线程
+ *
  * @author JayWenStar
  * @date 2021/12/27 11:42 上午
  */
 public class TaskManager {
 
-    private static final Logger logger = LoggerFactory.getLogger(TaskManager.class);
-
-    /**
-     * key是boot的线程名，value是boot线程本身
-     */
-    private static ConcurrentHashMap<String, Thread> bootThreadsMap = new ConcurrentHashMap<>();
-
-    /**
-     * key是boot的线程名，value是boot线程启动的线程，因为是守护线程，所以当boot被停止后，child线程也会停止
-     */
-    private static ConcurrentHashMap<String, Set<Thread>> childThreadsMap = new ConcurrentHashMap<>();
-
     /**
-     * 记录正在运行的rid记录
+     * 所有登记的任务
      */
-    private static Set<String> runningRidSet =  Collections.synchronizedSet(new HashSet<>());
+    private static final ConcurrentHashMap<TaskKey, Task> tasks = new ConcurrentHashMap<>();
 
     /**
-     * 记录正在运行的udId记录
+     * 有boot线程正在运行的任务，按udId索引
      */
-    private static Set<String> runningUdIdSet =  Collections.synchronizedSet(new HashSet<>());
-
-    private static final Lock lock = new ReentrantLock();
+    private static final ConcurrentHashMap<String, Set<TaskKey>> runningByUdId = new ConcurrentHashMap<>();
 
     public static boolean ridRunning(Integer rid, String udId) {
-        return runningRidSet.contains(rid + "-" + udId);
+        Set<TaskKey> keys = runningByUdId.get(udId);
+        if (keys == null) {
+            return false;
+        }
+        for (TaskKey key : keys) {
+            if (key.getResultId() == rid) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public static boolean udIdRunning(String udId) {
-        return runningUdIdSet.contains(udId);
+        return runningByUdId.containsKey(udId);
     }
 
     /**
-     * 启动boot线程
+     * 登记并启动boot线程，boot线程结束时需要调用 {@link #onBootThreadFinished}
      *
+     * @param key        任务标识
      * @param bootThread boot线程
      */
-    public static void startBootThread(Thread bootThread) {
+    public static void startBootThread(TaskKey key, Thread bootThread) {
+        Task task = tasks.computeIfAbsent(key, k -> new Task());
+        task.bootThread = bootThread;
+        runningByUdId.compute(key.getUdId(), (udId, keys) -> {
+            if (keys == null) {
+                keys = ConcurrentHashMap.newKeySet();
+            }
+            keys.add(key);
+            return keys;
+        });
         bootThread.start();
-        addBootThread(bootThread.getName(), bootThread);
-
-        String[] split = bootThread.getName().split("-");
-        runningRidSet.add(split[split.length-3] + "-" + split[split.length-1]);
-        runningUdIdSet.add(split[split.length-1]);
     }
 
     /**
-     * 启动boot线程（批量）
+     * 登记并启动子线程
      *
-     * @param bootThreads boot线程
+     * @param key 所属任务的标识，调试时resultId为0
      */
-    public static void startBootThread(Thread... bootThreads) {
-        for (Thread bootThread : bootThreads) {
-            startBootThread(bootThread);
-        }
-    }
-
-    /**
-     * 启动子线程
-     */
-    public static void startChildThread(String key, Thread childThread) {
-        childThread.start();
-        addChildThread(key, childThread);
-    }
-
-    /**
-     * 启动子线程（批量）
-     */
-    public static void startChildThread(String key, Thread... childThreads) {
+    public static void startChildThread(TaskKey key, Thread... childThreads) {
         for (Thread childThread : childThreads) {
-            startChildThread(key, childThread);
-        }
-    }
-
-
-    /**
-     * 添加boot线程
-     *
-     * @param key        用boot线程名作为key
-     * @param bootThread boot线程
-     */
-    public static void addBootThread(String key, Thread bootThread) {
-        clearTerminatedThread();
-        bootThreadsMap.put(key, bootThread);
-    }
-
-
-    /**
-     * 添加child线程（单个）
-     *
-     * @param key         用boot的线程名作为key
-     * @param childThread 线程
-     */
-    public static void addChildThread(String key, Thread childThread) {
-        clearTerminatedThread();
-        lock.lock();
-        if (childThreadsMap.containsKey(key)) {
-            Set<Thread> threadsSet = childThreadsMap.get(key);
-            if (CollectionUtils.isEmpty(threadsSet)) {
-                threadsSet = new HashSet<>();
-                threadsSet.add(childThread);
-                childThreadsMap.put(key, threadsSet);
-                lock.unlock();
-                return;
-            }
-            threadsSet.add(childThread);
-            lock.unlock();
-            return;
+            addChildThread(key, childThread);
+            childThread.start();
         }
-        Set<Thread> threadsSet = new HashSet<>();
-        threadsSet.add(childThread);
-        childThreadsMap.put(key, threadsSet);
-        lock.unlock();
     }
 
     /**
-     * 添加child线程（批量）
-     *
-     * @param key 用boot线程名作为key
-     * @param set 线程set
+     * 登记子线程，顺便移除该任务下已经结束的子线程
      */
-    public static void addChildThreadBatch(String key, HashSet<Thread> set) {
-        clearTerminatedThread();
-        lock.lock();
-        if (childThreadsMap.containsKey(key)) {
-            Set<Thread> threadsSet = childThreadsMap.get(key);
-            if (CollectionUtils.isEmpty(threadsSet)) {
-                childThreadsMap.put(key, set);
-                lock.unlock();
-                return;
-            }
-            childThreadsMap.get(key).addAll(set);
-            lock.unlock();
-            return;
-        }
-        childThreadsMap.put(key, set);
-        lock.unlock();
+    public static void addChildThread(TaskKey key, Thread childThread) {
+        Set<Thread> children = tasks.computeIfAbsent(key, k -> new Task()).childThreads;
+        children.removeIf(thread -> thread.getState() == Thread.State.TERMINATED);
+        children.add(childThread);
     }
 
     /**
-     * 根据key清除线程（非停止）
+     * boot线程结束的回调，停止仍在运行的子线程并移除登记；
+     * 任务已被强制停止并重新登记时不影响新的任务
      *
-     * @param key 线程名
+     * @param key        任务标识
+     * @param bootThread 结束的boot线程
      */
-    public static void clearTerminatedThreadByKey(String key) {
-        bootThreadsMap.remove(key);
-        Set<Thread> threads = childThreadsMap.get(key);
-        if (threads == null) {
+    public static void onBootThreadFinished(TaskKey key, Thread bootThread) {
+        Task task = tasks.get(key);
+        if (task == null || task.bootThread != bootThread || !tasks.remove(key, task)) {
             return;
         }
-        for (Thread thread : threads) {
+        removeRunning(key);
+        for (Thread thread : task.childThreads) {
             thread.interrupt();
         }
-        childThreadsMap.remove(key);
-
-        String[] split = key.split("-");
-        runningRidSet.remove(split[split.length-3] + "-" + split[split.length-1]);
-        runningUdIdSet.remove(split[split.length-1]);
-    }
-
-    /**
-     * 清除已经结束的线程，如果boot线程已经结束，若对应child线程未结束，则强制停止child线程
-     */
-    public static void clearTerminatedThread() {
-        logger.debug("clearTerminatedThread");
-        // 过滤出已经结束的boot线程组
-        Map<String, Thread> terminatedThread = bootThreadsMap.entrySet().stream()
-                .filter(t -> !t.getValue().isAlive())
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-        // 停止并删除boot线程
-        terminatedThread.forEach((k, v) -> {
-            v.interrupt();
-            bootThreadsMap.remove(k);
-
-            String[] split = k.split("-");
-            runningRidSet.remove(split[split.length-3] + "-" + split[split.length-1]);
-            runningUdIdSet.remove(split[split.length-1]);
-        });
-        // 删除boot衍生的线程
-        terminatedThread.forEach((key, value) -> {
-            childThreadsMap.remove(key);
-            String[] split = key.split("-");
-            runningRidSet.remove(split[split.length-3] + "-" + split[split.length-1]);
-            runningUdIdSet.remove(split[split.length-1]);
-        });
     }
 
     /**
@@ -236,32 +125,22 @@ public class TaskManager {
      * @param udId     设备序列号
      */
     public static void forceStopSuite(int platform, int resultId, int caseId, String udId) {
-        String key = "";
-        if (platform == PlatformType.ANDROID) {
-            key = String.format(AndroidTestTaskBootThread.ANDROID_TEST_TASK_BOOT_PRE, resultId, caseId, udId);
-        }
-        if (platform == PlatformType.IOS) {
-            key = String.format(IOSTestTaskBootThread.IOS_TEST_TASK_BOOT_PRE, resultId, caseId, udId);
-        }
-        // 停止boot线程
-        Thread bootThread = bootThreadsMap.get(key);
-        if (bootThread != null) {
-            bootThread.interrupt();
-        }
-        // 清理map
-        bootThreadsMap.remove(key);
-        Set<Thread> removed = childThreadsMap.remove(key);
-        if (!CollectionUtils.isEmpty(removed)) {
-            for (Thread thread : removed) {
+        TaskKey key = new TaskKey(platform, resultId, caseId, udId);
+        Task task = tasks.remove(key);
+        if (task != null) {
+            // 停止boot线程
+            if (task.bootThread != null) {
+                task.bootThread.interrupt();
+            }
+            for (Thread thread : task.childThreads) {
                 if (thread instanceof RunStepThread) {
                     ((RunStepThread) thread).setStopped(true);
                 }
             }
         }
-        runningTestsMap.remove(resultId + "");
-
-        runningRidSet.remove(resultId + "-" + udId);
-        runningUdIdSet.remove(udId);
+        // 该结果还在排队的用例不再执行
+        SuiteScheduler.cancel(resultId);
+        removeRunning(key);
     }
 
     /**
@@ -269,18 +148,38 @@ public class TaskManager {
      * 不能使用 {@link Thread#stop()} 、{@link Thread#interrupt()} ，
      * 因为目前的websocket会用当前所属线程做一些事，强制停止会导致一些问题
      *
-     * @param key  子线程key
+     * @param key 调试任务的标识，resultId为0
      */
-    public static void forceStopDebugStepThread(String key) {
-        Set<Thread> threads = childThreadsMap.get(key);
-        if (threads == null) {
+    public static void forceStopDebugStepThread(TaskKey key) {
+        Task task = tasks.get(key);
+        if (task == null) {
             return;
         }
-        for (Thread thread : threads) {
-            RunStepThread runStepThread = (RunStepThread) thread;
-            runStepThread.setStopped(true);
+        // 同一个key下可能还有投屏等其他子线程，只停止步骤线程
+        task.childThreads.removeIf(thread -> {
+            if (thread instanceof RunStepThread) {
+                ((RunStepThread) thread).setStopped(true);
+                return true;
+            }
+            return false;
+        });
+        if (task.bootThread == null && task.childThreads.isEmpty()) {
+            tasks.remove(key, task);
         }
-        childThreadsMap.remove(key);
     }
 
+    private static void removeRunning(TaskKey key) {
+        runningByUdId.computeIfPresent(key.getUdId(), (udId, keys) -> {
+            keys.remove(key);
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    /**
+     * 一个任务的boot线程与它启动的子线程
+     */
+    private static class Task {
+        private volatile Thread bootThread;
+        private final Set<Thread> childThreads = ConcurrentHashMap.newKeySet();
+    }
 }
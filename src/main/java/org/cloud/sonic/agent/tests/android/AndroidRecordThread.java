@@ -16,6 +16,7 @@
  */
 package org.cloud.sonic.agent.tests.android;
 
+import org.cloud.sonic.agent.tools.Lifecycle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,7 +26,7 @@ import org.slf4j.LoggerFactory;
  * @author Eason(main) JayWenStar(until e1a877b7)
  * @date 2021/12/2 12:29 上午
  */
-public class AndroidRecordThread extends Thread {
+public class AndroidRecordThread extends Thread implements Lifecycle.Aware {
 
     private final Logger log = LoggerFactory.getLogger(AndroidRecordThread.class);
 
@@ -36,6 +37,8 @@ public class AndroidRecordThread extends Thread {
 
     private final AndroidTestTaskBootThread androidTestTaskBootThread;
 
+    private final Lifecycle lifecycle = new Lifecycle();
+
     public AndroidRecordThread(AndroidTestTaskBootThread androidTestTaskBootThread) {
         this.androidTestTaskBootThread = androidTestTaskBootThread;
 
@@ -47,8 +50,14 @@ public class AndroidRecordThread extends Thread {
         return androidTestTaskBootThread;
     }
 
+    @Override
+    public Lifecycle getLifecycle() {
+        return lifecycle;
+    }
+
     @Override
     public void run() {
+        lifecycle.markStarted();
 //        AndroidStepHandler androidStepHandler = androidTestTaskBootThread.getAndroidStepHandler();
 //        AndroidRunStepThread runStepThread = androidTestTaskBootThread.getRunStepThread();
 //        String udId = androidTestTaskBootThread.getUdId();
@@ -70,7 +79,7 @@ public class AndroidRecordThread extends Thread {
 //            }
 //            Thread miniCapPro = null;
 //            AtomicReference<List<byte[]>> imgList = new AtomicReference<>(new ArrayList<>());
-//            AtomicReference<String[]> banner = new AtomicReference<>(new String[24]);
+//            AtomicReference<MiniCapBanner> banner = new AtomicReference<>();
 //            if (isSupportRecord) {
 //                try {
 //                    androidStepHandler.startRecord();
@@ -112,7 +121,7 @@ public class AndroidRecordThread extends Thread {
 //                    try {
 //                        androidStepHandler.log.sendRecordLog(true, fileName,
 //                                RecordHandler.record(uploadFile, imgList.get()
-//                                        , Integer.parseInt(banner.get()[9]), Integer.parseInt(banner.get()[13])));
+//                                        , banner.get().getRealWidth(), banner.get().getRealHeight()));
 //                    } catch (FrameRecorder.Exception e) {
 //                        e.printStackTrace();
 //                    }
@@ -120,5 +129,6 @@ public class AndroidRecordThread extends Thread {
 //                }
 //            }
 //        }
+        lifecycle.markTerminated();
     }
 }
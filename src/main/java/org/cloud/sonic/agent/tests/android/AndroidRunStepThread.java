@@ -59,21 +59,25 @@ public class AndroidRunStepThread extends RunStepThread {
 
     @Override
     public void run() {
-        StepHandlers stepHandlers = SpringTool.getBean(StepHandlers.class);
-        JSONObject jsonObject = androidTestTaskBootThread.getJsonObject();
-        List<JSONObject> steps = jsonObject.getJSONArray("steps").toJavaList(JSONObject.class);
+        lifecycle.markStarted();
+        try {
+            StepHandlers stepHandlers = SpringTool.getBean(StepHandlers.class);
+            JSONObject jsonObject = androidTestTaskBootThread.getJsonObject();
+            List<JSONObject> steps = jsonObject.getJSONArray("steps").toJavaList(JSONObject.class);
 
-        HandleDes handleDes = new HandleDes();
-        for (JSONObject step : steps) {
-            if (isStopped()) {
-                return;
-            }
-            try {
-                stepHandlers.runStep(step, handleDes, this);
-            } catch (Throwable e) {
-                break;
+            HandleDes handleDes = new HandleDes();
+            for (JSONObject step : steps) {
+                if (isStopped()) {
+                    return;
+                }
+                try {
+                    stepHandlers.runStep(step, handleDes, this);
+                } catch (Throwable e) {
+                    break;
+                }
             }
+        } finally {
+            lifecycle.markTerminated();
         }
-
     }
 }
\ No newline at end of file
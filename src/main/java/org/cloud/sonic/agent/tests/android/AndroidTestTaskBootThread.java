@@ -22,8 +22,14 @@ import com.android.ddmlib.InstallException;
 import org.cloud.sonic.agent.automation.AndroidStepHandler;
 import org.cloud.sonic.agent.bridge.android.AndroidDeviceBridgeTool;
 import org.cloud.sonic.agent.bridge.android.AndroidDeviceLocalStatus;
+import org.cloud.sonic.agent.bridge.android.UiaServerPool;
+import org.cloud.sonic.agent.common.interfaces.PlatformType;
 import org.cloud.sonic.agent.common.interfaces.ResultDetailStatus;
+import org.cloud.sonic.agent.tests.SuiteCase;
+import org.cloud.sonic.agent.tests.SuiteScheduler;
+import org.cloud.sonic.agent.tests.TaskKey;
 import org.cloud.sonic.agent.tests.TaskManager;
+import org.cloud.sonic.agent.tools.Lifecycle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,7 +41,7 @@ import java.util.concurrent.Semaphore;
  * @author Eason(main) JayWenStar(until e1a877b7)
  * @date 2021/12/2 12:33 上午
  */
-public class AndroidTestTaskBootThread extends Thread {
+public class AndroidTestTaskBootThread extends Thread implements SuiteCase {
 
     private final Logger log = LoggerFactory.getLogger(AndroidTestTaskBootThread.class);
 
@@ -95,6 +101,14 @@ public class AndroidTestTaskBootThread extends Thread {
         return String.format(baseFormat, this.resultId, this.caseId, this.udId);
     }
 
+    /**
+     * 在 {@link TaskManager} 中登记使用的任务标识
+     */
+    @Override
+    public TaskKey getTaskKey() {
+        return new TaskKey(PlatformType.ANDROID, this.resultId, this.caseId, this.udId);
+    }
+
     /**
      * debug线程构造
      */
@@ -178,29 +192,32 @@ public class AndroidTestTaskBootThread extends Thread {
     }
 
     @Override
-    public void run() {
+    public boolean occupyDevice() {
+        return AndroidDeviceLocalStatus.startTest(udId);
+    }
 
-        boolean startTestSuccess = false;
+    @Override
+    public void onWaitDevice() {
+        androidStepHandler.waitDevice(1);
+    }
 
-        try {
-            int wait = 0;
-            while (!AndroidDeviceLocalStatus.startTest(udId)) {
-                wait++;
-                androidStepHandler.waitDevice(wait);
-                if (wait >= 6 * 10) {
-                    androidStepHandler.waitDeviceTimeOut();
-                    androidStepHandler.sendStatus();
-                    return;
-                } else {
-                    Thread.sleep(10000);
-                }
-            }
+    @Override
+    public void onWaitDeviceTimeOut() {
+        androidStepHandler.waitDeviceTimeOut();
+        androidStepHandler.sendStatus();
+        finished.release();
+    }
+
+    @Override
+    public void run() {
 
-            startTestSuccess = true;
+        // 设备已由SuiteScheduler占用
+        try {
             try {
                 IDevice iDevice = AndroidDeviceBridgeTool.getIDeviceByUdId(udId);
-                int port = AndroidDeviceBridgeTool.startUiaServer(iDevice);
-                androidStepHandler.startAndroidDriver(iDevice, port);
+                UiaServerPool.Lease uiaLease = UiaServerPool.lease(iDevice);
+                androidStepHandler.setUiaLease(uiaLease);
+                androidStepHandler.startAndroidDriver(iDevice, uiaLease.getPort());
             } catch (Exception e) {
                 log.error(e.getMessage());
                 androidStepHandler.closeAndroidDriver();
@@ -223,25 +240,23 @@ public class AndroidTestTaskBootThread extends Thread {
             perfDataThread = new AndroidPerfDataThread(this);
             //录像线程
             recordThread = new AndroidRecordThread(this);
-            TaskManager.startChildThread(this.getName(), runStepThread, perfDataThread, recordThread);
+            TaskManager.startChildThread(getTaskKey(), runStepThread, perfDataThread, recordThread);
 
 
             //等待两个线程结束了才结束方法
-            while ((recordThread.isAlive()) || (runStepThread.isAlive())) {
-                Thread.sleep(1000);
-            }
+            Lifecycle.awaitAllTerminated(recordThread.getLifecycle(), runStepThread.getLifecycle());
         } catch (InterruptedException e) {
             log.error("任务异常，中断：{}", e.getMessage());
             androidStepHandler.setResultDetailStatus(ResultDetailStatus.FAIL);
             forceStop = true;
         } finally {
-            if (startTestSuccess) {
-                AndroidDeviceLocalStatus.finish(udId);
-                androidStepHandler.closeAndroidDriver();
-            }
+            // 先归还UIA2服务再释放设备，下一个用例拿到的是已重置的服务
+            androidStepHandler.closeAndroidDriver();
+            AndroidDeviceLocalStatus.finish(udId);
             androidStepHandler.sendStatus();
             finished.release();
-            TaskManager.clearTerminatedThreadByKey(this.getName());
+            TaskManager.onBootThreadFinished(getTaskKey(), this);
+            SuiteScheduler.onCaseFinished(getTaskKey());
         }
     }
 }
@@ -0,0 +1,270 @@
+/*
+ *  Copyright (C) [SonicCloudOrg] Sonic Project
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.cloud.sonic.agent.tests.android;
+
+import org.cloud.sonic.agent.common.maps.ScreenHubMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.websocket.Session;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * 设备投屏采集中心
+ * <p>
+ * 同一台设备、同样的投屏参数只启动一个设备端编码进程，第一个订阅者加入时启动，最后一个订阅者离开时停止；
+ * 浏览器标签页、录像、图像比对等都作为订阅者挂在同一路画面上。
+ *
+ * @param <S> 订阅者类型
+ */
+public abstract class ScreenCaptureHub<S extends ScreenCaptureHub.Subscriber> {
+
+    protected final Logger log = LoggerFactory.getLogger(getClass());
+
+    /**
+     * 等待设备端服务就绪的最长时间，秒
+     */
+    protected static final long START_TIMEOUT_SECONDS = 4;
+
+    /**
+     * 订阅者，回调都在采集线程中执行，不能阻塞
+     */
+    public interface Subscriber {
+        /**
+         * 采集端发出的文本消息，如画面尺寸
+         */
+        default void onText(String text) {
+        }
+
+        /**
+         * 采集进程已结束
+         */
+        void onCaptureFinished();
+    }
+
+    protected final String udId;
+
+    private final String hubKey;
+
+    /**
+     * 仅作为data bean使用，不会启动
+     */
+    protected final AndroidTestTaskBootThread androidTestTaskBootThread;
+
+    protected final Set<S> subscribers = new CopyOnWriteArraySet<>();
+
+    /**
+     * 设备端服务线程及输入流线程，停止时统一中断
+     */
+    protected final List<Thread> captureThreads = new CopyOnWriteArrayList<>();
+
+    /**
+     * 串行化设备端编码的启动与重启；不使用this，启动等待期间订阅者照常加入、离开，画面照常分发
+     */
+    private final Object startLock = new Object();
+
+    private boolean started = false;
+
+    private volatile boolean stopped = false;
+
+    /**
+     * 最近一次的尺寸消息，后加入的订阅者直接补发
+     */
+    private volatile String sizeMessage;
+
+    protected ScreenCaptureHub(String udId, String hubKey, AndroidTestTaskBootThread androidTestTaskBootThread) {
+        this.udId = udId;
+        this.hubKey = hubKey;
+        this.androidTestTaskBootThread = androidTestTaskBootThread;
+    }
+
+    public String getUdId() {
+        return udId;
+    }
+
+    public String getHubKey() {
+        return hubKey;
+    }
+
+    public AndroidTestTaskBootThread getAndroidTestTaskBootThread() {
+        return androidTestTaskBootThread;
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    /**
+     * 加入订阅，第一个订阅者会启动设备端编码，启动在 {@link #startLock} 中进行，等待设备端就绪期间不占用this
+     *
+     * @param session 触发启动的WebSocket会话，用于回传启动失败等提示，可为null
+     * @return false表示该采集中心已停止，需要重新创建
+     */
+    public boolean subscribe(S subscriber, Session session) {
+        boolean first;
+        synchronized (this) {
+            if (stopped) {
+                return false;
+            }
+            subscribers.add(subscriber);
+            if (sizeMessage != null) {
+                subscriber.onText(sizeMessage);
+            }
+            onSubscribe(subscriber);
+            first = !started;
+            started = true;
+        }
+        if (first) {
+            synchronized (startLock) {
+                if (!stopped) {
+                    log.info("{} start screen capture {}", udId, hubKey);
+                    launch(session);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 离开订阅，最后一个订阅者离开时停止设备端编码
+     */
+    public void unsubscribe(S subscriber) {
+        synchronized (this) {
+            if (!subscribers.remove(subscriber)) {
+                return;
+            }
+            onUnsubscribe(subscriber);
+            if (!subscribers.isEmpty() || stopped) {
+                return;
+            }
+            stopped = true;
+        }
+        log.info("{} no more subscribers, stop screen capture {}", udId, hubKey);
+        ScreenHubMap.getMap().remove(hubKey, this);
+        for (Thread thread : captureThreads) {
+            thread.interrupt();
+        }
+        onStopped();
+    }
+
+    /**
+     * 采集进程自行结束（设备断开、编码进程退出等），通知所有订阅者
+     *
+     * @param source 结束的采集线程，重启时被替换掉的旧线程不会触发
+     */
+    public void captureFinished(Thread source) {
+        synchronized (this) {
+            if (stopped || !captureThreads.contains(source)) {
+                return;
+            }
+            stopped = true;
+        }
+        ScreenHubMap.getMap().remove(hubKey, this);
+        for (S subscriber : subscribers) {
+            subscriber.onCaptureFinished();
+        }
+        onStopped();
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * 用新参数重启设备端编码，订阅者保持不变
+     */
+    protected void restartCapture() {
+        synchronized (startLock) {
+            List<Thread> old;
+            synchronized (this) {
+                if (stopped) {
+                    return;
+                }
+                old = new ArrayList<>(captureThreads);
+                captureThreads.clear();
+            }
+            for (Thread thread : old) {
+                thread.interrupt();
+            }
+            for (Thread thread : old) {
+                try {
+                    thread.join(2000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            synchronized (this) {
+                if (stopped) {
+                    return;
+                }
+                log.info("{} restart screen capture {}", udId, hubKey);
+                onStopped();
+            }
+            launch(null);
+        }
+    }
+
+    /**
+     * 启动设备端编码，需持有 {@link #startLock}；
+     * 启动期间最后一个订阅者离开时，停止可能错过了刚启动的线程，这里再中断一次
+     */
+    private void launch(Session session) {
+        startCapture(session);
+        if (stopped) {
+            for (Thread thread : captureThreads) {
+                thread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * 广播画面尺寸消息并缓存
+     */
+    public void publishSize(String message) {
+        sizeMessage = message;
+        for (S subscriber : subscribers) {
+            subscriber.onText(message);
+        }
+    }
+
+    /**
+     * 启动设备端编码及输入流线程，启动的线程需加入 {@link #captureThreads}
+     */
+    protected abstract void startCapture(Session session);
+
+    /**
+     * 新订阅者加入时补发缓存的关键帧
+     */
+    protected abstract void onSubscribe(S subscriber);
+
+    /**
+     * 订阅者离开
+     */
+    protected void onUnsubscribe(S subscriber) {
+    }
+
+    /**
+     * 停止或重启前释放缓存
+     */
+    protected void onStopped() {
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ *  Copyright (C) [SonicCloudOrg] Sonic Project
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.cloud.sonic.agent.tests.android.minicap;
+
+/**
+ * 重复帧检测，静止画面不再重复发送
+ * <p>
+ * 每个会话一个实例，只在该会话的输出线程中使用；统计数据可在其它线程读取
+ */
+public abstract class FrameDuplicateDetector {
+
+    /**
+     * 按内容哈希精确比较
+     */
+    public static final String MODE_HASH = "hash";
+
+    /**
+     * 在内容哈希的基础上再比较感知哈希，容忍jpeg编码噪声
+     */
+    public static final String MODE_PHASH = "phash";
+
+    /**
+     * 不做检测
+     */
+    public static final String MODE_NONE = "none";
+
+    private volatile long checked = 0;
+
+    private volatile long duplicates = 0;
+
+    private volatile long savedBytes = 0;
+
+    /**
+     * @param mode 未知模式时使用 {@link #MODE_HASH}
+     */
+    public static FrameDuplicateDetector create(String mode) {
+        if (MODE_NONE.equals(mode)) {
+            return new FrameDuplicateDetector() {
+                @Override
+                protected boolean matches(MiniCapFrame frame) {
+                    return false;
+                }
+
+                @Override
+                protected void remember(MiniCapFrame frame) {
+                }
+
+                @Override
+                public String getMode() {
+                    return MODE_NONE;
+                }
+            };
+        }
+        if (MODE_PHASH.equals(mode)) {
+            return new PerceptualFrameDuplicateDetector();
+        }
+        return new HashFrameDuplicateDetector();
+    }
+
+    /**
+     * 与上一次发送的帧比较
+     */
+    public boolean isDuplicate(MiniCapFrame frame) {
+        checked++;
+        if (matches(frame)) {
+            duplicates++;
+            savedBytes += frame.size();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 帧已发送，作为下一次比较的基准
+     */
+    public void onSent(MiniCapFrame frame) {
+        remember(frame);
+    }
+
+    protected abstract boolean matches(MiniCapFrame frame);
+
+    protected abstract void remember(MiniCapFrame frame);
+
+    public abstract String getMode();
+
+    public long getChecked() {
+        return checked;
+    }
+
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    public long getSavedBytes() {
+        return savedBytes;
+    }
+
+    public double getHitRate() {
+        long total = checked;
+        return total == 0 ? 0 : (double) duplicates / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("mode=%s, checked=%d, duplicates=%d, hitRate=%.2f, savedBytes=%d",
+                getMode(), checked, duplicates, getHitRate(), savedBytes);
+    }
+}
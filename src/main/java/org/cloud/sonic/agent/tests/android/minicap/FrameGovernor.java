@@ -0,0 +1,161 @@
+/*
+ *  Copyright (C) [SonicCloudOrg] Sonic Project
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.cloud.sonic.agent.tests.android.minicap;
+
+/**
+ * 单个会话的发送节奏控制，按时间而不是按收到的帧数限流
+ * <p>
+ * 帧数和字节数各一个令牌桶：帧令牌按目标帧率补充，字节令牌按每秒字节上限补充；
+ * 帧令牌不少于1且字节令牌不为负时才能发送，发送后按实际大小扣除，一帧过大时字节令牌可透支，
+ * 之后按透支量顺延。等待期间到达的新帧直接替换旧帧，由调用方处理。
+ */
+public class FrameGovernor {
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    /**
+     * 帧令牌最多积累的数量，允许短暂空闲后连发
+     */
+    private static final double FRAME_BURST = 2;
+
+    private final String pic;
+
+    private final double fps;
+
+    private final long maxBytesPerSecond;
+
+    private final double byteBurst;
+
+    private double frameTokens;
+
+    private double byteTokens;
+
+    private long lastRefill = 0;
+
+    private long sentFrames = 0;
+
+    private long sentBytes = 0;
+
+    private long waits = 0;
+
+    public FrameGovernor(String pic, double fps, long maxBytesPerSecond) {
+        this.pic = pic;
+        this.fps = fps;
+        this.maxBytesPerSecond = maxBytesPerSecond;
+        // 最多积累半秒的字节额度
+        this.byteBurst = maxBytesPerSecond / 2.0;
+        this.frameTokens = FRAME_BURST;
+        this.byteTokens = byteBurst;
+    }
+
+    /**
+     * 按前端画质档位创建
+     *
+     * @param pic low、middle、fixed、high，未知档位按high处理
+     */
+    public static FrameGovernor of(String pic) {
+        if (pic == null) {
+            pic = "high";
+        }
+        switch (pic) {
+            case "low":
+                return new FrameGovernor(pic, 8, 1024 * 1024);
+            case "middle":
+                return new FrameGovernor(pic, 15, 2 * 1024 * 1024);
+            case "fixed":
+                return new FrameGovernor(pic, 15, 4 * 1024 * 1024);
+            case "high":
+            default:
+                return new FrameGovernor("high", 60, 8 * 1024 * 1024);
+        }
+    }
+
+    private void refill(long now) {
+        if (lastRefill == 0) {
+            lastRefill = now;
+            return;
+        }
+        long elapsed = now - lastRefill;
+        if (elapsed <= 0) {
+            return;
+        }
+        lastRefill = now;
+        double seconds = (double) elapsed / NANOS_PER_SECOND;
+        frameTokens = Math.min(FRAME_BURST, frameTokens + seconds * fps);
+        byteTokens = Math.min(byteBurst, byteTokens + seconds * maxBytesPerSecond);
+    }
+
+    /**
+     * @param now System.nanoTime()
+     * @return 还需等待的纳秒数，0表示可以立即发送
+     */
+    public long delayNanos(long now) {
+        refill(now);
+        double waitSeconds = 0;
+        if (frameTokens < 1) {
+            waitSeconds = (1 - frameTokens) / fps;
+        }
+        if (byteTokens < 0) {
+            waitSeconds = Math.max(waitSeconds, -byteTokens / maxBytesPerSecond);
+        }
+        if (waitSeconds <= 0) {
+            return 0;
+        }
+        waits++;
+        // 向上取整，避免醒来后仍差一点点令牌
+        return (long) Math.ceil(waitSeconds * NANOS_PER_SECOND);
+    }
+
+    /**
+     * 记录一次发送
+     *
+     * @param now System.nanoTime()
+     */
+    public void onSent(int bytes, long now) {
+        refill(now);
+        frameTokens -= 1;
+        byteTokens -= bytes;
+        sentFrames++;
+        sentBytes += bytes;
+    }
+
+    public String getPic() {
+        return pic;
+    }
+
+    public double getFps() {
+        return fps;
+    }
+
+    public long getMaxBytesPerSecond() {
+        return maxBytesPerSecond;
+    }
+
+    public long getSentFrames() {
+        return sentFrames;
+    }
+
+    public long getSentBytes() {
+        return sentBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("pic=%s, fps=%.0f, maxBytesPerSecond=%d, sentFrames=%d, sentBytes=%d, waits=%d",
+                pic, fps, maxBytesPerSecond, sentFrames, sentBytes, waits);
+    }
+}
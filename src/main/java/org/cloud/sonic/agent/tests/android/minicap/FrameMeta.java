@@ -0,0 +1,68 @@
+/*
+ *  Copyright (C) [SonicCloudOrg] Sonic Project
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.cloud.sonic.agent.tests.android.minicap;
+
+/**
+ * 单帧的元数据，跟随 {@link MiniCapFrame} 在采集、分发、发送各环节传递
+ */
+public final class FrameMeta {
+
+    /**
+     * 同一采集进程内从0开始递增的帧序号
+     */
+    private final long seq;
+
+    /**
+     * 帧完整读入时的时间，毫秒
+     */
+    private final long captureTime;
+
+    private final int size;
+
+    /**
+     * 旋转角度，0/90/180/270
+     */
+    private final int rotation;
+
+    public FrameMeta(long seq, long captureTime, int size, int rotation) {
+        this.seq = seq;
+        this.captureTime = captureTime;
+        this.size = size;
+        this.rotation = rotation;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public long getCaptureTime() {
+        return captureTime;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getRotation() {
+        return rotation;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FrameMeta{seq=%d, captureTime=%d, size=%d, rotation=%d}", seq, captureTime, size, rotation);
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ *  Copyright (C) [SonicCloudOrg] Sonic Project
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.cloud.sonic.agent.tests.android.minicap;
+
+/**
+ * 按内容哈希判断重复帧，只保存上一帧的64位哈希，不保留帧数据
+ */
+public class HashFrameDuplicateDetector extends FrameDuplicateDetector {
+
+    private boolean hasLast = false;
+
+    private int lastSize;
+
+    private long lastHash;
+
+    @Override
+    protected boolean matches(MiniCapFrame frame) {
+        // 大小不同时不用计算哈希
+        return hasLast && frame.size() == lastSize && frame.contentHash() == lastHash;
+    }
+
+    @Override
+    protected void remember(MiniCapFrame frame) {
+        hasLast = true;
+        lastSize = frame.size();
+        lastHash = frame.contentHash();
+    }
+
+    @Override
+    public String getMode() {
+        return MODE_HASH;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ *  Copyright (C) [SonicCloudOrg] Sonic Project
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.cloud.sonic.agent.tests.android.minicap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * minicap头部信息，连接建立后设备端首先发送，之后不再变化
+ * <p>
+ * 格式：version(1) length(1) pid(4) realWidth(4) realHeight(4) virtualWidth(4) virtualHeight(4)
+ * orientation(1) quirks(1)，多字节字段均为小端
+ */
+public final class MiniCapBanner {
+
+    public static final int LENGTH = 24;
+
+    private final int version;
+
+    private final int length;
+
+    private final long pid;
+
+    private final int realWidth;
+
+    private final int realHeight;
+
+    private final int virtualWidth;
+
+    private final int virtualHeight;
+
+    /**
+     * 旋转角度，0/90/180/270
+     */
+    private final int orientation;
+
+    private final int quirks;
+
+    public MiniCapBanner(int version, int length, long pid, int realWidth, int realHeight,
+                         int virtualWidth, int virtualHeight, int orientation, int quirks) {
+        this.version = version;
+        this.length = length;
+        this.pid = pid;
+        this.realWidth = realWidth;
+        this.realHeight = realHeight;
+        this.virtualWidth = virtualWidth;
+        this.virtualHeight = virtualHeight;
+        this.orientation = orientation;
+        this.quirks = quirks;
+    }
+
+    /**
+     * 从完整的头部数据解析，不改变buffer的position
+     */
+    public static MiniCapBanner parse(ByteBuffer buffer) {
+        ByteBuffer banner = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int base = banner.position();
+        if (banner.remaining() < LENGTH) {
+            throw new IllegalArgumentException("minicap banner too short: " + banner.remaining());
+        }
+        return new MiniCapBanner(
+                banner.get(base) & 0xff,
+                banner.get(base + 1) & 0xff,
+                banner.getInt(base + 2) & 0xffffffffL,
+                banner.getInt(base + 6),
+                banner.getInt(base + 10),
+                banner.getInt(base + 14),
+                banner.getInt(base + 18),
+                (banner.get(base + 22) & 0xff) * 90,
+                banner.get(base + 23) & 0xff
+        );
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public long getPid() {
+        return pid;
+    }
+
+    public int getRealWidth() {
+        return realWidth;
+    }
+
+    public int getRealHeight() {
+        return realHeight;
+    }
+
+    public int getVirtualWidth() {
+        return virtualWidth;
+    }
+
+    public int getVirtualHeight() {
+        return virtualHeight;
+    }
+
+    public int getOrientation() {
+        return orientation;
+    }
+
+    public int getQuirks() {
+        return quirks;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MiniCapBanner{version=%d, pid=%d, real=%dx%d, virtual=%dx%d, orientation=%d, quirks=%d}",
+                version, pid, realWidth, realHeight, virtualWidth, virtualHeight, orientation, quirks);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ *  Copyright (C) [SonicCloudOrg] Sonic Project
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.cloud.sonic.agent.tests.android.minicap;
+
+import com.alibaba.fastjson.JSONObject;
+import com.android.ddmlib.IDevice;
+import org.cloud.sonic.agent.bridge.android.AndroidDeviceBridgeTool;
+import org.cloud.sonic.agent.common.maps.ScreenHubMap;
+import org.cloud.sonic.agent.tests.TaskKey;
+import org.cloud.sonic.agent.tests.TaskManager;
+import org.cloud.sonic.agent.tests.android.AndroidTestTaskBootThread;
+import org.cloud.sonic.agent.tests.android.ScreenCaptureHub;
+
+import javax.websocket.Session;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * minicap投屏采集中心
+ * <p>
+ * 缓存最新一帧，新订阅者加入时立即补发
+ */
+public class MiniCapCaptureHub extends ScreenCaptureHub<MiniCapCaptureHub.FrameSubscriber> {
+
+    public interface FrameSubscriber extends ScreenCaptureHub.Subscriber {
+        /**
+         * 收到一帧，已为该订阅者retain过一次，用完需要release
+         */
+        void onFrame(MiniCapFrame frame);
+
+        /**
+         * 收到头部信息，加入时已有头部的也会补发一次
+         */
+        default void onBanner(MiniCapBanner banner) {
+        }
+    }
+
+    private final int tor;
+
+    /**
+     * 设备端参数只区分原尺寸(fixed)和缩放两种，其余画质档位由各订阅者自行控制
+     */
+    private final String pic;
+
+    private volatile MiniCapBanner banner;
+
+    private MiniCapFrame latestFrame;
+
+    public MiniCapCaptureHub(String udId, int tor, String pic) {
+        super(udId, hubKey(udId, tor, pic), new AndroidTestTaskBootThread().setUdId(udId));
+        this.tor = tor;
+        this.pic = devicePic(pic);
+    }
+
+    private static String devicePic(String pic) {
+        return "fixed".equals(pic) ? "fixed" : "high";
+    }
+
+    public static String hubKey(String udId, int tor, String pic) {
+        return String.format("minicap-%s-%d-%s", udId, tor, devicePic(pic));
+    }
+
+    /**
+     * 订阅设备画面，已有同参数的采集进程时直接复用
+     */
+    public static MiniCapCaptureHub subscribe(String udId, int tor, String pic, FrameSubscriber subscriber, Session session) {
+        while (true) {
+            MiniCapCaptureHub hub = (MiniCapCaptureHub) ScreenHubMap.getMap()
+                    .computeIfAbsent(hubKey(udId, tor, pic), k -> new MiniCapCaptureHub(udId, tor, pic));
+            if (hub.subscribe(subscriber, session)) {
+                return hub;
+            }
+            ScreenHubMap.getMap().remove(hub.getHubKey(), hub);
+        }
+    }
+
+    /**
+     * @return 头部信息还未读到时返回null
+     */
+    public MiniCapBanner getBanner() {
+        return banner;
+    }
+
+    /**
+     * 由输入流线程调用，缓存头部信息并通知订阅者画面尺寸
+     */
+    public void publishBanner(MiniCapBanner banner) {
+        synchronized (this) {
+            this.banner = banner;
+            for (FrameSubscriber subscriber : subscribers) {
+                subscriber.onBanner(banner);
+            }
+        }
+        JSONObject size = new JSONObject();
+        size.put("msg", "size");
+        size.put("width", banner.getRealWidth());
+        size.put("height", banner.getRealHeight());
+        publishSize(size.toJSONString());
+    }
+
+    @Override
+    protected void startCapture(Session session) {
+        IDevice iDevice = AndroidDeviceBridgeTool.getIDeviceByUdId(udId);
+        TaskKey key = androidTestTaskBootThread.getTaskKey();
+        int s;
+        if (tor == -1) {
+            s = AndroidDeviceBridgeTool.getScreen(iDevice);
+        } else {
+            s = tor;
+        }
+        // 启动minicap服务
+        MiniCapLocalThread miniCapPro = new MiniCapLocalThread(iDevice, pic, s * 90, session, androidTestTaskBootThread);
+        captureThreads.add(miniCapPro);
+        TaskManager.startChildThread(key, miniCapPro);
+
+        // 等待启动，就绪或进程提前退出时立即返回；启动失败了也继续，保证其它服务可用
+        try {
+            if (!miniCapPro.getLifecycle().awaitReady(START_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                log.info("{} minicap server not ready", udId);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // 启动输入流
+        MiniCapInputSocketThread sendImg = new MiniCapInputSocketThread(iDevice, this, miniCapPro);
+        captureThreads.add(sendImg);
+        TaskManager.startChildThread(key, sendImg);
+    }
+
+    /**
+     * 由输入流线程调用，缓存并分发给所有订阅者，调用方仍持有自己的引用
+     */
+    public synchronized void publish(MiniCapFrame frame) {
+        if (isStopped()) {
+            return;
+        }
+        if (latestFrame != null) {
+            latestFrame.release();
+        }
+        latestFrame = frame.retain();
+        for (FrameSubscriber subscriber : subscribers) {
+            subscriber.onFrame(frame.retain());
+        }
+    }
+
+    @Override
+    protected synchronized void onSubscribe(FrameSubscriber subscriber) {
+        if (banner != null) {
+            subscriber.onBanner(banner);
+        }
+        if (latestFrame != null) {
+            subscriber.onFrame(latestFrame.retain());
+        }
+    }
+
+    @Override
+    protected synchronized void onStopped() {
+        if (latestFrame != null) {
+            latestFrame.release();
+            latestFrame = null;
+        }
+    }
+}
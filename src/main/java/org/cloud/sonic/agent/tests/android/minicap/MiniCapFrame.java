@@ -0,0 +1,116 @@
+/*
+ *  Copyright (C) [SonicCloudOrg] Sonic Project
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.cloud.sonic.agent.tests.android.minicap;
+
+import org.cloud.sonic.agent.tools.XxHash64;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一帧完整的jpeg，数据在 {@link MiniCapFrameAssembler} 的池化buffer中
+ * <p>
+ * 采用引用计数，分发给多个订阅者时各自 {@link #retain()}，用完 {@link #release()}，最后一次释放时归还buffer
+ */
+public class MiniCapFrame {
+
+    private final MiniCapFrameAssembler owner;
+
+    private final ByteBuffer data;
+
+    private final FrameMeta meta;
+
+    private final AtomicInteger refCnt = new AtomicInteger(1);
+
+    /**
+     * 哈希在多个订阅者间共享，第一次使用时计算，并发时重复计算结果一致
+     */
+    private volatile long contentHash;
+
+    private volatile boolean contentHashed = false;
+
+    private volatile long perceptualHash;
+
+    private volatile boolean perceptualHashed = false;
+
+    MiniCapFrame(MiniCapFrameAssembler owner, ByteBuffer data, FrameMeta meta) {
+        this.owner = owner;
+        this.data = data;
+        this.meta = meta;
+    }
+
+    public FrameMeta meta() {
+        return meta;
+    }
+
+    /**
+     * 只读视图，position/limit互不影响
+     */
+    public ByteBuffer data() {
+        return data.asReadOnlyBuffer();
+    }
+
+    public int size() {
+        return data.remaining();
+    }
+
+    public byte get(int index) {
+        return data.get(data.position() + index);
+    }
+
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * 帧内容的XXH64
+     */
+    public long contentHash() {
+        if (!contentHashed) {
+            contentHash = XxHash64.hash(data, 0);
+            contentHashed = true;
+        }
+        return contentHash;
+    }
+
+    /**
+     * 帧画面的dHash，需要解码jpeg，只在感知哈希模式下使用
+     */
+    public long perceptualHash() {
+        if (!perceptualHashed) {
+            perceptualHash = PerceptualFrameDuplicateDetector.dHash(this);
+            perceptualHashed = true;
+        }
+        return perceptualHash;
+    }
+
+    public MiniCapFrame retain() {
+        refCnt.incrementAndGet();
+        return this;
+    }
+
+    public void release() {
+        int left = refCnt.decrementAndGet();
+        if (left == 0) {
+            owner.recycle(data);
+        } else if (left < 0) {
+            throw new IllegalStateException("frame released too many times");
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ *  Copyright (C) [SonicCloudOrg] Sonic Project
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.cloud.sonic.agent.tests.android.minicap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * minicap帧组装器
+ * 从socket通道直接读入池化的direct ByteBuffer，一个buffer即一帧完整的jpeg，中间不做任何拷贝；
+ * 支持非阻塞通道，数据不完整时保留进度，下次可读时继续
+ * <p>
+ * 帧以 {@link MiniCapFrame} 引用计数的形式交给订阅者，全部释放后buffer回到池中；
+ * 池中空闲buffer数量有上限，订阅者只保留最新帧，因此内存占用有上限；
+ * 多个订阅者同时持有帧导致池中没有空闲buffer时，临时使用堆内buffer，用完交给GC，不会因此不断申请direct内存；
+ * 每帧附带 {@link FrameMeta}，下游不需要再解析字符串
+ *
+ * @author Eason
+ * @date 2022/9/20 10:12 下午
+ */
+public class MiniCapFrameAssembler {
+
+    public interface Listener {
+        void onBanner(MiniCapBanner banner);
+
+        /**
+         * 收到一帧，回调结束后组装器释放自己的引用，需要保留时自行retain
+         *
+         * @return false表示数据已错位，停止读取
+         */
+        boolean onFrame(MiniCapFrame frame);
+    }
+
+    /**
+     * 池中最多保留的空闲帧buffer数量
+     */
+    public static final int DEFAULT_POOL_SIZE = 4;
+
+    /**
+     * 帧buffer初始容量，遇到更大的帧时按需扩容
+     */
+    private static final int INITIAL_FRAME_CAPACITY = 256 * 1024;
+
+    /**
+     * 单帧长度上限，超过说明数据流已错位，不能按它分配direct内存
+     */
+    static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    private final ByteBuffer header = ByteBuffer.allocateDirect(4).order(ByteOrder.LITTLE_ENDIAN);
+
+    private final BlockingQueue<ByteBuffer> freeFrames;
+
+    private final ByteBuffer bannerHead = ByteBuffer.allocate(2);
+
+    private ByteBuffer bannerBody;
+
+    private MiniCapBanner banner;
+
+    /**
+     * 正在读取的帧，null表示正在读帧长度
+     */
+    private ByteBuffer frameBuffer;
+
+    private long seq = 0;
+
+    public MiniCapFrameAssembler() {
+        this(DEFAULT_POOL_SIZE);
+    }
+
+    public MiniCapFrameAssembler(int poolSize) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("poolSize must be positive");
+        }
+        this.freeFrames = new ArrayBlockingQueue<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            freeFrames.offer(ByteBuffer.allocateDirect(INITIAL_FRAME_CAPACITY));
+        }
+    }
+
+    /**
+     * 读取通道中当前可读的数据，先是头部信息，之后是一帧帧的jpeg
+     *
+     * @return false表示通道已关闭、帧长度不合法或监听方要求停止
+     */
+    public boolean read(ReadableByteChannel channel, Listener listener) throws IOException {
+        while (true) {
+            int result;
+            if (banner == null) {
+                if (bannerBody == null) {
+                    result = fill(channel, bannerHead);
+                    if (result <= 0) {
+                        return result == 0;
+                    }
+                    int bannerLength = bannerHead.get(1) & 0xff;
+                    bannerBody = ByteBuffer.allocate(Math.max(bannerLength, MiniCapBanner.LENGTH));
+                    bannerBody.put(bannerHead.get(0)).put(bannerHead.get(1));
+                    bannerBody.limit(Math.max(bannerLength, 2));
+                }
+                result = fill(channel, bannerBody);
+                if (result <= 0) {
+                    return result == 0;
+                }
+                bannerBody.clear();
+                banner = MiniCapBanner.parse(bannerBody);
+                bannerBody = null;
+                listener.onBanner(banner);
+                continue;
+            }
+            if (frameBuffer == null) {
+                result = fill(channel, header);
+                if (result <= 0) {
+                    return result == 0;
+                }
+                int frameLength = header.getInt(0);
+                header.clear();
+                if (frameLength <= 0 || frameLength > MAX_FRAME_LENGTH) {
+                    return false;
+                }
+                frameBuffer = acquire(frameLength);
+                frameBuffer.limit(frameLength);
+            }
+            result = fill(channel, frameBuffer);
+            if (result < 0) {
+                recycle(frameBuffer);
+                frameBuffer = null;
+                return false;
+            }
+            if (result == 0) {
+                return true;
+            }
+            ByteBuffer buffer = frameBuffer;
+            frameBuffer = null;
+            buffer.flip();
+            FrameMeta meta = new FrameMeta(seq++, System.currentTimeMillis(), buffer.remaining(), banner.getOrientation());
+            MiniCapFrame frame = new MiniCapFrame(this, buffer, meta);
+            try {
+                if (!listener.onFrame(frame)) {
+                    return false;
+                }
+            } finally {
+                frame.release();
+            }
+        }
+    }
+
+    /**
+     * 归还帧buffer，堆内的临时buffer或池满时直接丢弃交给GC
+     */
+    void recycle(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            return;
+        }
+        buffer.clear();
+        freeFrames.offer(buffer);
+    }
+
+    private ByteBuffer acquire(int frameLength) {
+        ByteBuffer buffer = freeFrames.poll();
+        if (buffer == null) {
+            // 池中的buffer都被订阅者持有
+            return ByteBuffer.allocate(frameLength);
+        }
+        if (buffer.capacity() < frameLength) {
+            buffer = ByteBuffer.allocateDirect(Math.max(frameLength, INITIAL_FRAME_CAPACITY));
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * @return 1读满，0暂无数据，-1通道已关闭
+     */
+    private static int fill(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer);
+            if (read < 0) {
+                return -1;
+            }
+            if (read == 0) {
+                return 0;
+            }
+        }
+        return 1;
+    }
+}
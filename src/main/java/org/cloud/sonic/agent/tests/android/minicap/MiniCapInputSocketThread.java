@@ -18,23 +18,21 @@ package org.cloud.sonic.agent.tests.android.minicap;
 
 import com.android.ddmlib.IDevice;
 import org.cloud.sonic.agent.bridge.android.AndroidDeviceBridgeTool;
-import org.cloud.sonic.agent.common.maps.ScreenMap;
 import org.cloud.sonic.agent.tests.android.AndroidTestTaskBootThread;
 import org.cloud.sonic.agent.tools.PortTool;
+import org.cloud.sonic.agent.tools.nio.DeviceChannel;
+import org.cloud.sonic.agent.tools.nio.DeviceSocketHandler;
+import org.cloud.sonic.agent.tools.nio.DeviceSocketReactor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.websocket.Session;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.Socket;
-import java.util.concurrent.BlockingQueue;
-
-import static org.cloud.sonic.agent.tools.BytesTool.subByteArray;
+import java.nio.channels.ReadableByteChannel;
 
 /**
  * minicap socket线程
- * 通过端口转发，将设备视频流转发到此Socket
+ * 通过端口转发，将设备视频流转发到此Socket；连接建立后注册到 {@link DeviceSocketReactor}，
+ * 由共享的IO线程读取，本线程随即结束。中断时关闭连接
  *
  * @author Eason(main) JayWenStar(until e1a877b7)
  * @date 2021/12/02 00:52 下午
@@ -50,19 +48,25 @@ public class MiniCapInputSocketThread extends Thread {
 
     private IDevice iDevice;
 
-    private BlockingQueue<byte[]> dataQueue;
+    private MiniCapFrameAssembler frameAssembler;
+
+    private MiniCapCaptureHub captureHub;
 
     private MiniCapLocalThread miniCapPro;
 
     private AndroidTestTaskBootThread androidTestTaskBootThread;
 
-    private Session session;
+    private int finalMiniCapPort;
+
+    private volatile DeviceChannel capChannel;
+
+    private volatile boolean stopped = false;
 
-    public MiniCapInputSocketThread(IDevice iDevice, BlockingQueue<byte[]> dataQueue, MiniCapLocalThread miniCapPro, Session session) {
+    public MiniCapInputSocketThread(IDevice iDevice, MiniCapCaptureHub captureHub, MiniCapLocalThread miniCapPro) {
         this.iDevice = iDevice;
-        this.dataQueue = dataQueue;
+        this.frameAssembler = new MiniCapFrameAssembler();
+        this.captureHub = captureHub;
         this.miniCapPro = miniCapPro;
-        this.session = session;
         this.androidTestTaskBootThread = miniCapPro.getAndroidTestTaskBootThread();
 
         // 让资源合理关闭
@@ -74,8 +78,12 @@ public class MiniCapInputSocketThread extends Thread {
         return iDevice;
     }
 
-    public BlockingQueue<byte[]> getDataQueue() {
-        return dataQueue;
+    public MiniCapFrameAssembler getFrameAssembler() {
+        return frameAssembler;
+    }
+
+    public MiniCapCaptureHub getCaptureHub() {
+        return captureHub;
     }
 
     public MiniCapLocalThread getMiniCapPro() {
@@ -86,59 +94,68 @@ public class MiniCapInputSocketThread extends Thread {
         return androidTestTaskBootThread;
     }
 
-    public Session getSession() {
-        return session;
+    @Override
+    public void interrupt() {
+        super.interrupt();
+        stopped = true;
+        DeviceChannel channel = capChannel;
+        if (channel != null) {
+            channel.close();
+        }
     }
 
     @Override
     public void run() {
-
-        int finalMiniCapPort = PortTool.getPort();
+        finalMiniCapPort = PortTool.getPort();
         AndroidDeviceBridgeTool.forward(iDevice, finalMiniCapPort, "minicap");
-        Socket capSocket = null;
-        InputStream inputStream = null;
         try {
-            capSocket = new Socket("localhost", finalMiniCapPort);
-            inputStream = capSocket.getInputStream();
-            int len = 1024;
-            while (miniCapPro.isAlive()) {
-                byte[] buffer = new byte[len];
-                int realLen;
-                realLen = inputStream.read(buffer);
-                if (buffer.length != realLen && realLen >= 0) {
-                    buffer = subByteArray(buffer, 0, realLen);
-                }
-                if (realLen >= 0) {
-                    dataQueue.offer(buffer);
-                }
+            capChannel = DeviceSocketReactor.getInstance().connect(getName(), finalMiniCapPort, new MiniCapHandler());
+            // 连接期间已被中断
+            if (stopped) {
+                capChannel.close();
             }
         } catch (IOException e) {
             e.printStackTrace();
-        } finally {
-            if (miniCapPro.isAlive()) {
-                miniCapPro.interrupt();
-                log.info("miniCap thread closed.");
-            }
-            if (capSocket != null && capSocket.isConnected()) {
-                try {
-                    capSocket.close();
-                    log.info("miniCap socket closed.");
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-            if (inputStream != null) {
-                try {
-                    inputStream.close();
-                    log.info("miniCap input stream closed.");
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
+            closed();
+        }
+    }
+
+    private void closed() {
+        if (miniCapPro.isAlive()) {
+            miniCapPro.interrupt();
+            log.info("miniCap thread closed.");
         }
         AndroidDeviceBridgeTool.removeForward(iDevice, finalMiniCapPort, "minicap");
-        if (session != null) {
-            ScreenMap.getMap().remove(session);
+        captureHub.captureFinished(this);
+    }
+
+    private class MiniCapHandler implements DeviceSocketHandler, MiniCapFrameAssembler.Listener {
+
+        @Override
+        public boolean onReadable(ReadableByteChannel channel) throws IOException {
+            return miniCapPro.isAlive() && frameAssembler.read(channel, this);
+        }
+
+        @Override
+        public void onBanner(MiniCapBanner banner) {
+            log.info("banner读取已就绪 {}", banner);
+            captureHub.publishBanner(banner);
+        }
+
+        @Override
+        public boolean onFrame(MiniCapFrame frame) {
+            // 不是jpeg说明数据流已错位
+            if (frame.size() < 2 || frame.get(0) != -1 || frame.get(1) != -40) {
+                log.info("miniCap frame broken.");
+                return false;
+            }
+            captureHub.publish(frame);
+            return true;
+        }
+
+        @Override
+        public void onClosed() {
+            closed();
         }
     }
 }
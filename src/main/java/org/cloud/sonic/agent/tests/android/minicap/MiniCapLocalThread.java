@@ -22,12 +22,12 @@ import com.android.ddmlib.IShellOutputReceiver;
 import org.cloud.sonic.agent.bridge.android.AndroidDeviceBridgeTool;
 import org.cloud.sonic.agent.tests.android.AndroidTestTaskBootThread;
 import org.cloud.sonic.agent.tools.BytesTool;
+import org.cloud.sonic.agent.tools.Lifecycle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.websocket.Session;
 import java.io.File;
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -37,7 +37,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * @author Eason(main) JayWenStar(until e1a877b7)
  * @date 2021/12/2 12:40 上午
  */
-public class MiniCapLocalThread extends Thread {
+public class MiniCapLocalThread extends Thread implements Lifecycle.Aware {
 
     private final Logger log = LoggerFactory.getLogger(MiniCapLocalThread.class);
 
@@ -58,7 +58,10 @@ public class MiniCapLocalThread extends Thread {
 
     private AndroidTestTaskBootThread androidTestTaskBootThread;
 
-    private Semaphore isFinish = new Semaphore(0);
+    /**
+     * 输出Server start后就绪，minicap进程退出后结束
+     */
+    private final Lifecycle lifecycle = new Lifecycle();
 
 
     public MiniCapLocalThread(IDevice iDevice, String pic, int finalC, Session session,
@@ -98,8 +101,9 @@ public class MiniCapLocalThread extends Thread {
         return androidTestTaskBootThread;
     }
 
-    public Semaphore getIsFinish() {
-        return isFinish;
+    @Override
+    public Lifecycle getLifecycle() {
+        return lifecycle;
     }
 
     public boolean runMiniCap(String type) {
@@ -144,7 +148,7 @@ public class MiniCapLocalThread extends Thread {
                     String res = new String(bytes, i, i1);
                     log.info(res);
                     if (res.contains("Server start")) {
-                        isFinish.release();
+                        lifecycle.markReady();
                     }
                     if (res.contains("Vector<> have different types")
                             || res.contains("CANNOT LINK EXECUTABLE")) {
@@ -173,32 +177,37 @@ public class MiniCapLocalThread extends Thread {
 
     @Override
     public void run() {
-        boolean suc;
-        suc = runMiniCap("libs");
-        String man = iDevice.getProperty(IDevice.PROP_DEVICE_MANUFACTURER);
-        if (man == null) {
-            return;
-        }
-        if (!suc && iDevice != null && (man.equals("Xiaomi") || man.equals("deltainno") || man.equals("HUAWEI"))) {
-            suc = runMiniCap("Xiaomi");
-            if (!suc && iDevice != null) {
-                suc = runMiniCap("Xiaomi_NW");
+        lifecycle.markStarted();
+        try {
+            boolean suc;
+            suc = runMiniCap("libs");
+            String man = iDevice.getProperty(IDevice.PROP_DEVICE_MANUFACTURER);
+            if (man == null) {
+                return;
+            }
+            if (!suc && iDevice != null && (man.equals("Xiaomi") || man.equals("deltainno") || man.equals("HUAWEI"))) {
+                suc = runMiniCap("Xiaomi");
                 if (!suc && iDevice != null) {
-                    suc = runMiniCap("Xiaomi_One");
+                    suc = runMiniCap("Xiaomi_NW");
+                    if (!suc && iDevice != null) {
+                        suc = runMiniCap("Xiaomi_One");
+                    }
                 }
             }
-        }
-        if (!suc && iDevice != null && man.equals("vivo")) {
-            suc = runMiniCap("vivo");
-        }
-        if (!suc && iDevice != null && man.equals("LGE")) {
-            suc = runMiniCap("LGE");
-        }
-        if (session != null && (!suc)) {
-            JSONObject support = new JSONObject();
-            support.put("msg", "support");
-            support.put("text", "该设备不兼容MiniCap投屏！");
-            BytesTool.sendText(session, support.toJSONString());
+            if (!suc && iDevice != null && man.equals("vivo")) {
+                suc = runMiniCap("vivo");
+            }
+            if (!suc && iDevice != null && man.equals("LGE")) {
+                suc = runMiniCap("LGE");
+            }
+            if (session != null && (!suc)) {
+                JSONObject support = new JSONObject();
+                support.put("msg", "support");
+                support.put("text", "该设备不兼容MiniCap投屏！");
+                BytesTool.sendText(session, support.toJSONString());
+            }
+        } finally {
+            lifecycle.markTerminated();
         }
     }
 
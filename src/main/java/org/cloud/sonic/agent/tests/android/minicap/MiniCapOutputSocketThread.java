@@ -16,25 +16,28 @@
  */
 package org.cloud.sonic.agent.tests.android.minicap;
 
-import com.alibaba.fastjson.JSONObject;
+import org.cloud.sonic.agent.common.maps.ScreenMap;
 import org.cloud.sonic.agent.tests.android.AndroidTestTaskBootThread;
 import org.cloud.sonic.agent.tools.BytesTool;
+import org.cloud.sonic.agent.tools.Lifecycle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.websocket.Session;
-import java.util.Arrays;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
+import java.util.Queue;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * 视频流输出线程
+ * 作为采集中心的一个订阅者，只保留最新一帧，消费慢时旧帧直接丢弃
  *
  * @author Eason(main) JayWenStar(until e1a877b7)
  * @date 2021/12/2 12:12 上午
  */
-public class MiniCapOutputSocketThread extends Thread {
+public class MiniCapOutputSocketThread extends Thread implements MiniCapCaptureHub.FrameSubscriber, Lifecycle.Aware {
 
     private final Logger log = LoggerFactory.getLogger(MiniCapOutputSocketThread.class);
 
@@ -43,9 +46,9 @@ public class MiniCapOutputSocketThread extends Thread {
      */
     public final static String ANDROID_OUTPUT_SOCKET_PRE = "android-minicap-output-socket-task-%s-%s-%s";
 
-    private MiniCapInputSocketThread sendImg;
+    private MiniCapCaptureHub captureHub;
 
-    private AtomicReference<String[]> banner;
+    private AtomicReference<MiniCapBanner> banner;
 
     private AtomicReference<List<byte[]>> imgList;
 
@@ -53,165 +56,233 @@ public class MiniCapOutputSocketThread extends Thread {
 
     private String pic;
 
-    private String udId;
-
     private AndroidTestTaskBootThread androidTestTaskBootThread;
 
+    /**
+     * 从ScreenMap移除后结束
+     */
+    private final Lifecycle lifecycle = new Lifecycle();
+
+    private volatile FrameDuplicateDetector duplicateDetector = FrameDuplicateDetector.create(FrameDuplicateDetector.MODE_HASH);
+
+    /**
+     * 待发送的最新一帧
+     */
+    private MiniCapFrame pendingFrame;
+
+    /**
+     * 采集中心发来的文本消息，由本线程发送，不阻塞采集线程
+     */
+    private final Queue<String> pendingTexts = new ArrayDeque<>();
+
+    private boolean finished = false;
+
     public MiniCapOutputSocketThread(
-            MiniCapInputSocketThread sendImg,
-            AtomicReference<String[]> banner,
+            AndroidTestTaskBootThread androidTestTaskBootThread,
+            AtomicReference<MiniCapBanner> banner,
             AtomicReference<List<byte[]>> imgList,
             Session session,
             String pic
     ) {
-        this.sendImg = sendImg;
         this.banner = banner;
         this.imgList = imgList;
         this.session = session;
         this.pic = pic;
-        this.androidTestTaskBootThread = sendImg.getAndroidTestTaskBootThread();
+        this.androidTestTaskBootThread = androidTestTaskBootThread;
 
         this.setDaemon(true);
         this.setName(androidTestTaskBootThread.formatThreadName(ANDROID_OUTPUT_SOCKET_PRE));
     }
 
+    public void setCaptureHub(MiniCapCaptureHub captureHub) {
+        this.captureHub = captureHub;
+    }
+
+    /**
+     * 切换重复帧检测模式，下一帧开始生效
+     */
+    public void setDuplicateDetector(FrameDuplicateDetector duplicateDetector) {
+        this.duplicateDetector = duplicateDetector;
+    }
+
+    public FrameDuplicateDetector getDuplicateDetector() {
+        return duplicateDetector;
+    }
+
     public boolean sessionOpen() {
         return session != null && session.isOpen();
     }
 
     @Override
-    public void run() {
+    public synchronized void onFrame(MiniCapFrame frame) {
+        if (finished) {
+            frame.release();
+            return;
+        }
+        // 录像需要每一帧，到达时就记录，不受发送节奏和重复帧检测影响
+        if (imgList != null) {
+            imgList.get().add(frame.toByteArray());
+        }
+        if (pendingFrame != null) {
+            pendingFrame.release();
+        }
+        pendingFrame = frame;
+        notifyAll();
+    }
 
-        int readBannerBytes = 0;
-        int bannerLength = 2;
-        int readFrameBytes = 0;
-        int frameBodyLength = 0;
-        byte[] frameBody = new byte[0];
-        byte[] oldBytes = new byte[0];
-        int count = 0;
-        BlockingQueue<byte[]> dataQueue = sendImg.getDataQueue();
-        while (sendImg.isAlive()) {
-            byte[] buffer = new byte[0];
-            try {
-                buffer = dataQueue.take();
-            } catch (InterruptedException e) {
-                log.debug("获取数据流中断：", e);
-                return;
-            }
-            int len = buffer.length;
-            for (int cursor = 0; cursor < len; ) {
-                int byte10 = buffer[cursor] & 0xff;
-                if (readBannerBytes < bannerLength) {//第一次进来读取头部信息
-                    switch (readBannerBytes) {
-                        case 0:
-                            // version
-                            banner.get()[0] = buffer[cursor] + "";
-                            break;
-                        case 1:
-                            // length
-                            bannerLength = buffer[cursor];
-                            banner.get()[1] = String.valueOf(bannerLength);
-                            break;
-                        case 2:
-                        case 3:
-                        case 4:
-                        case 5:
-                            banner.get()[5] = BytesTool.bytesToLong(buffer, 2) + "";
-                            break;
-                        case 6:
-                        case 7:
-                        case 8:
-                        case 9:
-                            banner.get()[9] = BytesTool.bytesToLong(buffer, 6) + "";
-                            break;
-                        case 10:
-                        case 11:
-                        case 12:
-                        case 13:
-                            banner.get()[13] = BytesTool.bytesToLong(buffer, 10) + "";
-                            break;
-                        case 14:
-                        case 15:
-                        case 16:
-                        case 17:
-                            banner.get()[17] = BytesTool.bytesToLong(buffer, 14) + "";
-                            break;
-                        case 18:
-                        case 19:
-                        case 20:
-                        case 21:
-                            banner.get()[21] = BytesTool.bytesToLong(buffer, 18) + "";
-                            break;
-                        case 22:
-                            banner.get()[22] += buffer[cursor] * 90;
-                            break;
-                        case 23:
-                            // quirks
-                            banner.get()[23] = buffer[cursor] + "";
-                            break;
-                    }
-                    cursor += 1;
-                    readBannerBytes += 1;
-                    if (readBannerBytes == bannerLength) {
-                        log.info("banner读取已就绪");
-                        if (sessionOpen()) {
-                            JSONObject size = new JSONObject();
-                            size.put("msg", "size");
-                            size.put("width", banner.get()[9]);
-                            size.put("height", banner.get()[13]);
-                            BytesTool.sendText(session, size.toJSONString());
-                        }
-                    }
-                } else if (readFrameBytes < 4) {//读取并设置图片的大小
-                    frameBodyLength += (byte10 << (readFrameBytes * 8));
-                    cursor += 1;
-                    readFrameBytes += 1;
-                } else {
-                    if (len - cursor >= frameBodyLength) {
-                        byte[] subByte = BytesTool.subByteArray(buffer, cursor,
-                                cursor + frameBodyLength);
-                        frameBody = BytesTool.addBytes(frameBody, subByte);
-                        if ((frameBody[0] != -1) || frameBody[1] != -40) {
-                            return;
+    @Override
+    public void onBanner(MiniCapBanner banner) {
+        if (this.banner != null) {
+            this.banner.set(banner);
+        }
+    }
+
+    @Override
+    public synchronized void onText(String text) {
+        if (finished) {
+            return;
+        }
+        pendingTexts.offer(text);
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void onCaptureFinished() {
+        finished = true;
+        notifyAll();
+    }
+
+    /**
+     * 等待新的一帧或文本消息，只有文本消息时返回null
+     */
+    private synchronized MiniCapFrame takeFrame() throws InterruptedException {
+        while (pendingFrame == null && pendingTexts.isEmpty() && !finished) {
+            wait();
+        }
+        MiniCapFrame frame = pendingFrame;
+        pendingFrame = null;
+        return frame;
+    }
+
+    /**
+     * 等待更新的一帧，超时或采集结束时返回null
+     */
+    private synchronized MiniCapFrame pollNewerFrame(long timeoutNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        long left = timeoutNanos;
+        while (pendingFrame == null && !finished && left > 0) {
+            wait(left / 1_000_000, (int) (left % 1_000_000));
+            left = deadline - System.nanoTime();
+        }
+        MiniCapFrame frame = pendingFrame;
+        pendingFrame = null;
+        return frame;
+    }
+
+    private synchronized List<String> takeTexts() {
+        if (pendingTexts.isEmpty()) {
+            return null;
+        }
+        List<String> texts = new ArrayList<>(pendingTexts);
+        pendingTexts.clear();
+        return texts;
+    }
+
+    private synchronized boolean isFinished() {
+        return finished;
+    }
+
+    private synchronized void finish() {
+        finished = true;
+        pendingTexts.clear();
+        if (pendingFrame != null) {
+            pendingFrame.release();
+            pendingFrame = null;
+        }
+    }
+
+    @Override
+    public Lifecycle getLifecycle() {
+        return lifecycle;
+    }
+
+    @Override
+    public void run() {
+        lifecycle.markStarted();
+        FrameGovernor governor = FrameGovernor.of(pic);
+        // 发送统计：被新帧覆盖的帧数按序号间隔计算，延迟为帧读入到发送完成
+        long lastSeq = -1;
+        long superseded = 0;
+        long maxLatency = 0;
+        try {
+            while (true) {
+                MiniCapFrame frame;
+                try {
+                    frame = takeFrame();
+                    // 未到发送时间时等待，期间到达的新帧替换旧帧，保证发出去的总是最新画面
+                    long delay;
+                    while (frame != null && sessionOpen() && (delay = governor.delayNanos(System.nanoTime())) > 0) {
+                        MiniCapFrame newer;
+                        try {
+                            newer = pollNewerFrame(delay);
+                        } catch (InterruptedException e) {
+                            frame.release();
+                            throw e;
                         }
-                        final byte[] finalBytes = BytesTool.subByteArray(frameBody,
-                                0, frameBody.length);
-                        if (sessionOpen()) {
-                            if (!Arrays.equals(oldBytes, finalBytes)) {
-                                switch (pic) {
-                                    case "low":
-                                        count++;
-                                        break;
-                                    case "middle":
-                                    case "fixed":
-                                        count += 2;
-                                        break;
-                                    case "high":
-                                        break;
-                                }
-                                if (count % 4 == 0) {
-                                    count = 0;
-                                    oldBytes = finalBytes;
-                                    BytesTool.sendByte(session, finalBytes);
-                                }
-                            }
+                        if (newer != null) {
+                            frame.release();
+                            frame = newer;
+                        } else if (isFinished()) {
+                            frame.release();
+                            frame = null;
                         }
-                        if (imgList != null) {
-                            imgList.get().add(finalBytes);
+                    }
+                } catch (InterruptedException e) {
+                    log.debug("获取数据流中断：", e);
+                    return;
+                }
+                List<String> texts = takeTexts();
+                if (texts != null && sessionOpen()) {
+                    for (String text : texts) {
+                        BytesTool.sendText(session, text);
+                    }
+                }
+                if (frame == null) {
+                    if (isFinished()) {
+                        return;
+                    }
+                    continue;
+                }
+                try {
+                    FrameMeta meta = frame.meta();
+                    if (lastSeq >= 0 && meta.getSeq() > lastSeq + 1) {
+                        superseded += meta.getSeq() - lastSeq - 1;
+                    }
+                    lastSeq = meta.getSeq();
+                    if (sessionOpen()) {
+                        FrameDuplicateDetector detector = duplicateDetector;
+                        if (!detector.isDuplicate(frame)) {
+                            detector.onSent(frame);
+                            BytesTool.sendByte(session, frame.data());
+                            governor.onSent(frame.size(), System.nanoTime());
+                            maxLatency = Math.max(maxLatency, System.currentTimeMillis() - meta.getCaptureTime());
                         }
-                        cursor += frameBodyLength;
-                        frameBodyLength = 0;
-                        readFrameBytes = 0;
-                        frameBody = new byte[0];
-                    } else {
-                        byte[] subByte = BytesTool.subByteArray(buffer, cursor, len);
-                        frameBody = BytesTool.addBytes(frameBody, subByte);
-                        frameBodyLength -= (len - cursor);
-                        readFrameBytes += (len - cursor);
-                        cursor = len;
                     }
+                } finally {
+                    frame.release();
                 }
             }
+        } finally {
+            log.info("{} minicap output finished, superseded={}, maxLatency={}ms, governor {}, duplicate {}",
+                    getName(), superseded, maxLatency, governor, duplicateDetector);
+            finish();
+            if (captureHub != null) {
+                captureHub.unsubscribe(this);
+            }
+            if (session != null) {
+                ScreenMap.getMap().remove(session, this);
+            }
+            lifecycle.markTerminated();
         }
     }
-}
\ No newline at end of file
+}
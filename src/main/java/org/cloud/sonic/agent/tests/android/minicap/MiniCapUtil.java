@@ -16,8 +16,8 @@
  */
 package org.cloud.sonic.agent.tests.android.minicap;
 
-import com.android.ddmlib.IDevice;
 import org.cloud.sonic.agent.bridge.android.AndroidDeviceBridgeTool;
+import org.cloud.sonic.agent.tests.TaskKey;
 import org.cloud.sonic.agent.tests.TaskManager;
 import org.cloud.sonic.agent.tests.android.AndroidTestTaskBootThread;
 import org.slf4j.Logger;
@@ -25,11 +25,8 @@ import org.slf4j.LoggerFactory;
 
 import javax.websocket.Session;
 import java.util.List;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicReference;
 
-import static org.cloud.sonic.agent.tests.android.AndroidTestTaskBootThread.ANDROID_TEST_TASK_BOOT_PRE;
-
 /**
  * @author ZhouYiXun
  * @des
@@ -40,7 +37,7 @@ public class MiniCapUtil {
 
     public Thread start(
             String udId,
-            AtomicReference<String[]> banner,
+            AtomicReference<MiniCapBanner> banner,
             AtomicReference<List<byte[]>> imgList,
             String pic,
             int tor,
@@ -53,52 +50,27 @@ public class MiniCapUtil {
 
     public Thread start(
             String udId,
-            AtomicReference<String[]> banner,
+            AtomicReference<MiniCapBanner> banner,
             AtomicReference<List<byte[]>> imgList,
             String pic,
             int tor,
             Session session,
             AndroidTestTaskBootThread androidTestTaskBootThread
     ) {
-        IDevice iDevice = AndroidDeviceBridgeTool.getIDeviceByUdId(udId);
-        String key = androidTestTaskBootThread.formatThreadName(ANDROID_TEST_TASK_BOOT_PRE);
-        int s;
+        TaskKey key = androidTestTaskBootThread.getTaskKey();
         if (tor == -1) {
-            s = AndroidDeviceBridgeTool.getScreen(AndroidDeviceBridgeTool.getIDeviceByUdId(udId));
-        } else {
-            s = tor;
-        }
-        // 启动minicap服务
-        MiniCapLocalThread miniCapPro = new MiniCapLocalThread(iDevice, pic, s * 90, session, androidTestTaskBootThread);
-        TaskManager.startChildThread(key, miniCapPro);
-
-        // 等待启动
-        int wait = 0;
-        while (!miniCapPro.getIsFinish().tryAcquire()) {
-            wait++;
-            try {
-                Thread.sleep(500);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-            // 启动失败了，强行跳过，保证其它服务可用
-            if (wait > 8) {
-                break;
-            }
+            tor = AndroidDeviceBridgeTool.getScreen(AndroidDeviceBridgeTool.getIDeviceByUdId(udId));
         }
-
-        // 启动输入流
-        MiniCapInputSocketThread sendImg = new MiniCapInputSocketThread(
-                iDevice, new LinkedBlockingQueue<>(), miniCapPro, session
-        );
-        // 启动输出流
+        // 输出流作为订阅者挂到设备的采集中心上，同参数已有minicap服务时直接复用
         MiniCapOutputSocketThread miniCapOutputSocketThread = new MiniCapOutputSocketThread(
-                sendImg, banner, imgList, session, pic
+                androidTestTaskBootThread, banner, imgList, session, pic
         );
+        // 头部信息读到后由输出线程写入banner
+        MiniCapCaptureHub captureHub = MiniCapCaptureHub.subscribe(udId, tor, pic, miniCapOutputSocketThread, session);
+        miniCapOutputSocketThread.setCaptureHub(captureHub);
+        TaskManager.startChildThread(key, miniCapOutputSocketThread);
 
-        TaskManager.startChildThread(key, sendImg, miniCapOutputSocketThread);
-
-        return miniCapPro; // server线程
+        return miniCapOutputSocketThread; // 订阅者线程，中断即取消订阅
     }
 
 }
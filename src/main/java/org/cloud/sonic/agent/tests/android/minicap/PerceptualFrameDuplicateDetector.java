@@ -0,0 +1,172 @@
+/*
+ *  Copyright (C) [SonicCloudOrg] Sonic Project
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.cloud.sonic.agent.tests.android.minicap;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 感知哈希判断重复帧
+ * <p>
+ * 内容哈希相同直接判为重复；不同时再比较dHash，汉明距离不超过阈值即认为画面没有变化。
+ * dHash需要解码jpeg，解码时按比例降采样，每帧只在第一次使用时计算一次。
+ * <p>
+ * 只靠dHash判为重复的帧连续丢弃不超过 {@link #DEFAULT_MAX_SUPPRESSED} 帧、距上次发送不超过
+ * {@link #DEFAULT_MAX_SUPPRESS_MILLIS} 毫秒，之后的帧强制发送，光标、单个字符这类细微变化不会一直不显示
+ */
+public class PerceptualFrameDuplicateDetector extends HashFrameDuplicateDetector {
+
+    /**
+     * 允许不同的位数，64位中的比例越大越容易把细微变化（如光标闪烁）当作重复
+     */
+    public static final int DEFAULT_MAX_DISTANCE = 2;
+
+    /**
+     * 只靠dHash判为重复时，最多连续丢弃的帧数
+     */
+    public static final int DEFAULT_MAX_SUPPRESSED = 30;
+
+    /**
+     * 只靠dHash判为重复时，距上次发送的最长时间，毫秒
+     */
+    public static final long DEFAULT_MAX_SUPPRESS_MILLIS = 1000;
+
+    /**
+     * 解码后的目标宽度，降采样后再缩到9x8
+     */
+    private static final int DECODE_WIDTH = 72;
+
+    private final int maxDistance;
+
+    private final int maxSuppressed;
+
+    private final long maxSuppressNanos;
+
+    private boolean hasLast = false;
+
+    private long lastPerceptualHash;
+
+    /**
+     * 上次发送后只靠dHash判为重复的帧数
+     */
+    private int suppressed = 0;
+
+    private long lastSentAt;
+
+    public PerceptualFrameDuplicateDetector() {
+        this(DEFAULT_MAX_DISTANCE);
+    }
+
+    public PerceptualFrameDuplicateDetector(int maxDistance) {
+        this(maxDistance, DEFAULT_MAX_SUPPRESSED, DEFAULT_MAX_SUPPRESS_MILLIS);
+    }
+
+    public PerceptualFrameDuplicateDetector(int maxDistance, int maxSuppressed, long maxSuppressMillis) {
+        this.maxDistance = maxDistance;
+        this.maxSuppressed = maxSuppressed;
+        this.maxSuppressNanos = TimeUnit.MILLISECONDS.toNanos(maxSuppressMillis);
+    }
+
+    @Override
+    protected boolean matches(MiniCapFrame frame) {
+        if (super.matches(frame)) {
+            return true;
+        }
+        if (!hasLast || Long.bitCount(frame.perceptualHash() ^ lastPerceptualHash) > maxDistance) {
+            return false;
+        }
+        // 细微变化累积到一定帧数或时间后强制发送一帧，重新作为比较基准
+        if (suppressed >= maxSuppressed || System.nanoTime() - lastSentAt >= maxSuppressNanos) {
+            return false;
+        }
+        suppressed++;
+        return true;
+    }
+
+    @Override
+    protected void remember(MiniCapFrame frame) {
+        super.remember(frame);
+        hasLast = true;
+        lastPerceptualHash = frame.perceptualHash();
+        suppressed = 0;
+        lastSentAt = System.nanoTime();
+    }
+
+    @Override
+    public String getMode() {
+        return MODE_PHASH;
+    }
+
+    /**
+     * 计算jpeg的dHash，解码失败时退回内容哈希，保证不会被误判为重复
+     */
+    static long dHash(MiniCapFrame frame) {
+        BufferedImage image = null;
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(frame.toByteArray()))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (readers.hasNext()) {
+                ImageReader reader = readers.next();
+                try {
+                    reader.setInput(input, true, true);
+                    int step = Math.max(1, reader.getWidth(0) / DECODE_WIDTH);
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    param.setSourceSubsampling(step, step, 0, 0);
+                    image = reader.read(0, param);
+                } finally {
+                    reader.dispose();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            image = null;
+        }
+        if (image == null) {
+            return frame.contentHash();
+        }
+        // 缩到9x8灰度，每行相邻像素比较得到8位
+        int width = image.getWidth();
+        int height = image.getHeight();
+        long[] sum = new long[72];
+        int[] count = new int[72];
+        for (int y = 0; y < height; y++) {
+            int cellY = y * 8 / height;
+            for (int x = 0; x < width; x++) {
+                int rgb = image.getRGB(x, y);
+                int gray = (((rgb >> 16) & 0xff) * 299 + ((rgb >> 8) & 0xff) * 587 + (rgb & 0xff) * 114) / 1000;
+                int cell = cellY * 9 + x * 9 / width;
+                sum[cell] += gray;
+                count[cell]++;
+            }
+        }
+        long hash = 0;
+        for (int row = 0; row < 8; row++) {
+            for (int col = 0; col < 8; col++) {
+                int left = row * 9 + col;
+                long leftValue = count[left] == 0 ? 0 : sum[left] / count[left];
+                long rightValue = count[left + 1] == 0 ? 0 : sum[left + 1] / count[left + 1];
+                hash = (hash << 1) | (leftValue < rightValue ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+}
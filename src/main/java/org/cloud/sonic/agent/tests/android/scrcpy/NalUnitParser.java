@@ -0,0 +1,231 @@
+/*
+ *  Copyright (C) [SonicCloudOrg] Sonic Project
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.cloud.sonic.agent.tests.android.scrcpy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * H.264 Annex-B NAL单元解析器
+ * <p>
+ * 数据写入环形缓冲区，扫描游标只向前移动，每个字节只检查一次；支持3字节和4字节起始码。
+ * 解析出的NAL单元以 {@link NalUnit} 视图的形式回调，视图只在回调期间有效，需要保留时自行拷贝。
+ * 每个NAL单元包含它自己的起始码，第一个起始码之前的数据（如scrcpy的设备信息头）作为单独一段回调。
+ */
+public class NalUnitParser {
+
+    public static final int DEFAULT_CAPACITY = 1 << 22;
+
+    public interface NalUnitConsumer {
+        void accept(NalUnit nalUnit);
+    }
+
+    private byte[] ring;
+
+    private int mask;
+
+    /**
+     * 当前NAL单元起点、扫描游标、写入位置，均为不取模的绝对位置
+     */
+    private long head = 0;
+
+    private long cursor = 0;
+
+    private long tail = 0;
+
+    private final NalUnit view = new NalUnit();
+
+    public NalUnitParser() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity 初始容量，会向上取整为2的幂，单个NAL超过容量时自动扩容
+     */
+    public NalUnitParser(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+        this.ring = new byte[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * 从输入流读取一次数据到缓冲区
+     *
+     * @param maxLength 单次最多读取的字节数
+     * @return 读取的字节数，-1表示流结束
+     */
+    public int read(InputStream inputStream, int maxLength) throws IOException {
+        ensureFree(1);
+        int offset = (int) (tail & mask);
+        int contiguous = Math.min(ring.length - (int) (tail - head), ring.length - offset);
+        int readLength = inputStream.read(ring, offset, Math.min(contiguous, maxLength));
+        if (readLength > 0) {
+            tail += readLength;
+        }
+        return readLength;
+    }
+
+    /**
+     * 从通道读取一次数据到缓冲区，直接写入环形缓冲区，非阻塞通道没有数据时返回0
+     *
+     * @param maxLength 单次最多读取的字节数
+     * @return 读取的字节数，-1表示通道已关闭
+     */
+    public int read(ReadableByteChannel channel, int maxLength) throws IOException {
+        ensureFree(1);
+        int offset = (int) (tail & mask);
+        int contiguous = Math.min(ring.length - (int) (tail - head), ring.length - offset);
+        int readLength = channel.read(ByteBuffer.wrap(ring, offset, Math.min(contiguous, maxLength)));
+        if (readLength > 0) {
+            tail += readLength;
+        }
+        return readLength;
+    }
+
+    /**
+     * 写入一段数据到缓冲区
+     */
+    public void feed(byte[] src, int offset, int length) {
+        ensureFree(length);
+        int start = (int) (tail & mask);
+        int first = Math.min(length, ring.length - start);
+        System.arraycopy(src, offset, ring, start, first);
+        System.arraycopy(src, offset + first, ring, 0, length - first);
+        tail += length;
+    }
+
+    /**
+     * 扫描新写入的数据，每找到一个完整的NAL单元回调一次
+     *
+     * @return 本次解析出的NAL单元数量
+     */
+    public int parse(NalUnitConsumer consumer) {
+        int count = 0;
+        long i = cursor;
+        while (i + 2 < tail) {
+            byte third = ring[(int) ((i + 2) & mask)];
+            if (third > 1 || third < 0) {
+                // 第三个字节既不是0也不是1，这三个位置都不可能是起始码的开头
+                i += 3;
+                continue;
+            }
+            if (third == 1 && ring[(int) (i & mask)] == 0 && ring[(int) ((i + 1) & mask)] == 0) {
+                long boundary = i;
+                int startCodeLength = 3;
+                if (i > head && ring[(int) ((i - 1) & mask)] == 0) {
+                    boundary = i - 1;
+                    startCodeLength = 4;
+                }
+                if (boundary > head) {
+                    view.set(ring, mask, head, (int) (boundary - head));
+                    consumer.accept(view);
+                    count++;
+                }
+                head = boundary;
+                i = boundary + startCodeLength;
+                continue;
+            }
+            i++;
+        }
+        cursor = i;
+        return count;
+    }
+
+    /**
+     * 当前未解析完成的字节数
+     */
+    public int pending() {
+        return (int) (tail - head);
+    }
+
+    private void ensureFree(int length) {
+        int used = (int) (tail - head);
+        if (ring.length - used >= length) {
+            return;
+        }
+        int size = ring.length;
+        while (size - used < length) {
+            size <<= 1;
+        }
+        byte[] grown = new byte[size];
+        int start = (int) (head & mask);
+        int first = Math.min(used, ring.length - start);
+        System.arraycopy(ring, start, grown, 0, first);
+        System.arraycopy(ring, 0, grown, first, used - first);
+        // 重新以0为起点
+        cursor -= head;
+        tail -= head;
+        head = 0;
+        ring = grown;
+        mask = size - 1;
+    }
+
+    /**
+     * 环形缓冲区上的NAL单元视图
+     */
+    public static class NalUnit {
+        private byte[] ring;
+        private int mask;
+        private long start;
+        private int length;
+
+        void set(byte[] ring, int mask, long start, int length) {
+            this.ring = ring;
+            this.mask = mask;
+            this.start = start;
+            this.length = length;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public byte get(int index) {
+            return ring[(int) ((start + index) & mask)];
+        }
+
+        /**
+         * NAL单元类型，开头不是起始码时返回-1
+         */
+        public int type() {
+            if (length > 4 && get(0) == 0 && get(1) == 0) {
+                if (get(2) == 1) {
+                    return get(3) & 0x1f;
+                }
+                if (get(2) == 0 && get(3) == 1) {
+                    return get(4) & 0x1f;
+                }
+            }
+            return -1;
+        }
+
+        public void copyTo(byte[] dst, int offset) {
+            int begin = (int) (start & mask);
+            int first = Math.min(length, ring.length - begin);
+            System.arraycopy(ring, begin, dst, offset, first);
+            System.arraycopy(ring, 0, dst, offset + first, length - first);
+        }
+
+        public byte[] toByteArray() {
+            byte[] bytes = new byte[length];
+            copyTo(bytes, 0);
+            return bytes;
+        }
+    }
+}
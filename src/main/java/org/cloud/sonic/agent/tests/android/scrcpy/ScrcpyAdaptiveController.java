@@ -0,0 +1,142 @@
+/*
+ *  Copyright (C) [SonicCloudOrg] Sonic Project
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.cloud.sonic.agent.tests.android.scrcpy;
+
+/**
+ * 单个会话的scrcpy自适应档位控制
+ * <p>
+ * 按时间窗口统计WebSocket发送耗时、队列深度和丢帧数：出现丢帧或拥塞时立即降一档，
+ * 连续多个窗口都很空闲才升一档，每次切换后有冷却时间，避免来回抖动。
+ * 用户固定档位后不再自动调整。
+ */
+public class ScrcpyAdaptiveController {
+
+    /**
+     * 统计窗口，毫秒
+     */
+    private static final long WINDOW = 2000;
+
+    /**
+     * 两次切换的最小间隔，毫秒
+     */
+    private static final long COOL_DOWN = 10000;
+
+    /**
+     * 升档前需要连续空闲的窗口数
+     */
+    private static final int GOOD_WINDOWS_TO_RAISE = 5;
+
+    private static final long CONGESTED_SEND_NANOS = 50_000_000L;
+
+    private static final int CONGESTED_DEPTH = 30;
+
+    private static final long IDLE_SEND_NANOS = 15_000_000L;
+
+    private static final int IDLE_DEPTH = 5;
+
+    private ScrcpyProfile desired = ScrcpyProfile.HIGH;
+
+    private boolean pinned = false;
+
+    private long windowStart = 0;
+
+    private long windowSendNanos = 0;
+
+    private int windowSendCount = 0;
+
+    private int windowMaxDepth = 0;
+
+    private long lastDropped = 0;
+
+    private int goodWindows = 0;
+
+    private long lastChange = 0;
+
+    public synchronized ScrcpyProfile getDesired() {
+        return desired;
+    }
+
+    public synchronized boolean isPinned() {
+        return pinned;
+    }
+
+    /**
+     * 固定档位
+     */
+    public synchronized void pin(ScrcpyProfile profile) {
+        desired = profile;
+        pinned = true;
+    }
+
+    /**
+     * 恢复自动调整
+     */
+    public synchronized void unpin(long now) {
+        pinned = false;
+        goodWindows = 0;
+        lastChange = now;
+    }
+
+    /**
+     * 记录一次发送
+     *
+     * @param sendNanos 本次发送耗时
+     * @param depth     发送后的队列深度
+     * @param dropped   队列累计丢弃数
+     * @param now       当前时间，毫秒
+     * @return 需要切换档位时返回新档位，否则返回null
+     */
+    public synchronized ScrcpyProfile onSend(long sendNanos, int depth, long dropped, long now) {
+        if (windowStart == 0) {
+            windowStart = now;
+            lastChange = now;
+        }
+        windowSendNanos += sendNanos;
+        windowSendCount++;
+        windowMaxDepth = Math.max(windowMaxDepth, depth);
+        if (now - windowStart < WINDOW) {
+            return null;
+        }
+        long avgSendNanos = windowSendNanos / windowSendCount;
+        boolean droppedInWindow = dropped > lastDropped;
+        boolean congested = droppedInWindow || avgSendNanos > CONGESTED_SEND_NANOS || windowMaxDepth > CONGESTED_DEPTH;
+        boolean idle = !droppedInWindow && avgSendNanos < IDLE_SEND_NANOS && windowMaxDepth < IDLE_DEPTH;
+        lastDropped = dropped;
+        windowStart = now;
+        windowSendNanos = 0;
+        windowSendCount = 0;
+        windowMaxDepth = 0;
+
+        goodWindows = idle ? goodWindows + 1 : 0;
+        if (pinned || now - lastChange < COOL_DOWN) {
+            return null;
+        }
+        ScrcpyProfile next = desired;
+        if (congested) {
+            next = desired.lower();
+        } else if (goodWindows >= GOOD_WINDOWS_TO_RAISE) {
+            next = desired.higher();
+        }
+        if (next == desired) {
+            return null;
+        }
+        desired = next;
+        goodWindows = 0;
+        lastChange = now;
+        return next;
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ *  Copyright (C) [SonicCloudOrg] Sonic Project
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.cloud.sonic.agent.tests.android.scrcpy;
+
+import com.alibaba.fastjson.JSONObject;
+import com.android.ddmlib.IDevice;
+import org.cloud.sonic.agent.bridge.android.AndroidDeviceBridgeTool;
+import org.cloud.sonic.agent.common.maps.ScreenHubMap;
+import org.cloud.sonic.agent.tests.TaskKey;
+import org.cloud.sonic.agent.tests.TaskManager;
+import org.cloud.sonic.agent.tests.android.AndroidTestTaskBootThread;
+import org.cloud.sonic.agent.tests.android.ScreenCaptureHub;
+import org.cloud.sonic.agent.tools.AgentExecutors;
+
+import javax.websocket.Session;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * scrcpy投屏采集中心
+ * <p>
+ * 缓存设备信息头、SPS/PPS以及最近一个IDR开始的整组画面，新订阅者加入时一次性补发，不用等下一个关键帧
+ * <p>
+ * 码率/分辨率档位由所有订阅者共同决定：有人固定档位时取固定档位中最高的，否则取自动档位中最低的，
+ * 档位变化时后台重启设备端编码，订阅者不用重新连接
+ */
+public class ScrcpyCaptureHub extends ScreenCaptureHub<ScrcpyCaptureHub.NaluSubscriber> {
+
+    /**
+     * 画面组缓存上限，超出后只保留IDR本身
+     */
+    private static final long MAX_GOP_BYTES = 6L * 1024 * 1024;
+
+    /**
+     * 两次请求关键帧的最小间隔，请求关键帧需要重启设备端编码，会短暂影响所有订阅者
+     */
+    private static final long KEY_FRAME_REQUEST_INTERVAL = TimeUnit.SECONDS.toNanos(3);
+
+    public interface NaluSubscriber extends ScreenCaptureHub.Subscriber {
+        /**
+         * 收到一个NAL单元，数组在所有订阅者间共享，不可修改
+         */
+        void onNalu(byte[] nalu);
+    }
+
+    private final int tor;
+
+    private byte[] header;
+
+    private byte[] sps;
+
+    private byte[] pps;
+
+    private final List<byte[]> gop = new ArrayList<>();
+
+    private long gopBytes = 0;
+
+    /**
+     * 当前期望的档位
+     */
+    private volatile ScrcpyProfile profile = ScrcpyProfile.HIGH;
+
+    /**
+     * 设备端正在使用的档位
+     */
+    private volatile ScrcpyProfile runningProfile;
+
+    private final Map<NaluSubscriber, ScrcpyProfile> autoProfiles = new ConcurrentHashMap<>();
+
+    private final Map<NaluSubscriber, ScrcpyProfile> pinnedProfiles = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean restarting = new AtomicBoolean(false);
+
+    /**
+     * 有订阅者丢帧后在等待关键帧，需要以当前档位重启编码
+     */
+    private volatile boolean keyFrameRequested = false;
+
+    private long lastKeyFrameRequest = System.nanoTime() - KEY_FRAME_REQUEST_INTERVAL;
+
+    public ScrcpyCaptureHub(String udId, int tor) {
+        super(udId, hubKey(udId, tor), new AndroidTestTaskBootThread().setUdId(udId));
+        this.tor = tor;
+    }
+
+    public static String hubKey(String udId, int tor) {
+        return String.format("scrcpy-%s-%d", udId, tor);
+    }
+
+    /**
+     * 订阅设备画面，已有同参数的采集进程时直接复用
+     */
+    public static ScrcpyCaptureHub subscribe(String udId, int tor, NaluSubscriber subscriber, Session session) {
+        while (true) {
+            ScrcpyCaptureHub hub = (ScrcpyCaptureHub) ScreenHubMap.getMap()
+                    .computeIfAbsent(hubKey(udId, tor), k -> new ScrcpyCaptureHub(udId, tor));
+            if (hub.subscribe(subscriber, session)) {
+                return hub;
+            }
+            ScreenHubMap.getMap().remove(hub.getHubKey(), hub);
+        }
+    }
+
+    @Override
+    protected void startCapture(Session session) {
+        IDevice iDevice = AndroidDeviceBridgeTool.getIDeviceByUdId(udId);
+        TaskKey key = androidTestTaskBootThread.getTaskKey();
+        int s;
+        if (tor == -1) {
+            s = AndroidDeviceBridgeTool.getScreen(iDevice);
+        } else {
+            s = tor;
+        }
+        // 启动scrcpy服务
+        runningProfile = profile;
+        ScrcpyLocalThread scrcpyThread = new ScrcpyLocalThread(iDevice, s, session, androidTestTaskBootThread, runningProfile);
+        captureThreads.add(scrcpyThread);
+        TaskManager.startChildThread(key, scrcpyThread);
+
+        // 等待启动，就绪或进程提前退出时立即返回；启动失败了也继续，保证其它服务可用
+        try {
+            if (!scrcpyThread.getLifecycle().awaitReady(START_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                log.info("{} scrcpy server not ready", udId);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 启动输入流
+        ScrcpyInputSocketThread scrcpyInputSocketThread = new ScrcpyInputSocketThread(iDevice, this, scrcpyThread);
+        captureThreads.add(scrcpyInputSocketThread);
+        TaskManager.startChildThread(key, scrcpyInputSocketThread);
+    }
+
+    public ScrcpyProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * 订阅者提交期望档位
+     *
+     * @param pinned true为用户固定的档位，false为自适应算出的档位
+     */
+    public void requestProfile(NaluSubscriber subscriber, ScrcpyProfile requested, boolean pinned) {
+        if (!subscribers.contains(subscriber)) {
+            return;
+        }
+        if (pinned) {
+            pinnedProfiles.put(subscriber, requested);
+            autoProfiles.remove(subscriber);
+        } else {
+            autoProfiles.put(subscriber, requested);
+            pinnedProfiles.remove(subscriber);
+        }
+        applyProfile();
+    }
+
+    private ScrcpyProfile targetProfile() {
+        if (!pinnedProfiles.isEmpty()) {
+            ScrcpyProfile target = ScrcpyProfile.MINIMUM;
+            for (ScrcpyProfile p : pinnedProfiles.values()) {
+                if (p.ordinal() < target.ordinal()) {
+                    target = p;
+                }
+            }
+            return target;
+        }
+        ScrcpyProfile target = ScrcpyProfile.HIGH;
+        for (ScrcpyProfile p : autoProfiles.values()) {
+            if (p.ordinal() > target.ordinal()) {
+                target = p;
+            }
+        }
+        return target;
+    }
+
+    private void applyProfile() {
+        ScrcpyProfile target;
+        synchronized (this) {
+            target = targetProfile();
+            if (isStopped() || target == profile) {
+                return;
+            }
+            profile = target;
+        }
+        log.info("{} scrcpy profile changed to {}", udId, target.getDetail());
+        JSONObject profileMsg = new JSONObject();
+        profileMsg.put("msg", "profile");
+        profileMsg.put("detail", target.getDetail());
+        profileMsg.put("auto", pinnedProfiles.isEmpty());
+        for (NaluSubscriber subscriber : subscribers) {
+            subscriber.onText(profileMsg.toJSONString());
+        }
+        scheduleRestart();
+    }
+
+    /**
+     * 订阅者丢帧后请求关键帧，scrcpy没有单独请求关键帧的指令，以当前档位重启编码，新的编码从IDR开始；
+     * 在发布线程中调用，只标记并交给后台重启
+     */
+    public void requestKeyFrame() {
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (isStopped() || now - lastKeyFrameRequest < KEY_FRAME_REQUEST_INTERVAL) {
+                return;
+            }
+            lastKeyFrameRequest = now;
+            keyFrameRequested = true;
+        }
+        log.info("{} scrcpy subscriber lagging, restart encoder for a key frame", udId);
+        scheduleRestart();
+    }
+
+    private boolean needRestart() {
+        return profile != runningProfile || keyFrameRequested;
+    }
+
+    /**
+     * 后台重启设备端编码，重启期间档位再次变化或再次请求关键帧时会接着重启
+     */
+    private void scheduleRestart() {
+        if (!restarting.compareAndSet(false, true)) {
+            return;
+        }
+        Thread restartThread = AgentExecutors.newThread(String.format("android-scrcpy-profile-%s", udId), () -> {
+            try {
+                while (!isStopped() && needRestart()) {
+                    keyFrameRequested = false;
+                    restartCapture();
+                }
+            } finally {
+                restarting.set(false);
+            }
+            if (!isStopped() && needRestart()) {
+                scheduleRestart();
+            }
+        });
+        restartThread.setDaemon(true);
+        restartThread.start();
+    }
+
+    /**
+     * 由输入流线程调用，视频流之前固定长度的设备信息头，缓存并分发给所有订阅者
+     */
+    public synchronized void publishHeader(byte[] deviceMeta) {
+        header = deviceMeta;
+        for (NaluSubscriber subscriber : subscribers) {
+            subscriber.onNalu(deviceMeta);
+        }
+    }
+
+    /**
+     * 由输入流线程调用，缓存并分发给所有订阅者
+     */
+    public synchronized void publish(byte[] nalu) {
+        int type = ScrcpyNaluQueue.naluType(nalu);
+        switch (type) {
+            case -1:
+                // 设备信息头已由publishHeader单独读取，这里不会是信息头
+                break;
+            case ScrcpyNaluQueue.NALU_TYPE_SPS:
+                sps = nalu;
+                break;
+            case ScrcpyNaluQueue.NALU_TYPE_PPS:
+                pps = nalu;
+                break;
+            case ScrcpyNaluQueue.NALU_TYPE_IDR:
+                gop.clear();
+                gop.add(nalu);
+                gopBytes = nalu.length;
+                break;
+            default:
+                if (!gop.isEmpty() && gopBytes + nalu.length <= MAX_GOP_BYTES) {
+                    gop.add(nalu);
+                    gopBytes += nalu.length;
+                }
+                break;
+        }
+        for (NaluSubscriber subscriber : subscribers) {
+            subscriber.onNalu(nalu);
+        }
+    }
+
+    /**
+     * 补发缓存的数据，合并为一个以SPS开头的数据块，投递时不会被当作普通帧丢弃
+     */
+    @Override
+    protected synchronized void onSubscribe(NaluSubscriber subscriber) {
+        if (sps == null || pps == null) {
+            if (header != null) {
+                subscriber.onNalu(header);
+            }
+            return;
+        }
+        if (header != null) {
+            subscriber.onNalu(header);
+        }
+        ByteArrayOutputStream replay = new ByteArrayOutputStream((int) gopBytes + sps.length + pps.length);
+        replay.writeBytes(sps);
+        replay.writeBytes(pps);
+        for (byte[] nalu : gop) {
+            replay.writeBytes(nalu);
+        }
+        subscriber.onNalu(replay.toByteArray());
+    }
+
+    @Override
+    protected void onUnsubscribe(NaluSubscriber subscriber) {
+        autoProfiles.remove(subscriber);
+        pinnedProfiles.remove(subscriber);
+        if (!subscribers.isEmpty()) {
+            applyProfile();
+        }
+    }
+
+    @Override
+    protected synchronized void onStopped() {
+        header = null;
+        sps = null;
+        pps = null;
+        gop.clear();
+        gopBytes = 0;
+    }
+}
@@ -19,24 +19,22 @@ package org.cloud.sonic.agent.tests.android.scrcpy;
 import com.alibaba.fastjson.JSONObject;
 import com.android.ddmlib.IDevice;
 import org.cloud.sonic.agent.bridge.android.AndroidDeviceBridgeTool;
-import org.cloud.sonic.agent.common.maps.ScreenMap;
 import org.cloud.sonic.agent.tests.android.AndroidTestTaskBootThread;
-import org.cloud.sonic.agent.tools.BytesTool;
 import org.cloud.sonic.agent.tools.PortTool;
+import org.cloud.sonic.agent.tools.nio.DeviceChannel;
+import org.cloud.sonic.agent.tools.nio.DeviceSocketHandler;
+import org.cloud.sonic.agent.tools.nio.DeviceSocketReactor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.websocket.Session;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.InetSocketAddress;
-import java.net.Socket;
-import java.util.Queue;
-import java.util.concurrent.BlockingQueue;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 
 /**
  * scrcpy socket线程
- * 通过端口转发，将设备视频流转发到此Socket
+ * 通过端口转发，将设备视频流转发到此Socket；连接建立后注册到 {@link DeviceSocketReactor}，
+ * 由共享的IO线程读取，本线程随即结束。中断时关闭连接
  */
 public class ScrcpyInputSocketThread extends Thread {
 
@@ -46,19 +44,22 @@ public class ScrcpyInputSocketThread extends Thread {
 
     private IDevice iDevice;
 
-    private BlockingQueue<byte[]> dataQueue;
+    private ScrcpyCaptureHub captureHub;
 
     private ScrcpyLocalThread scrcpyLocalThread;
 
     private AndroidTestTaskBootThread androidTestTaskBootThread;
 
-    private Session session;
+    private int scrcpyPort;
 
-    public ScrcpyInputSocketThread(IDevice iDevice, BlockingQueue<byte[]> dataQueue, ScrcpyLocalThread scrcpyLocalThread, Session session) {
+    private volatile DeviceChannel videoChannel;
+
+    private volatile boolean stopped = false;
+
+    public ScrcpyInputSocketThread(IDevice iDevice, ScrcpyCaptureHub captureHub, ScrcpyLocalThread scrcpyLocalThread) {
         this.iDevice = iDevice;
-        this.dataQueue = dataQueue;
+        this.captureHub = captureHub;
         this.scrcpyLocalThread = scrcpyLocalThread;
-        this.session = session;
         this.androidTestTaskBootThread = scrcpyLocalThread.getAndroidTestTaskBootThread();
         this.setDaemon(false);
         this.setName(androidTestTaskBootThread.formatThreadName(ANDROID_INPUT_SOCKET_PRE));
@@ -68,8 +69,8 @@ public class ScrcpyInputSocketThread extends Thread {
         return iDevice;
     }
 
-    public BlockingQueue<byte[]> getDataQueue() {
-        return dataQueue;
+    public ScrcpyCaptureHub getCaptureHub() {
+        return captureHub;
     }
 
     public ScrcpyLocalThread getScrcpyLocalThread() {
@@ -80,82 +81,91 @@ public class ScrcpyInputSocketThread extends Thread {
         return androidTestTaskBootThread;
     }
 
-    public Session getSession() {
-        return session;
-    }
+    private static final int READ_BUFFER_SIZE = 1024 * 64;
 
-    private static final int BUFFER_SIZE = 1024 * 1024 * 10;
-    private static final int READ_BUFFER_SIZE = 1024 * 5;
+    @Override
+    public void interrupt() {
+        super.interrupt();
+        stopped = true;
+        DeviceChannel channel = videoChannel;
+        if (channel != null) {
+            channel.close();
+        }
+    }
 
     @Override
     public void run() {
-        int scrcpyPort = PortTool.getPort();
+        scrcpyPort = PortTool.getPort();
         AndroidDeviceBridgeTool.forward(iDevice, scrcpyPort, "scrcpy");
-        Socket videoSocket = new Socket();
-        InputStream inputStream = null;
         try {
-            videoSocket.connect(new InetSocketAddress("localhost", scrcpyPort));
-            inputStream = videoSocket.getInputStream();
-            if (videoSocket.isConnected()) {
-                String sizeTotal = AndroidDeviceBridgeTool.getScreenSize(iDevice);
-                JSONObject size = new JSONObject();
-                size.put("msg", "size");
-                size.put("width", sizeTotal.split("x")[0]);
-                size.put("height", sizeTotal.split("x")[1]);
-                BytesTool.sendText(session, size.toJSONString());
-            }
-            int readLength;
-            int naLuIndex;
-            int bufferLength = 0;
-            byte[] buffer = new byte[BUFFER_SIZE];
-            while (scrcpyLocalThread.isAlive()) {
-                readLength = inputStream.read(buffer, bufferLength, READ_BUFFER_SIZE);
-                if (readLength > 0) {
-                    bufferLength += readLength;
-                    for (int i = 5; i < bufferLength - 4; i++) {
-                        if (buffer[i] == 0x00 &&
-                                buffer[i + 1] == 0x00 &&
-                                buffer[i + 2] == 0x00 &&
-                                buffer[i + 3] == 0x01
-                        ) {
-                            naLuIndex = i;
-                            byte[] naluBuffer = new byte[naLuIndex];
-                            System.arraycopy(buffer, 0, naluBuffer, 0, naLuIndex);
-                            dataQueue.add(naluBuffer);
-                            bufferLength -= naLuIndex;
-                            System.arraycopy(buffer, naLuIndex, buffer, 0, bufferLength);
-                            i = 5;
-                        }
-                    }
-                }
+            videoChannel = DeviceSocketReactor.getInstance().connect(getName(), scrcpyPort, new ScrcpyHandler());
+            // 连接期间已被中断
+            if (stopped) {
+                videoChannel.close();
+                return;
             }
+            String sizeTotal = AndroidDeviceBridgeTool.getScreenSize(iDevice);
+            JSONObject size = new JSONObject();
+            size.put("msg", "size");
+            size.put("width", sizeTotal.split("x")[0]);
+            size.put("height", sizeTotal.split("x")[1]);
+            captureHub.publishSize(size.toJSONString());
         } catch (IOException e) {
             e.printStackTrace();
-        } finally {
-            if (scrcpyLocalThread.isAlive()) {
-                scrcpyLocalThread.interrupt();
-                log.info("scrcpy thread closed.");
-            }
-            if (videoSocket.isConnected()) {
-                try {
-                    videoSocket.close();
-                    log.info("scrcpy video socket closed.");
-                } catch (IOException e) {
-                    e.printStackTrace();
+            closed();
+        }
+    }
+
+    private void closed() {
+        if (scrcpyLocalThread.isAlive()) {
+            scrcpyLocalThread.interrupt();
+            log.info("scrcpy thread closed.");
+        }
+        AndroidDeviceBridgeTool.removeForward(iDevice, scrcpyPort, "scrcpy");
+        captureHub.captureFinished(this);
+    }
+
+    /**
+     * scrcpy 1.23在视频流之前先发送1字节占位，再发送64字节的设备名称和各2字节的宽高；
+     * 宽高可能组成 00 00 00 01，因此按固定长度整段读取，之后才开始扫描起始码
+     */
+    private static final int DEVICE_META_LENGTH = 1 + 64 + 2 + 2;
+
+    private class ScrcpyHandler implements DeviceSocketHandler {
+
+        private final ByteBuffer deviceMeta = ByteBuffer.allocate(DEVICE_META_LENGTH);
+
+        private final NalUnitParser nalUnitParser = new NalUnitParser();
+
+        private final NalUnitParser.NalUnitConsumer consumer = nalUnit -> captureHub.publish(nalUnit.toByteArray());
+
+        @Override
+        public boolean onReadable(ReadableByteChannel channel) throws IOException {
+            if (deviceMeta.hasRemaining()) {
+                if (channel.read(deviceMeta) < 0) {
+                    return false;
+                }
+                if (deviceMeta.hasRemaining()) {
+                    return true;
                 }
+                captureHub.publishHeader(deviceMeta.array());
             }
-            if (inputStream != null) {
-                try {
-                    inputStream.close();
-                    log.info("scrcpy input stream closed.");
-                } catch (IOException e) {
-                    e.printStackTrace();
+            while (scrcpyLocalThread.isAlive()) {
+                int readLength = nalUnitParser.read(channel, READ_BUFFER_SIZE);
+                if (readLength < 0) {
+                    return false;
                 }
+                if (readLength == 0) {
+                    return true;
+                }
+                nalUnitParser.parse(consumer);
             }
+            return false;
         }
-        AndroidDeviceBridgeTool.removeForward(iDevice, scrcpyPort, "scrcpy");
-        if (session != null) {
-            ScreenMap.getMap().remove(session);
+
+        @Override
+        public void onClosed() {
+            closed();
         }
     }
 }
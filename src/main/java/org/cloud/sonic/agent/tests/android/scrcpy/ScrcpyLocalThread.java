@@ -20,12 +20,12 @@ import com.alibaba.fastjson.JSONObject;
 import com.android.ddmlib.IDevice;
 import com.android.ddmlib.IShellOutputReceiver;
 import org.cloud.sonic.agent.tests.android.AndroidTestTaskBootThread;
+import org.cloud.sonic.agent.tools.Lifecycle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.websocket.Session;
 import java.io.File;
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -34,7 +34,7 @@ import static org.cloud.sonic.agent.tools.BytesTool.sendText;
 /**
  * 启动scrcpy等服务的线程
  */
-public class ScrcpyLocalThread extends Thread {
+public class ScrcpyLocalThread extends Thread implements Lifecycle.Aware {
 
     private final Logger log = LoggerFactory.getLogger(ScrcpyLocalThread.class);
 
@@ -50,12 +50,23 @@ public class ScrcpyLocalThread extends Thread {
 
     private AndroidTestTaskBootThread androidTestTaskBootThread;
 
-    private Semaphore isFinish = new Semaphore(0);
+    private ScrcpyProfile profile;
+
+    /**
+     * 输出设备信息后就绪，scrcpy进程退出后结束
+     */
+    private final Lifecycle lifecycle = new Lifecycle();
 
     public ScrcpyLocalThread(IDevice iDevice, int finalC, Session session, AndroidTestTaskBootThread androidTestTaskBootThread) {
+        this(iDevice, finalC, session, androidTestTaskBootThread, ScrcpyProfile.HIGH);
+    }
+
+    public ScrcpyLocalThread(IDevice iDevice, int finalC, Session session, AndroidTestTaskBootThread androidTestTaskBootThread,
+                             ScrcpyProfile profile) {
         this.iDevice = iDevice;
         this.finalC = finalC;
         this.session = session;
+        this.profile = profile;
         this.udId = iDevice.getSerialNumber();
         this.androidTestTaskBootThread = androidTestTaskBootThread;
 
@@ -83,12 +94,18 @@ public class ScrcpyLocalThread extends Thread {
         return androidTestTaskBootThread;
     }
 
-    public Semaphore getIsFinish() {
-        return isFinish;
+    public ScrcpyProfile getProfile() {
+        return profile;
+    }
+
+    @Override
+    public Lifecycle getLifecycle() {
+        return lifecycle;
     }
 
     @Override
     public void run() {
+        lifecycle.markStarted();
         File scrcpyServerFile = new File("plugins/sonic-android-scrcpy.jar");
         try {
             iDevice.pushFile(scrcpyServerFile.getAbsolutePath(), "/data/local/tmp/sonic-android-scrcpy.jar");
@@ -97,14 +114,15 @@ public class ScrcpyLocalThread extends Thread {
         }
         AtomicBoolean isRetry = new AtomicBoolean(false);
         try {
-            iDevice.executeShellCommand("CLASSPATH=/data/local/tmp/sonic-android-scrcpy.jar app_process / com.genymobile.scrcpy.Server 1.23 log_level=info max_size=0 max_fps=60 tunnel_forward=true send_frame_meta=false control=false show_touches=false stay_awake=false power_off_on_close=false clipboard_autosync=false",
+            iDevice.executeShellCommand(String.format("CLASSPATH=/data/local/tmp/sonic-android-scrcpy.jar app_process / com.genymobile.scrcpy.Server 1.23 log_level=info bit_rate=%d max_size=%d max_fps=%d tunnel_forward=true send_frame_meta=false control=false show_touches=false stay_awake=false power_off_on_close=false clipboard_autosync=false",
+                            profile.getBitRate(), profile.getMaxSize(), profile.getMaxFps()),
                     new IShellOutputReceiver() {
                         @Override
                         public void addOutput(byte[] bytes, int i, int i1) {
                             String res = new String(bytes, i, i1);
                             log.info(res);
                             if (res.contains("Device")) {
-                                isFinish.release();
+                                lifecycle.markReady();
                                 isRetry.set(true);
                             }else if(!isRetry.get()){
                                 log.info("scrcpy服务启动失败！");
@@ -119,12 +137,15 @@ public class ScrcpyLocalThread extends Thread {
                         }
                         @Override
                         public boolean isCancelled() {
-                            return false;
+                            // 切换档位时中断本线程，结束设备端进程
+                            return isInterrupted();
                         }
                     }, 0, TimeUnit.MILLISECONDS);
         } catch (Exception e) {
             log.info("{} scrcpy service stopped.", iDevice.getSerialNumber());
             log.error(e.getMessage());
+        } finally {
+            lifecycle.markTerminated();
         }
     }
 
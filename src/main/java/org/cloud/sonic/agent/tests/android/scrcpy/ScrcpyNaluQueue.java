@@ -0,0 +1,293 @@
+/*
+ *  Copyright (C) [SonicCloudOrg] Sonic Project
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.cloud.sonic.agent.tests.android.scrcpy;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * scrcpy H.264 NAL单元的有界发送队列
+ * <p>
+ * 前端消费跟不上时（数量或字节数超过上限），丢弃队列中所有非关键帧，并在下一个IDR到来之前
+ * 继续丢弃后续的非IDR帧，保证解码器不会拿到缺少参考帧的数据；SPS/PPS永远不丢。
+ * <p>
+ * 一个IDR画面可能由多个slice组成，只有first_mb_in_slice为0的slice才算新的关键帧开始，
+ * 丢弃时同一画面的slice整体丢弃；开始等待关键帧时通过 {@link #setKeyFrameRequest} 通知采集端尽快产生关键帧，
+ * 不用等编码器默认的关键帧间隔。
+ */
+public class ScrcpyNaluQueue {
+
+    public static final int NALU_TYPE_IDR = 5;
+    public static final int NALU_TYPE_SPS = 7;
+    public static final int NALU_TYPE_PPS = 8;
+
+    public static final int DEFAULT_MAX_COUNT = 120;
+    public static final long DEFAULT_MAX_BYTES = 8L * 1024 * 1024;
+
+    private final int maxCount;
+
+    private final long maxBytes;
+
+    private final ArrayDeque<byte[]> queue = new ArrayDeque<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notEmpty = lock.newCondition();
+
+    private long queuedBytes = 0;
+
+    /**
+     * 丢帧后等待下一个关键帧
+     */
+    private boolean waitingKeyFrame = false;
+
+    /**
+     * 有其它事情需要消费线程处理，poll提前返回
+     */
+    private boolean wakeUp = false;
+
+    /**
+     * 开始等待关键帧时调用，在offer线程中执行，不能阻塞
+     */
+    private volatile Runnable keyFrameRequest;
+
+    private int maxDepth = 0;
+
+    private long droppedCount = 0;
+
+    private long droppedBytes = 0;
+
+    private long deliveredCount = 0;
+
+    public ScrcpyNaluQueue() {
+        this(DEFAULT_MAX_COUNT, DEFAULT_MAX_BYTES);
+    }
+
+    public ScrcpyNaluQueue(int maxCount, long maxBytes) {
+        this.maxCount = maxCount;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 获取NAL单元类型，不是以Annex-B起始码开头的数据（如scrcpy的设备信息头）返回-1
+     */
+    public static int naluType(byte[] nalu) {
+        if (nalu.length > 4 && nalu[0] == 0 && nalu[1] == 0) {
+            if (nalu[2] == 1) {
+                return nalu[3] & 0x1f;
+            }
+            if (nalu[2] == 0 && nalu[3] == 1) {
+                return nalu[4] & 0x1f;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isParameterSet(int type) {
+        return type == NALU_TYPE_SPS || type == NALU_TYPE_PPS || type == -1;
+    }
+
+    /**
+     * 是否为一个IDR画面的第一个slice，slice header以ue(v)编码的first_mb_in_slice开头，为0时第一位是1
+     */
+    static boolean isKeyFrameStart(byte[] nalu) {
+        if (naluType(nalu) != NALU_TYPE_IDR) {
+            return false;
+        }
+        int header = nalu[2] == 1 ? 3 : 4;
+        return nalu.length > header + 1 && (nalu[header + 1] & 0x80) != 0;
+    }
+
+    public void setKeyFrameRequest(Runnable keyFrameRequest) {
+        this.keyFrameRequest = keyFrameRequest;
+    }
+
+    public void offer(byte[] nalu) {
+        int type = naluType(nalu);
+        boolean startWaiting = false;
+        lock.lock();
+        try {
+            if (!isParameterSet(type)) {
+                boolean keyFrameStart = isKeyFrameStart(nalu);
+                if (keyFrameStart) {
+                    waitingKeyFrame = false;
+                }
+                if (waitingKeyFrame) {
+                    drop(nalu);
+                    return;
+                }
+                if (queue.size() >= maxCount || queuedBytes + nalu.length > maxBytes) {
+                    shed();
+                    // IDR后续的slice和前面已清掉的slice一起丢弃
+                    if (!keyFrameStart) {
+                        waitingKeyFrame = true;
+                        startWaiting = true;
+                        drop(nalu);
+                        return;
+                    }
+                }
+            }
+            queue.offer(nalu);
+            queuedBytes += nalu.length;
+            maxDepth = Math.max(maxDepth, queue.size());
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+            Runnable request = keyFrameRequest;
+            if (startWaiting && request != null) {
+                request.run();
+            }
+        }
+    }
+
+    public byte[] take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (queue.isEmpty()) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public byte[] poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (queue.isEmpty()) {
+                if (nanos <= 0 || wakeUp) {
+                    wakeUp = false;
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 唤醒正在poll等待的消费线程，队列为空时poll返回null
+     */
+    public void wakeUp() {
+        lock.lock();
+        try {
+            wakeUp = true;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private byte[] dequeue() {
+        byte[] nalu = queue.poll();
+        queuedBytes -= nalu.length;
+        deliveredCount++;
+        return nalu;
+    }
+
+    /**
+     * 清掉已排队的图像数据，只保留SPS/PPS
+     */
+    private void shed() {
+        Iterator<byte[]> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            byte[] queued = iterator.next();
+            if (!isParameterSet(naluType(queued))) {
+                iterator.remove();
+                queuedBytes -= queued.length;
+                drop(queued);
+            }
+        }
+    }
+
+    private void drop(byte[] nalu) {
+        droppedCount++;
+        droppedBytes += nalu.length;
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getQueuedBytes() {
+        lock.lock();
+        try {
+            return queuedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxDepth() {
+        lock.lock();
+        try {
+            return maxDepth;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDroppedCount() {
+        lock.lock();
+        try {
+            return droppedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDroppedBytes() {
+        lock.lock();
+        try {
+            return droppedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDeliveredCount() {
+        lock.lock();
+        try {
+            return deliveredCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return String.format("depth=%d, maxDepth=%d, queuedBytes=%d, delivered=%d, dropped=%d, droppedBytes=%d",
+                    queue.size(), maxDepth, queuedBytes, deliveredCount, droppedCount, droppedBytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -16,55 +16,176 @@
  */
 package org.cloud.sonic.agent.tests.android.scrcpy;
 
+import org.cloud.sonic.agent.common.maps.ScreenMap;
 import org.cloud.sonic.agent.tests.android.AndroidTestTaskBootThread;
+import org.cloud.sonic.agent.tools.Lifecycle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.websocket.Session;
-import java.util.Queue;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 
 import static org.cloud.sonic.agent.tools.BytesTool.sendByte;
+import static org.cloud.sonic.agent.tools.BytesTool.sendText;
 
 /**
  * 视频流输出线程
+ * 作为采集中心的一个订阅者，每个WebSocket会话一个
  */
-public class ScrcpyOutputSocketThread extends Thread {
+public class ScrcpyOutputSocketThread extends Thread implements ScrcpyCaptureHub.NaluSubscriber, Lifecycle.Aware {
 
     private final Logger log = LoggerFactory.getLogger(ScrcpyOutputSocketThread.class);
 
     public final static String ANDROID_OUTPUT_SOCKET_PRE = "android-scrcpy-output-socket-task-%s-%s-%s";
 
-    private ScrcpyInputSocketThread scrcpyInputSocketThread;
+    private final ScrcpyNaluQueue dataQueue = new ScrcpyNaluQueue();
 
-    private Session session;
+    /**
+     * 采集中心发来的文本消息，由本线程发送，不阻塞采集线程
+     */
+    private final ConcurrentLinkedQueue<String> pendingTexts = new ConcurrentLinkedQueue<>();
+
+    private final ScrcpyAdaptiveController adaptiveController = new ScrcpyAdaptiveController();
 
-    private String udId;
+    private ScrcpyCaptureHub captureHub;
+
+    private Session session;
 
     private AndroidTestTaskBootThread androidTestTaskBootThread;
 
+    /**
+     * 从ScreenMap移除后结束
+     */
+    private final Lifecycle lifecycle = new Lifecycle();
+
+    private volatile boolean finished = false;
+
     public ScrcpyOutputSocketThread(
-            ScrcpyInputSocketThread scrcpyInputSocketThread,
+            AndroidTestTaskBootThread androidTestTaskBootThread,
             Session session
     ) {
-        this.scrcpyInputSocketThread = scrcpyInputSocketThread;
         this.session = session;
-        this.androidTestTaskBootThread = scrcpyInputSocketThread.getAndroidTestTaskBootThread();
+        this.androidTestTaskBootThread = androidTestTaskBootThread;
         this.setDaemon(true);
         this.setName(androidTestTaskBootThread.formatThreadName(ANDROID_OUTPUT_SOCKET_PRE));
     }
 
+    public ScrcpyNaluQueue getDataQueue() {
+        return dataQueue;
+    }
+
+    public void setCaptureHub(ScrcpyCaptureHub captureHub) {
+        this.captureHub = captureHub;
+        // 丢帧后请求关键帧，不用等编码器默认的关键帧间隔
+        dataQueue.setKeyFrameRequest(captureHub == null ? null : captureHub::requestKeyFrame);
+    }
+
+    public ScrcpyAdaptiveController getAdaptiveController() {
+        return adaptiveController;
+    }
+
+    /**
+     * 前端指定档位
+     *
+     * @param detail 档位名称，auto为恢复自适应
+     */
+    public void pinProfile(String detail) {
+        if ("auto".equals(detail)) {
+            adaptiveController.unpin(System.currentTimeMillis());
+            if (captureHub != null) {
+                captureHub.requestProfile(this, adaptiveController.getDesired(), false);
+            }
+            return;
+        }
+        ScrcpyProfile profile = ScrcpyProfile.of(detail);
+        if (profile == null) {
+            log.info("{} unknown scrcpy profile {}", getName(), detail);
+            return;
+        }
+        adaptiveController.pin(profile);
+        if (captureHub != null) {
+            captureHub.requestProfile(this, profile, true);
+        }
+    }
+
+    @Override
+    public void onNalu(byte[] nalu) {
+        dataQueue.offer(nalu);
+    }
+
+    @Override
+    public void onText(String text) {
+        pendingTexts.offer(text);
+        dataQueue.wakeUp();
+    }
+
+    @Override
+    public void onCaptureFinished() {
+        finished = true;
+        interrupt();
+    }
+
+    /**
+     * 队列统计输出间隔，毫秒
+     */
+    private static final long STATS_INTERVAL = 30000;
+
+    @Override
+    public Lifecycle getLifecycle() {
+        return lifecycle;
+    }
+
     @Override
     public void run() {
-        while (scrcpyInputSocketThread.isAlive()) {
-            BlockingQueue<byte[]> dataQueue = scrcpyInputSocketThread.getDataQueue();
-            byte[] buffer = new byte[0];
-            try {
-                buffer = dataQueue.take();
-            } catch (InterruptedException e) {
-                log.debug("scrcpy was interrupted：", e);
+        lifecycle.markStarted();
+        long lastStats = System.currentTimeMillis();
+        long lastDropped = 0;
+        try {
+            while (!finished && !isInterrupted()) {
+                byte[] buffer;
+                try {
+                    buffer = dataQueue.poll(1, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    log.debug("scrcpy was interrupted：", e);
+                    break;
+                }
+                String text;
+                while ((text = pendingTexts.poll()) != null) {
+                    sendText(session, text);
+                }
+                long now;
+                if (buffer != null) {
+                    long sendStart = System.nanoTime();
+                    sendByte(session, buffer);
+                    long sendNanos = System.nanoTime() - sendStart;
+                    now = System.currentTimeMillis();
+                    ScrcpyProfile next = adaptiveController.onSend(sendNanos, dataQueue.size(), dataQueue.getDroppedCount(), now);
+                    if (next != null && captureHub != null) {
+                        log.info("{} scrcpy link changed, request profile {}, {}", getName(), next.getDetail(), dataQueue);
+                        captureHub.requestProfile(this, next, false);
+                    }
+                } else {
+                    now = System.currentTimeMillis();
+                }
+                if (now - lastStats >= STATS_INTERVAL) {
+                    long dropped = dataQueue.getDroppedCount();
+                    if (dropped != lastDropped) {
+                        log.info("{} scrcpy queue lagging, {}", getName(), dataQueue);
+                        lastDropped = dropped;
+                    }
+                    lastStats = now;
+                }
+            }
+        } finally {
+            log.info("{} scrcpy queue finished, {}", getName(), dataQueue);
+            if (captureHub != null) {
+                captureHub.unsubscribe(this);
+            }
+            if (session != null) {
+                ScreenMap.getMap().remove(session, this);
             }
-            sendByte(session, buffer);
+            lifecycle.markTerminated();
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,87 @@
+/*
+ *  Copyright (C) [SonicCloudOrg] Sonic Project
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.cloud.sonic.agent.tests.android.scrcpy;
+
+/**
+ * scrcpy编码档位，按画质从高到低排列
+ */
+public enum ScrcpyProfile {
+    HIGH("high", 0, 8000000, 60),
+    MIDDLE("middle", 1280, 4000000, 30),
+    LOW("low", 960, 2000000, 30),
+    MINIMUM("minimum", 720, 1000000, 20);
+
+    private final String detail;
+
+    /**
+     * 长边最大像素，0表示原尺寸
+     */
+    private final int maxSize;
+
+    private final int bitRate;
+
+    private final int maxFps;
+
+    ScrcpyProfile(String detail, int maxSize, int bitRate, int maxFps) {
+        this.detail = detail;
+        this.maxSize = maxSize;
+        this.bitRate = bitRate;
+        this.maxFps = maxFps;
+    }
+
+    public String getDetail() {
+        return detail;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getBitRate() {
+        return bitRate;
+    }
+
+    public int getMaxFps() {
+        return maxFps;
+    }
+
+    /**
+     * 降一档，已是最低档时返回自身
+     */
+    public ScrcpyProfile lower() {
+        return this == MINIMUM ? this : values()[ordinal() + 1];
+    }
+
+    /**
+     * 升一档，已是最高档时返回自身
+     */
+    public ScrcpyProfile higher() {
+        return this == HIGH ? this : values()[ordinal() - 1];
+    }
+
+    /**
+     * @return 找不到时返回null
+     */
+    public static ScrcpyProfile of(String detail) {
+        for (ScrcpyProfile profile : values()) {
+            if (profile.detail.equals(detail)) {
+                return profile;
+            }
+        }
+        return null;
+    }
+}
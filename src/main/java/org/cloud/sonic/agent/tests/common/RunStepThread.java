@@ -17,12 +17,13 @@
 package org.cloud.sonic.agent.tests.common;
 
 import org.cloud.sonic.agent.tests.LogUtil;
+import org.cloud.sonic.agent.tools.Lifecycle;
 
 /**
  * @author JayWenStar
  * @date 2022/2/11 10:49 上午
  */
-public class RunStepThread extends Thread {
+public class RunStepThread extends Thread implements Lifecycle.Aware {
 
     protected volatile boolean stopped = false;
 
@@ -30,6 +31,16 @@ public class RunStepThread extends Thread {
 
     protected LogUtil logUtil;
 
+    /**
+     * 子类应在run方法结束时标记terminated
+     */
+    protected final Lifecycle lifecycle = new Lifecycle();
+
+    @Override
+    public Lifecycle getLifecycle() {
+        return lifecycle;
+    }
+
     public int getPlatformType() {
         return platformType;
     }
@@ -1,10 +1,11 @@
 package org.cloud.sonic.agent.tests.ios;
 
 import org.cloud.sonic.agent.automation.IOSStepHandler;
+import org.cloud.sonic.agent.tools.Lifecycle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class IOSRecordThread extends Thread {
+public class IOSRecordThread extends Thread implements Lifecycle.Aware {
 
     private final Logger log = LoggerFactory.getLogger(IOSRecordThread.class);
 
@@ -12,6 +13,8 @@ public class IOSRecordThread extends Thread {
 
     private final IOSTestTaskBootThread iosTestTaskBootThread;
 
+    private final Lifecycle lifecycle = new Lifecycle();
+
     public IOSRecordThread(IOSTestTaskBootThread iosTestTaskBootThread) {
         this.iosTestTaskBootThread = iosTestTaskBootThread;
 
@@ -23,8 +26,14 @@ public class IOSRecordThread extends Thread {
         return iosTestTaskBootThread;
     }
 
+    @Override
+    public Lifecycle getLifecycle() {
+        return lifecycle;
+    }
+
     @Override
     public void run() {
+        lifecycle.markStarted();
 //        IOSStepHandler iosStepHandler = iosTestTaskBootThread.getIosStepHandler();
 //        IOSRunStepThread runStepThread = iosTestTaskBootThread.getRunStepThread();
 //
@@ -59,5 +68,6 @@ public class IOSRecordThread extends Thread {
 //                iosStepHandler.getDriver().stopRecordingScreen();
 //            }
 //        }
+        lifecycle.markTerminated();
     }
 }
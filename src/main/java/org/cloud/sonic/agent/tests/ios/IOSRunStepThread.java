@@ -50,20 +50,24 @@ public class IOSRunStepThread extends RunStepThread {
 
     @Override
     public void run() {
-        StepHandlers stepHandlers = SpringTool.getBean(StepHandlers.class);
-        JSONObject jsonObject = iosTestTaskBootThread.getJsonObject();
-        List<JSONObject> steps = jsonObject.getJSONArray("steps").toJavaList(JSONObject.class);
+        lifecycle.markStarted();
+        try {
+            StepHandlers stepHandlers = SpringTool.getBean(StepHandlers.class);
+            JSONObject jsonObject = iosTestTaskBootThread.getJsonObject();
+            List<JSONObject> steps = jsonObject.getJSONArray("steps").toJavaList(JSONObject.class);
 
-        for (JSONObject step : steps) {
-            if (isStopped()) {
-                return;
-            }
-            try {
-                stepHandlers.runStep(step, new HandleDes(), this);
-            } catch (Throwable e) {
-                break;
+            for (JSONObject step : steps) {
+                if (isStopped()) {
+                    return;
+                }
+                try {
+                    stepHandlers.runStep(step, new HandleDes(), this);
+                } catch (Throwable e) {
+                    break;
+                }
             }
+        } finally {
+            lifecycle.markTerminated();
         }
-
     }
 }
\ No newline at end of file
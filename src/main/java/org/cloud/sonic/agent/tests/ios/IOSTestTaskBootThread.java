@@ -19,15 +19,20 @@ package org.cloud.sonic.agent.tests.ios;
 import com.alibaba.fastjson.JSONObject;
 import org.cloud.sonic.agent.automation.IOSStepHandler;
 import org.cloud.sonic.agent.bridge.ios.IOSDeviceLocalStatus;
-import org.cloud.sonic.agent.bridge.ios.SibTool;
+import org.cloud.sonic.agent.bridge.ios.WdaPool;
+import org.cloud.sonic.agent.common.interfaces.PlatformType;
 import org.cloud.sonic.agent.common.interfaces.ResultDetailStatus;
+import org.cloud.sonic.agent.tests.SuiteCase;
+import org.cloud.sonic.agent.tests.SuiteScheduler;
+import org.cloud.sonic.agent.tests.TaskKey;
 import org.cloud.sonic.agent.tests.TaskManager;
+import org.cloud.sonic.agent.tools.Lifecycle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.concurrent.Semaphore;
 
-public class IOSTestTaskBootThread extends Thread {
+public class IOSTestTaskBootThread extends Thread implements SuiteCase {
 
     private final Logger log = LoggerFactory.getLogger(IOSTestTaskBootThread.class);
 
@@ -85,6 +90,14 @@ public class IOSTestTaskBootThread extends Thread {
         return String.format(baseFormat, this.resultId, this.caseId, this.udId);
     }
 
+    /**
+     * 在 {@link TaskManager} 中登记使用的任务标识
+     */
+    @Override
+    public TaskKey getTaskKey() {
+        return new TaskKey(PlatformType.IOS, this.resultId, this.caseId, this.udId);
+    }
+
     /**
      * debug线程构造
      */
@@ -158,29 +171,32 @@ public class IOSTestTaskBootThread extends Thread {
     }
 
     @Override
-    public void run() {
+    public boolean occupyDevice() {
+        return IOSDeviceLocalStatus.startTest(udId);
+    }
 
-        boolean startTestSuccess = false;
+    @Override
+    public void onWaitDevice() {
+        iosStepHandler.waitDevice(1);
+    }
 
-        try {
-            int wait = 0;
-            while (!IOSDeviceLocalStatus.startTest(udId)) {
-                wait++;
-                iosStepHandler.waitDevice(wait);
-                if (wait >= 6 * 10) {
-                    iosStepHandler.waitDeviceTimeOut();
-                    iosStepHandler.sendStatus();
-                    return;
-                } else {
-                    Thread.sleep(10000);
-                }
-            }
+    @Override
+    public void onWaitDeviceTimeOut() {
+        iosStepHandler.waitDeviceTimeOut();
+        iosStepHandler.sendStatus();
+        finished.release();
+    }
+
+    @Override
+    public void run() {
 
-            startTestSuccess = true;
+        // 设备已由SuiteScheduler占用
+        try {
             //启动测试
             try {
-                int wdaPort = SibTool.startWda(udId)[0];
-                iosStepHandler.startIOSDriver(udId, wdaPort);
+                WdaPool.Lease wdaLease = WdaPool.lease(udId);
+                iosStepHandler.setWdaLease(wdaLease);
+                iosStepHandler.startIOSDriver(udId, wdaLease.getWdaPort());
             } catch (Exception e) {
                 log.error(e.getMessage());
                 iosStepHandler.closeIOSDriver();
@@ -203,25 +219,23 @@ public class IOSTestTaskBootThread extends Thread {
             perfDataThread = new IOSPerfDataThread(this);
             //录像线程
             recordThread = new IOSRecordThread(this);
-            TaskManager.startChildThread(this.getName(), runStepThread, perfDataThread, recordThread);
+            TaskManager.startChildThread(getTaskKey(), runStepThread, perfDataThread, recordThread);
 
 
             //等待两个线程结束了才结束方法
-            while ((recordThread.isAlive()) || (runStepThread.isAlive())) {
-                Thread.sleep(1000);
-            }
+            Lifecycle.awaitAllTerminated(recordThread.getLifecycle(), runStepThread.getLifecycle());
         } catch (InterruptedException e) {
             log.error("任务异常，中断：{}", e.getMessage());
             iosStepHandler.setResultDetailStatus(ResultDetailStatus.FAIL);
             forceStop = true;
         } finally {
-            if (startTestSuccess) {
-                IOSDeviceLocalStatus.finish(udId);
-                iosStepHandler.closeIOSDriver();
-            }
+            // 先归还WDA再释放设备，下一个用例可以直接复用
+            iosStepHandler.closeIOSDriver();
+            IOSDeviceLocalStatus.finish(udId);
             iosStepHandler.sendStatus();
             finished.release();
-            TaskManager.clearTerminatedThreadByKey(this.getName());
+            TaskManager.onBootThreadFinished(getTaskKey(), this);
+            SuiteScheduler.onCaseFinished(getTaskKey());
         }
     }
 }
@@ -0,0 +1,204 @@
+/*
+ *  Copyright (C) [SonicCloudOrg] Sonic Project
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.cloud.sonic.agent.tools;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 设备、会话相关阻塞任务的统一线程入口
+ * <p>
+ * sonic.agent.executor 为 platform（默认）时与原来一致，使用普通线程；为 virtual 且运行的JDK支持虚拟线程时，
+ * 线程池与零散线程都改为虚拟线程，每台设备的内存占用更少，会话集中启动时创建线程更快。
+ * 编译目标仍是旧版本JDK，因此虚拟线程通过反射创建，不支持时自动退回普通线程。
+ * <p>
+ * TaskManager管理的boot/child线程是Thread子类，不经过这里，线程名和登记方式保持不变。
+ */
+@Configuration
+public class AgentExecutors {
+
+    private static final Logger logger = LoggerFactory.getLogger(AgentExecutors.class);
+
+    public static final String MODE_PLATFORM = "platform";
+
+    public static final String MODE_VIRTUAL = "virtual";
+
+    @Value("${sonic.agent.executor:platform}")
+    private String executorMode;
+
+    private static volatile boolean virtual = false;
+
+    @Bean
+    public void agentExecutorsInit() {
+        setMode(executorMode);
+    }
+
+    /**
+     * @param mode platform或virtual，JDK不支持虚拟线程时始终为platform
+     */
+    public static void setMode(String mode) {
+        if (MODE_VIRTUAL.equals(mode)) {
+            virtual = VirtualThreads.SUPPORTED;
+            if (!virtual) {
+                logger.info("Virtual threads are not supported by JDK {}, use platform threads.",
+                        System.getProperty("java.version"));
+            }
+        } else {
+            virtual = false;
+        }
+        logger.info("Agent executor mode: {}", getMode());
+    }
+
+    public static String getMode() {
+        return virtual ? MODE_VIRTUAL : MODE_PLATFORM;
+    }
+
+    public static boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * 创建无上限的线程池，替代 Executors.newCachedThreadPool()
+     *
+     * @param name 线程名前缀
+     */
+    public static ExecutorService newExecutor(String name) {
+        if (virtual) {
+            ExecutorService executor = VirtualThreads.newExecutor(name);
+            if (executor != null) {
+                return executor;
+            }
+        }
+        return Executors.newCachedThreadPool(newThreadFactory(name));
+    }
+
+    /**
+     * 创建线程工厂，用于需要限制并发数的线程池，线程名为 name-序号
+     *
+     * @param name 线程名前缀
+     */
+    public static ThreadFactory newThreadFactory(String name) {
+        if (virtual) {
+            ThreadFactory factory = VirtualThreads.newThreadFactory(name);
+            if (factory != null) {
+                return factory;
+            }
+        }
+        AtomicInteger index = new AtomicInteger(0);
+        return r -> new Thread(r, name + "-" + index.incrementAndGet());
+    }
+
+    /**
+     * 创建未启动的线程，替代 new Thread(task)
+     */
+    public static Thread newThread(String name, Runnable task) {
+        if (virtual) {
+            Thread thread = VirtualThreads.newThread(name, task);
+            if (thread != null) {
+                return thread;
+            }
+        }
+        return new Thread(task, name);
+    }
+
+    public static Thread startThread(String name, Runnable task) {
+        Thread thread = newThread(name, task);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * 虚拟线程相关的反射调用，对应 Thread.ofVirtual() 与 Executors.newThreadPerTaskExecutor()
+     */
+    private static class VirtualThreads {
+
+        private static final boolean SUPPORTED;
+
+        private static Method ofVirtual;
+
+        private static Method builderName;
+
+        private static Method builderNameCounter;
+
+        private static Method builderFactory;
+
+        private static Method builderUnstarted;
+
+        private static Method newThreadPerTaskExecutor;
+
+        static {
+            boolean supported;
+            try {
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                ofVirtual = Thread.class.getMethod("ofVirtual");
+                builderName = builderClass.getMethod("name", String.class);
+                builderNameCounter = builderClass.getMethod("name", String.class, long.class);
+                builderFactory = builderClass.getMethod("factory");
+                builderUnstarted = builderClass.getMethod("unstarted", Runnable.class);
+                newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+                // 预览版JDK中方法存在但未开启预览时会抛出异常
+                ofVirtual.invoke(null);
+                supported = true;
+            } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+                supported = false;
+            }
+            SUPPORTED = supported;
+        }
+
+        static ThreadFactory newThreadFactory(String name) {
+            try {
+                Object builder = builderNameCounter.invoke(ofVirtual.invoke(null), name + "-", 1L);
+                return (ThreadFactory) builderFactory.invoke(builder);
+            } catch (ReflectiveOperationException e) {
+                logger.error("create virtual thread factory failed：", e);
+                return null;
+            }
+        }
+
+        static ExecutorService newExecutor(String name) {
+            ThreadFactory factory = newThreadFactory(name);
+            if (factory == null) {
+                return null;
+            }
+            try {
+                return (ExecutorService) newThreadPerTaskExecutor.invoke(null, factory);
+            } catch (ReflectiveOperationException e) {
+                logger.error("create virtual thread executor failed：", e);
+                return null;
+            }
+        }
+
+        static Thread newThread(String name, Runnable task) {
+            try {
+                Object builder = builderName.invoke(ofVirtual.invoke(null), name);
+                return (Thread) builderUnstarted.invoke(builder, task);
+            } catch (ReflectiveOperationException e) {
+                logger.error("create virtual thread failed：", e);
+                return null;
+            }
+        }
+    }
+}
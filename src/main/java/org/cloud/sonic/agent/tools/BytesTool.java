@@ -69,6 +69,7 @@ public class BytesTool {
             return;
         }
         synchronized (session) {
+            WebSocketLogChannel.awaitIdle(session);
             try {
                 session.getBasicRemote().sendBinary(ByteBuffer.wrap(message));
             } catch (IllegalStateException | IOException e) {
@@ -82,6 +83,7 @@ public class BytesTool {
             return;
         }
         synchronized (session) {
+            WebSocketLogChannel.awaitIdle(session);
             try {
                 session.getBasicRemote().sendBinary(message);
             } catch (IllegalStateException | IOException e) {
@@ -95,6 +97,7 @@ public class BytesTool {
             return;
         }
         synchronized (session) {
+            WebSocketLogChannel.awaitIdle(session);
             try {
                 session.getBasicRemote().sendText(message);
             } catch (IllegalStateException | IOException e) {
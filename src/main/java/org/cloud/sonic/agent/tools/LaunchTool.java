@@ -53,7 +53,7 @@ public class LaunchTool implements ApplicationRunner {
         if (isEnableSgm) {
             // fixme 本地调试环境忽略
             SGMTool.init();
-            new Thread(() -> {
+            AgentExecutors.startThread("sgm-init", () -> {
                 File file = new File("plugins/sonic-go-mitmproxy-ca-cert.pem");
                 if (!file.exists()) {
                     logger.info("Generating ca file...");
@@ -72,7 +72,7 @@ public class LaunchTool implements ApplicationRunner {
                         logger.info("init sonic-go-mitmproxy-ca Successful!");
                     }
                 }
-            }).start();
+            });
         }
     }
 
@@ -0,0 +1,132 @@
+/*
+ *  Copyright (C) [SonicCloudOrg] Sonic Project
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.cloud.sonic.agent.tools;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 线程、设备端服务等组件的生命周期信号
+ * <p>
+ * started：已开始运行；ready：已可用（例如服务端输出了启动成功）；terminated：已结束。
+ * 等待方通过 {@link CompletableFuture} 在状态变化时立即被唤醒，不需要sleep轮询。
+ * 组件在就绪前结束时，ready以失败完成，等待就绪的一方也会立即返回
+ */
+public class Lifecycle {
+
+    /**
+     * 持有生命周期的组件
+     */
+    public interface Aware {
+        Lifecycle getLifecycle();
+    }
+
+    private final CompletableFuture<Void> started = new CompletableFuture<>();
+
+    private final CompletableFuture<Void> ready = new CompletableFuture<>();
+
+    private final CompletableFuture<Void> terminated = new CompletableFuture<>();
+
+    public CompletableFuture<Void> started() {
+        return started;
+    }
+
+    public CompletableFuture<Void> ready() {
+        return ready;
+    }
+
+    public CompletableFuture<Void> terminated() {
+        return terminated;
+    }
+
+    public void markStarted() {
+        started.complete(null);
+    }
+
+    public void markReady() {
+        started.complete(null);
+        ready.complete(null);
+    }
+
+    /**
+     * 标记结束，应在线程run方法的finally中调用
+     */
+    public void markTerminated() {
+        started.complete(null);
+        ready.completeExceptionally(new IllegalStateException("terminated before ready"));
+        terminated.complete(null);
+    }
+
+    public boolean isReady() {
+        return ready.isDone() && !ready.isCompletedExceptionally();
+    }
+
+    public boolean isTerminated() {
+        return terminated.isDone();
+    }
+
+    /**
+     * 等待就绪
+     *
+     * @return 就绪返回true，超时或就绪前已结束返回false
+     */
+    public boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+        return await(ready, timeout, unit);
+    }
+
+    /**
+     * 等待结束，没有超时，可被中断
+     */
+    public void awaitTerminated() throws InterruptedException {
+        awaitAllTerminated(this);
+    }
+
+    /**
+     * 等待结束
+     *
+     * @return 超时返回false
+     */
+    public boolean awaitTerminated(long timeout, TimeUnit unit) throws InterruptedException {
+        return await(terminated, timeout, unit);
+    }
+
+    /**
+     * 等待所有组件都结束，没有超时，可被中断
+     */
+    public static void awaitAllTerminated(Lifecycle... lifecycles) throws InterruptedException {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[lifecycles.length];
+        for (int i = 0; i < lifecycles.length; i++) {
+            futures[i] = lifecycles[i].terminated;
+        }
+        try {
+            CompletableFuture.allOf(futures).get();
+        } catch (ExecutionException e) {
+            // terminated只会正常完成
+        }
+    }
+
+    private static boolean await(CompletableFuture<Void> future, long timeout, TimeUnit unit) throws InterruptedException {
+        try {
+            future.get(timeout, unit);
+            return true;
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
+        }
+    }
+}
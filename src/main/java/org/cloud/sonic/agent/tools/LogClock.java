@@ -0,0 +1,81 @@
+/*
+ *  Copyright (C) [SonicCloudOrg] Sonic Project
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.cloud.sonic.agent.tools;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * 日志时间戳服务
+ * <p>
+ * 发往server的消息使用毫秒时间戳，取时间时才读系统时钟，没有后台线程，空闲时不产生任何唤醒；
+ * 调试时展示给前端的 HH:mm:ss 使用缓存的 {@link DateTimeFormatter}，
+ * 取时间时与缓存的秒数比较，同一秒内的格式化结果直接复用，不再每条日志创建SimpleDateFormat与Date
+ */
+public class LogClock {
+
+    private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("HH:mm:ss")
+            .withZone(ZoneId.systemDefault());
+
+    private static volatile FormattedSecond lastSecond = new FormattedSecond(-1, "");
+
+    private LogClock() {
+    }
+
+    /**
+     * 当前时间的毫秒时间戳
+     */
+    public static long now() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * 当前时间，格式为 HH:mm:ss
+     */
+    public static String formatTime() {
+        return formatTime(System.currentTimeMillis());
+    }
+
+    /**
+     * @param millis 毫秒时间戳
+     * @return HH:mm:ss
+     */
+    public static String formatTime(long millis) {
+        long second = Math.floorDiv(millis, 1000L);
+        FormattedSecond cached = lastSecond;
+        if (cached.second == second) {
+            return cached.text;
+        }
+        String text = TIME_FORMATTER.format(Instant.ofEpochSecond(second));
+        lastSecond = new FormattedSecond(second, text);
+        return text;
+    }
+
+    /**
+     * 秒数与格式化结果放在同一个不可变对象里，并发读取时不会拿到不匹配的组合
+     */
+    private static class FormattedSecond {
+        private final long second;
+        private final String text;
+
+        FormattedSecond(long second, String text) {
+            this.second = second;
+            this.text = text;
+        }
+    }
+}
@@ -37,4 +37,10 @@ public class ScheduleTool {
         scheduledExecutorService.scheduleAtFixedRate(command, initialDelay, period, unit);
     }
 
+    public static void schedule(Runnable command,
+                                long delay,
+                                TimeUnit unit) {
+        scheduledExecutorService.schedule(command, delay, unit);
+    }
+
 }
@@ -0,0 +1,197 @@
+/*
+ *  Copyright (C) [SonicCloudOrg] Sonic Project
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.cloud.sonic.agent.tools;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.websocket.Session;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 调试WebSocket的异步日志通道，每个session一个
+ * <p>
+ * 步骤日志先放入队列，调用方不等待网络；每隔 {@link #FLUSH_INTERVAL} 毫秒或积累 {@link #MAX_ENTRIES} 条时
+ * 通过getAsyncRemote发送一次，多条时合并为JSON数组，只有一条时仍发送单个对象。
+ * 同一时间只有一个异步发送，完成后再发送下一批；{@link BytesTool} 的同步发送会先等待异步发送完成，
+ * 避免同一个session上同时写入。
+ * <p>
+ * flush要等待session上的同步发送，因此使用单独的线程，不占用 {@link ScheduleTool} 的公共线程
+ */
+public class WebSocketLogChannel {
+
+    private static final Logger logger = LoggerFactory.getLogger(WebSocketLogChannel.class);
+
+    /**
+     * 两次发送的最长间隔，毫秒
+     */
+    public static final long FLUSH_INTERVAL = 100;
+
+    /**
+     * 单次发送最多包含的日志条数，积累到该数量时立即发送
+     */
+    public static final int MAX_ENTRIES = 50;
+
+    /**
+     * 等待异步发送完成的最长时间，毫秒
+     */
+    private static final long SEND_TIMEOUT = 5000;
+
+    private static final ScheduledExecutorService flusher =
+            Executors.newSingleThreadScheduledExecutor(AgentExecutors.newThreadFactory("websocket-log-flush"));
+
+    /**
+     * key: sessionId
+     */
+    private static final Map<String, WebSocketLogChannel> channels = new ConcurrentHashMap<>();
+
+    private final Session session;
+
+    private final ConcurrentLinkedQueue<String> pending = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    /**
+     * 是否有异步发送未完成，由this保护
+     */
+    private boolean inFlight = false;
+
+    private WebSocketLogChannel(Session session) {
+        this.session = session;
+    }
+
+    /**
+     * 放入发送队列，立即返回
+     */
+    public static void send(Session session, String text) {
+        if (session == null) {
+            return;
+        }
+        if (!session.isOpen()) {
+            channels.remove(session.getId());
+            return;
+        }
+        channels.computeIfAbsent(session.getId(), id -> new WebSocketLogChannel(session)).offer(text);
+    }
+
+    /**
+     * 等待该session上的异步发送完成，同步发送前调用
+     */
+    public static void awaitIdle(Session session) {
+        WebSocketLogChannel channel = channels.get(session.getId());
+        if (channel != null) {
+            channel.awaitIdle();
+        }
+    }
+
+    /**
+     * session关闭时移除，未发送的日志丢弃
+     */
+    public static void remove(String sessionId) {
+        channels.remove(sessionId);
+    }
+
+    private void offer(String text) {
+        pending.offer(text);
+        if (size.incrementAndGet() % MAX_ENTRIES == 0) {
+            scheduled.set(true);
+            flusher.schedule(this::flush, 0, TimeUnit.MILLISECONDS);
+        } else if (scheduled.compareAndSet(false, true)) {
+            flusher.schedule(this::flush, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        scheduled.set(false);
+        if (!session.isOpen()) {
+            channels.remove(session.getId(), this);
+            return;
+        }
+        synchronized (session) {
+            synchronized (this) {
+                if (inFlight) {
+                    // 当前发送完成后会再次flush
+                    return;
+                }
+                String first = pending.poll();
+                if (first == null) {
+                    return;
+                }
+                int count = 1;
+                String payload;
+                String next = pending.peek();
+                if (next == null) {
+                    payload = first;
+                } else {
+                    StringBuilder builder = new StringBuilder(first.length() * MAX_ENTRIES / 4 + 16);
+                    builder.append('[').append(first);
+                    while (count < MAX_ENTRIES && (next = pending.poll()) != null) {
+                        builder.append(',').append(next);
+                        count++;
+                    }
+                    payload = builder.append(']').toString();
+                }
+                size.addAndGet(-count);
+                inFlight = true;
+                try {
+                    session.getAsyncRemote().sendText(payload, result -> onSent(result.isOK() ? null : result.getException()));
+                } catch (IllegalStateException e) {
+                    onSent(e);
+                }
+            }
+        }
+    }
+
+    private void onSent(Throwable error) {
+        synchronized (this) {
+            inFlight = false;
+            notifyAll();
+        }
+        if (error != null) {
+            logger.error("WebSocket send log error: {}", error.getMessage());
+            if (!session.isOpen()) {
+                channels.remove(session.getId(), this);
+                return;
+            }
+        }
+        if (size.get() > 0 && scheduled.compareAndSet(false, true)) {
+            flusher.schedule(this::flush, 0, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void awaitIdle() {
+        long deadline = System.currentTimeMillis() + SEND_TIMEOUT;
+        long remaining;
+        while (inFlight && (remaining = deadline - System.currentTimeMillis()) > 0) {
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ *  Copyright (C) [SonicCloudOrg] Sonic Project
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.cloud.sonic.agent.tools;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.websocket.Session;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * WebSocket的有界发送队列，每个session一个
+ * <p>
+ * 供不能阻塞的线程（{@link org.cloud.sonic.agent.tools.nio.DeviceSocketReactor} 的IO线程等）使用：
+ * 调用方只把数据放入队列，由独立线程池通过 {@link BytesTool} 逐条发送，同一个session同一时间只有一个发送任务；
+ * 浏览器接收太慢导致队列满时丢弃最早的数据，不影响其它session
+ */
+public class WebSocketOutbox {
+
+    private static final Logger logger = LoggerFactory.getLogger(WebSocketOutbox.class);
+
+    /**
+     * 每个session最多排队的消息数
+     */
+    public static final int CAPACITY = 256;
+
+    private static final ExecutorService senders = AgentExecutors.newExecutor("websocket-outbox");
+
+    /**
+     * key: sessionId
+     */
+    private static final Map<String, WebSocketOutbox> outboxes = new ConcurrentHashMap<>();
+
+    private final Session session;
+
+    private final ArrayBlockingQueue<Object> queue = new ArrayBlockingQueue<>(CAPACITY);
+
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+
+    private final AtomicLong dropped = new AtomicLong(0);
+
+    private WebSocketOutbox(Session session) {
+        this.session = session;
+    }
+
+    /**
+     * 放入发送队列，立即返回
+     */
+    public static void sendByte(Session session, ByteBuffer message) {
+        offer(session, message);
+    }
+
+    /**
+     * 放入发送队列，立即返回
+     */
+    public static void sendText(Session session, String message) {
+        offer(session, message);
+    }
+
+    /**
+     * session关闭时移除，未发送的数据丢弃
+     */
+    public static void remove(Session session) {
+        outboxes.remove(session.getId());
+    }
+
+    private static void offer(Session session, Object message) {
+        if (session == null) {
+            return;
+        }
+        if (!session.isOpen()) {
+            outboxes.remove(session.getId());
+            return;
+        }
+        outboxes.computeIfAbsent(session.getId(), id -> new WebSocketOutbox(session)).enqueue(message);
+    }
+
+    private void enqueue(Object message) {
+        while (!queue.offer(message)) {
+            if (queue.poll() == null) {
+                continue;
+            }
+            long count = dropped.incrementAndGet();
+            if (count == 1 || count % CAPACITY == 0) {
+                logger.info("session {} is too slow, {} message(s) dropped.", session.getId(), count);
+            }
+        }
+        if (draining.compareAndSet(false, true)) {
+            senders.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Object message;
+            while ((message = queue.poll()) != null) {
+                if (!session.isOpen()) {
+                    queue.clear();
+                    outboxes.remove(session.getId(), this);
+                    break;
+                }
+                if (message instanceof ByteBuffer) {
+                    BytesTool.sendByte(session, (ByteBuffer) message);
+                } else {
+                    BytesTool.sendText(session, (String) message);
+                }
+            }
+            draining.set(false);
+            // 释放标记后再检查一次，避免刚放入的数据没人发送
+            if (queue.isEmpty() || !draining.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+}
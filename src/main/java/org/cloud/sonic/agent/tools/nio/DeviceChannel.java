@@ -0,0 +1,143 @@
+/*
+ *  Copyright (C) [SonicCloudOrg] Sonic Project
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.cloud.sonic.agent.tools.nio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 注册在 {@link DeviceSocketReactor} 上的一个设备连接
+ */
+public class DeviceChannel {
+
+    private static final Logger log = LoggerFactory.getLogger(DeviceChannel.class);
+
+    /**
+     * 写缓冲区满时的最长等待时间，毫秒
+     */
+    private static final long WRITE_TIMEOUT = 5000;
+
+    private final DeviceSocketReactor reactor;
+
+    private final String name;
+
+    private final SocketChannel channel;
+
+    private final DeviceSocketHandler handler;
+
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    private volatile SelectionKey key;
+
+    DeviceChannel(DeviceSocketReactor reactor, String name, SocketChannel channel, DeviceSocketHandler handler) {
+        this.reactor = reactor;
+        this.name = name;
+        this.channel = channel;
+        this.handler = handler;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isOpen() {
+        return !closed.get();
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    /**
+     * 在IO线程中执行，处理完重新关注可读事件
+     */
+    void handleReadable() {
+        boolean open;
+        try {
+            open = !closed.get() && handler.onReadable(channel);
+        } catch (IOException | RuntimeException e) {
+            log.info("{} read failed: {}", name, e.getMessage());
+            open = false;
+        }
+        if (!open) {
+            close();
+            return;
+        }
+        reactor.runOnSelector(() -> {
+            SelectionKey selectionKey = key;
+            if (selectionKey != null && selectionKey.isValid()) {
+                selectionKey.interestOps(SelectionKey.OP_READ);
+            }
+        });
+    }
+
+    /**
+     * 写出全部数据，设备端命令都很短，一般一次写完；缓冲区满时短暂等待
+     */
+    public synchronized void write(ByteBuffer data) throws IOException {
+        long deadline = System.currentTimeMillis() + WRITE_TIMEOUT;
+        while (data.hasRemaining()) {
+            if (channel.write(data) == 0) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException(name + " write timeout");
+                }
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(name + " write interrupted");
+                }
+            }
+        }
+    }
+
+    public void write(byte[] data) throws IOException {
+        write(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * 关闭连接，可在任意线程重复调用
+     */
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.debug("{} close failed：", name, e);
+        }
+        reactor.unregistered(this);
+        try {
+            handler.onClosed();
+        } catch (RuntimeException e) {
+            log.error("{} close callback failed：", name, e);
+        }
+        log.info("{} device socket closed.", name);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
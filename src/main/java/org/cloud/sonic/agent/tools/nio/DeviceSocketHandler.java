@@ -0,0 +1,42 @@
+/*
+ *  Copyright (C) [SonicCloudOrg] Sonic Project
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.cloud.sonic.agent.tools.nio;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * 设备转发端口上的协议解析
+ *
+ * @see DeviceSocketReactor
+ */
+public interface DeviceSocketHandler {
+    /**
+     * 通道有数据可读，在IO线程中调用，同一通道不会并发调用。
+     * 通道为非阻塞模式，应一直读到没有数据（read返回0）为止；IO线程是共享的，处理要尽量短，
+     * 不能在这里同步发送WebSocket，需要转发给浏览器时使用 {@link org.cloud.sonic.agent.tools.WebSocketOutbox}
+     *
+     * @return false表示对端已关闭或数据已无法继续解析，通道随后被关闭
+     */
+    boolean onReadable(ReadableByteChannel channel) throws IOException;
+
+    /**
+     * 通道已关闭，无论是对端关闭、解析出错还是主动关闭，都只调用一次
+     */
+    default void onClosed() {
+    }
+}
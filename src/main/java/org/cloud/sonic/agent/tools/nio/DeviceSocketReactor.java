@@ -0,0 +1,168 @@
+/*
+ *  Copyright (C) [SonicCloudOrg] Sonic Project
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.cloud.sonic.agent.tools.nio;
+
+import org.cloud.sonic.agent.tools.AgentExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 设备转发端口的统一IO线程
+ * <p>
+ * adb forward出来的所有本地连接（minicap、scrcpy、touch、audio、manager等）都注册到同一个Selector上，
+ * 由一个selector线程等待可读事件，再交给固定大小的IO线程池解析；同一连接处理期间暂停关注可读事件，
+ * 因此不会被并发处理。线程数与设备数量无关。
+ */
+public class DeviceSocketReactor {
+
+    private static final Logger log = LoggerFactory.getLogger(DeviceSocketReactor.class);
+
+    private static volatile DeviceSocketReactor instance;
+
+    private final Selector selector;
+
+    private final ExecutorService ioPool;
+
+    private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger channelCount = new AtomicInteger(0);
+
+    private DeviceSocketReactor() throws IOException {
+        this.selector = Selector.open();
+        int ioThreads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        ThreadFactory ioThreadFactory = AgentExecutors.newThreadFactory("sonic-device-socket-io");
+        this.ioPool = new ThreadPoolExecutor(ioThreads, ioThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = ioThreadFactory.newThread(r);
+            thread.setDaemon(true);
+            return thread;
+        });
+        Thread selectorThread = AgentExecutors.newThread("sonic-device-socket-selector", this::loop);
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    public static DeviceSocketReactor getInstance() {
+        if (instance == null) {
+            synchronized (DeviceSocketReactor.class) {
+                if (instance == null) {
+                    try {
+                        instance = new DeviceSocketReactor();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("open selector failed", e);
+                    }
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 连接本地转发端口并注册，连接在调用线程中完成
+     *
+     * @param name 用于日志，一般为调用方线程名
+     */
+    public DeviceChannel connect(String name, int port, DeviceSocketHandler handler) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", port));
+        try {
+            return register(name, channel, handler);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public DeviceChannel register(String name, SocketChannel channel, DeviceSocketHandler handler) throws IOException {
+        channel.configureBlocking(false);
+        DeviceChannel deviceChannel = new DeviceChannel(this, name, channel, handler);
+        channelCount.incrementAndGet();
+        runOnSelector(() -> {
+            try {
+                deviceChannel.setKey(channel.register(selector, SelectionKey.OP_READ, deviceChannel));
+            } catch (ClosedChannelException e) {
+                deviceChannel.close();
+            }
+        });
+        return deviceChannel;
+    }
+
+    /**
+     * 当前注册的连接数
+     */
+    public int getChannelCount() {
+        return channelCount.get();
+    }
+
+    void unregistered(DeviceChannel deviceChannel) {
+        channelCount.decrementAndGet();
+    }
+
+    /**
+     * SelectionKey只能在selector线程中修改
+     */
+    void runOnSelector(Runnable task) {
+        selectorTasks.add(task);
+        selector.wakeup();
+    }
+
+    private void loop() {
+        while (true) {
+            try {
+                selector.select();
+                Runnable task;
+                while ((task = selectorTasks.poll()) != null) {
+                    task.run();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    DeviceChannel deviceChannel = (DeviceChannel) key.attachment();
+                    try {
+                        // 处理完之前不再关注，避免同一连接被多个IO线程同时读取
+                        key.interestOps(0);
+                    } catch (CancelledKeyException e) {
+                        continue;
+                    }
+                    ioPool.execute(deviceChannel::handleReadable);
+                }
+            } catch (IOException | RuntimeException e) {
+                log.error("device socket selector error：", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ *  Copyright (C) [SonicCloudOrg] Sonic Project
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.cloud.sonic.agent.tools.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * sonic插件服务（sonicaudioservice、sonicmanagersocket）的分包格式：
+ * 32个字节，每个字节为0或1，组成数据体长度的二进制位，高位在前；后接数据体
+ */
+public abstract class LengthPrefixedHandler implements DeviceSocketHandler {
+
+    private static final int LENGTH_BYTES = 32;
+
+    private final ByteBuffer lengthBuffer = ByteBuffer.allocate(LENGTH_BYTES);
+
+    private ByteBuffer body;
+
+    @Override
+    public boolean onReadable(ReadableByteChannel channel) throws IOException {
+        while (true) {
+            if (body == null) {
+                int read = channel.read(lengthBuffer);
+                if (read < 0) {
+                    return false;
+                }
+                if (lengthBuffer.hasRemaining()) {
+                    return true;
+                }
+                int length = 0;
+                for (int i = 0; i < LENGTH_BYTES; i++) {
+                    length = (length << 1) | (lengthBuffer.get(i) & 1);
+                }
+                lengthBuffer.clear();
+                if (length < 0) {
+                    return false;
+                }
+                body = ByteBuffer.allocate(length);
+            }
+            if (body.hasRemaining()) {
+                int read = channel.read(body);
+                if (read < 0) {
+                    return false;
+                }
+                if (body.hasRemaining()) {
+                    return true;
+                }
+            }
+            ByteBuffer message = body;
+            body = null;
+            message.flip();
+            onMessage(message);
+        }
+    }
+
+    /**
+     * 收到一个完整的数据体
+     */
+    protected abstract void onMessage(ByteBuffer message);
+}
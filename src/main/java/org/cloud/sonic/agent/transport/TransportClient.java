@@ -28,27 +28,27 @@ import org.cloud.sonic.agent.bridge.ios.SibTool;
 import org.cloud.sonic.agent.common.interfaces.PlatformType;
 import org.cloud.sonic.agent.common.maps.AndroidPasswordMap;
 import org.cloud.sonic.agent.common.maps.HandlerMap;
-import org.cloud.sonic.agent.tests.AndroidTests;
-import org.cloud.sonic.agent.tests.IOSTests;
-import org.cloud.sonic.agent.tests.SuiteListener;
+import org.cloud.sonic.agent.tests.LogSpool;
+import org.cloud.sonic.agent.tests.SuiteScheduler;
 import org.cloud.sonic.agent.tests.TaskManager;
 import org.cloud.sonic.agent.tests.android.AndroidRunStepThread;
 import org.cloud.sonic.agent.tests.android.AndroidTestTaskBootThread;
 import org.cloud.sonic.agent.tests.ios.IOSRunStepThread;
 import org.cloud.sonic.agent.tests.ios.IOSTestTaskBootThread;
+import org.cloud.sonic.agent.tools.AgentExecutors;
 import org.cloud.sonic.agent.tools.AgentManagerTool;
 import org.cloud.sonic.agent.tools.BytesTool;
 import org.cloud.sonic.agent.tools.SpringTool;
 import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.enums.Opcode;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
+import org.java_websocket.framing.Framedata;
 import org.java_websocket.handshake.ServerHandshake;
-import org.testng.TestNG;
-import org.testng.xml.XmlClass;
-import org.testng.xml.XmlSuite;
-import org.testng.xml.XmlTest;
 
+import java.io.IOException;
 import java.net.URI;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -58,8 +58,54 @@ public class TransportClient extends WebSocketClient {
     String version = String.valueOf(SpringTool.getPropertiesValue("spring.version"));
     Integer port = Integer.valueOf(SpringTool.getPropertiesValue("sonic.agent.port"));
 
-    public TransportClient(URI serverUri) {
-        super(serverUri);
+    /**
+     * auth时协商的二进制编码，为null时使用文本JSON
+     */
+    private volatile TransportCodec codec;
+
+    public TransportClient(URI serverUri, Map<String, String> httpHeaders) {
+        super(serverUri, createDraft(), httpHeaders);
+    }
+
+    /**
+     * 握手时请求permessage-deflate，server不支持时自动使用不压缩的连接
+     */
+    private static Draft_6455 createDraft() {
+        if (Boolean.parseBoolean(SpringTool.getPropertiesValue("sonic.agent.transport.deflate:true"))) {
+            return new Draft_6455(new TextDeflateExtension());
+        }
+        return new Draft_6455();
+    }
+
+    /**
+     * 只压缩文本消息；二进制消息已经由 {@link TransportCodec} 压缩过，再压缩一次只会浪费CPU。
+     * permessage-deflate允许逐条消息决定是否压缩，不压缩的消息RSV1为0，server照常解析
+     */
+    private static class TextDeflateExtension extends PerMessageDeflateExtension {
+        @Override
+        public void encodeFrame(Framedata inputFrame) {
+            if (inputFrame.getOpcode() == Opcode.BINARY) {
+                return;
+            }
+            super.encodeFrame(inputFrame);
+        }
+
+        @Override
+        public IExtension copyInstance() {
+            return new TextDeflateExtension();
+        }
+    }
+
+    /**
+     * 按协商的编码发送一条消息，只由TransportWorker的发送线程调用
+     */
+    public void sendMessage(String text) {
+        TransportCodec current = codec;
+        if (current == null) {
+            send(text);
+        } else {
+            send(current.encode(text));
+        }
     }
 
     @Override
@@ -73,8 +119,12 @@ public class TransportClient extends WebSocketClient {
         if (jsonObject.getString("msg").equals("pong")) {
             return;
         }
+        if (jsonObject.getString("msg").equals("ack")) {
+            TransportWorker.ack(jsonObject.getString("lane"), jsonObject.getLongValue("seq"));
+            return;
+        }
         log.info("Agent <- Server message: {}", jsonObject);
-        TransportWorker.cachedThreadPool.execute(() -> {
+        TransportWorker.dispatcher.dispatch(jsonObject.getString("msg"), () -> {
             switch (jsonObject.getString("msg")) {
                 case "auth": {
                     if (jsonObject.getString("result").equals("pass")) {
@@ -83,7 +133,18 @@ public class TransportClient extends WebSocketClient {
                         BytesTool.highTemp = jsonObject.getInteger("highTemp");
                         BytesTool.highTempTime = jsonObject.getInteger("highTempTime");
                         BytesTool.agentHost = host;
-                        TransportWorker.client = this;
+                        TransportWorker.isBatchSupported = jsonObject.getBooleanValue("batch");
+                        TransportWorker.isAckSupported = jsonObject.getBooleanValue("ack");
+                        // server已收到的部分视为确认，只重放之后的消息
+                        JSONObject resume = jsonObject.getJSONObject("resume");
+                        if (resume != null) {
+                            for (String lane : resume.keySet()) {
+                                TransportWorker.ack(lane, resume.getLongValue(lane));
+                            }
+                        }
+                        TransportWorker.rewind();
+                        JSONArray encodings = jsonObject.getJSONArray("encodings");
+                        boolean useCodec = encodings != null && encodings.contains(TransportCodec.NAME);
                         JSONObject agentInfo = new JSONObject();
                         agentInfo.put("msg", "agentInfo");
                         agentInfo.put("agentId", BytesTool.agentId);
@@ -91,7 +152,19 @@ public class TransportClient extends WebSocketClient {
                         agentInfo.put("version", "v" + version);
                         agentInfo.put("systemType", System.getProperty("os.name"));
                         agentInfo.put("host", host);
-                        TransportWorker.client.send(agentInfo.toJSONString());
+                        // 告知server本agent可以发送batch消息，消息带有seq，可以ack
+                        agentInfo.put("batch", true);
+                        agentInfo.put("ack", true);
+                        // agentInfo仍使用文本，之后的消息使用协商的编码
+                        agentInfo.put("encoding", useCodec ? TransportCodec.NAME : "json");
+                        send(agentInfo.toJSONString());
+                        TransportCodec old = codec;
+                        codec = useCodec ? new TransportCodec() : null;
+                        if (old != null) {
+                            old.close();
+                        }
+                        TransportWorker.client = this;
+                        TransportConnectionThread.onAuthPassed(this, jsonObject.getString("session"));
                     } else {
                         TransportWorker.isKeyAuth = false;
                         log.info("server auth failed!");
@@ -119,6 +192,8 @@ public class TransportClient extends WebSocketClient {
                     JSONObject heartBeat = new JSONObject();
                     heartBeat.put("msg", "heartBeat");
                     heartBeat.put("status", "alive");
+                    heartBeat.put("lanes", TransportWorker.getLaneStats());
+                    heartBeat.put("commands", TransportWorker.dispatcher.getStats());
                     TransportWorker.send(heartBeat);
                     break;
                 case "runStep":
@@ -130,33 +205,25 @@ public class TransportClient extends WebSocketClient {
                     }
                     break;
                 case "suite":
-                    List<JSONObject> cases = jsonObject.getJSONArray("cases").toJavaList(JSONObject.class);
-                    TestNG tng = new TestNG();
-                    List<XmlSuite> suiteList = new ArrayList<>();
-                    XmlSuite xmlSuite = new XmlSuite();
-                    //bug?
-                    for (JSONObject dataInfo : cases) {
-                        XmlTest xmlTest = new XmlTest(xmlSuite);
-                        Map<String, String> parameters = new HashMap<>();
-                        parameters.put("dataInfo", dataInfo.toJSONString());
-                        if (xmlSuite.getParameter("dataInfo") == null) {
-                            xmlSuite.setParameters(parameters);
-                        }
-                        xmlTest.setParameters(parameters);
-                        List<XmlClass> classes = new ArrayList<>();
-                        if (jsonObject.getInteger("pf") == PlatformType.ANDROID) {
-                            classes.add(new XmlClass(AndroidTests.class));
-                        }
-                        if (jsonObject.getInteger("pf") == PlatformType.IOS) {
-                            classes.add(new XmlClass(IOSTests.class));
+                    SuiteScheduler.submit(jsonObject.getInteger("pf"),
+                            jsonObject.getJSONArray("cases").toJavaList(JSONObject.class));
+                    break;
+                case "replayLog": {
+                    // server丢失某次结果的日志时，从本地落盘的日志重新发送
+                    int resultId = jsonObject.getInteger("rid");
+                    int caseId = jsonObject.getInteger("cid");
+                    String udId = jsonObject.getString("udId");
+                    AgentExecutors.startThread(String.format("log-spool-replay-%s-%s-%s", resultId, caseId, udId), () -> {
+                        try {
+                            int count = LogSpool.replay(resultId, caseId, udId,
+                                    text -> TransportWorker.send(JSON.parseObject(text).getString("msg"), text));
+                            log.info("replay {} spooled log(s) of {}-{}-{}.", count, resultId, caseId, udId);
+                        } catch (IOException e) {
+                            log.error("replay spooled logs of {}-{}-{} failed.", resultId, caseId, udId, e);
                         }
-                        xmlTest.setXmlClasses(classes);
-                    }
-                    suiteList.add(xmlSuite);
-                    tng.setXmlSuites(suiteList);
-                    tng.addListener(new SuiteListener());
-                    tng.run();
+                    });
                     break;
+                }
                 case "forceStopSuite":
                     List<JSONObject> caseList = jsonObject.getJSONArray("cases").toJavaList(JSONObject.class);
                     for (JSONObject aCase : caseList) {
@@ -176,11 +243,17 @@ public class TransportClient extends WebSocketClient {
 
     @Override
     public void onClose(int i, String s, boolean b) {
-        if (TransportWorker.isKeyAuth) {
-            log.info("Server disconnected. Retry in 10s...");
+        // 压缩上下文随连接丢弃，释放zlib的本地内存
+        TransportCodec current = codec;
+        codec = null;
+        if (current != null) {
+            current.close();
         }
+        TransportConnectionThread.onDisconnected(this);
         if(TransportWorker.client == this) {
             TransportWorker.client = null;
+            TransportWorker.isBatchSupported = false;
+            TransportWorker.isAckSupported = false;
         }
     }
 
@@ -210,7 +283,7 @@ public class TransportClient extends WebSocketClient {
                 androidStepHandler.sendStatus();
             }
         };
-        TaskManager.startChildThread(task.getName(), task);
+        TaskManager.startChildThread(dataBean.getTaskKey(), task);
     }
 
     /**
@@ -233,6 +306,6 @@ public class TransportClient extends WebSocketClient {
                 iosStepHandler.sendStatus();
             }
         };
-        TaskManager.startChildThread(task.getName(), task);
+        TaskManager.startChildThread(dataBean.getTaskKey(), task);
     }
 }
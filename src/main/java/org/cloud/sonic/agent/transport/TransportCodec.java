@@ -0,0 +1,118 @@
+/*
+ *  Copyright (C) [SonicCloudOrg] Sonic Project
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.cloud.sonic.agent.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * agent发往server的二进制压缩编码
+ * <p>
+ * 每个WebSocket二进制消息是一段raw deflate数据（SYNC_FLUSH结尾），解压后为UTF-8的JSON文本，
+ * 内容与文本模式完全相同。整个连接共用一个压缩上下文，并预置了常用字段名与取值的字典，
+ * 步骤日志中反复出现的cid、rid、udId、msg、time等只需很少的字节；连接断开后调用 {@link #close()} 释放上下文。
+ * 二进制消息不再经过permessage-deflate压缩。
+ * <p>
+ * 在auth时协商：server的auth结果中encodings包含 {@link #NAME} 时启用，agent在agentInfo中回复encoding，
+ * 之后的消息都使用二进制；否则继续使用文本JSON。
+ */
+public class TransportCodec {
+
+    public static final String NAME = "deflate-dict-v1";
+
+    /**
+     * 预置字典，越常见的内容越靠后，修改内容需要同时修改 {@link #NAME}
+     */
+    static final byte[] DICTIONARY = ("\"manufacturer\":\"\"cpu\":\"\"isHm\":\"platform\":\"model\":\"name\":\"size\":\""
+            + "\"version\":\"\"msg\":\"deviceDetail\"\"msg\":\"battery\",\"detail\":[{\"msg\":\"elapsed\",\"pf\":"
+            + "\"msg\":\"status\"\"msg\":\"record\"\"msg\":\"perform\",\"des\":\"{\\\"cpu\\\":\",\"log\":\"<span>"
+            + "{\"msg\":\"batch\",\"agentId\":\"lane\":\"status\",\"seq\":,\"data\":["
+            + "{\"agentId\":\"lane\":\"bulk\",\"seq\":\"msg\":\"step\",\"des\":\"\",\"status\":1,\"log\":\"\","
+            + "\"cid\":\"rid\":\"udId\":\"\",\"time\":\"").getBytes(StandardCharsets.UTF_8);
+
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    private final Deflater deflater;
+
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+
+    public TransportCodec() {
+        deflater = new Deflater(Deflater.BEST_SPEED, true);
+        deflater.setDictionary(DICTIONARY);
+    }
+
+    private boolean closed = false;
+
+    /**
+     * 编码一条消息，必须按发送顺序调用
+     *
+     * @throws IllegalStateException 连接已关闭
+     */
+    public synchronized ByteBuffer encode(String text) {
+        if (closed) {
+            throw new IllegalStateException("transport codec has been closed");
+        }
+        byte[] input = text.getBytes(StandardCharsets.UTF_8);
+        deflater.setInput(input);
+        ByteArrayOutputStream output = new ByteArrayOutputStream(input.length / 4 + 64);
+        int length;
+        do {
+            length = deflater.deflate(chunk, 0, chunk.length, Deflater.SYNC_FLUSH);
+            output.write(chunk, 0, length);
+        } while (length == chunk.length || !deflater.needsInput());
+        return ByteBuffer.wrap(output.toByteArray());
+    }
+
+    /**
+     * 连接关闭时调用，释放Deflater占用的本地内存，可重复调用
+     */
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            deflater.end();
+        }
+    }
+
+    /**
+     * 对应的解码器，server端实现时可以参考
+     */
+    public static class Decoder {
+
+        private final Inflater inflater = new Inflater(true);
+
+        private final byte[] chunk = new byte[CHUNK_SIZE];
+
+        public Decoder() {
+            inflater.setDictionary(DICTIONARY);
+        }
+
+        public synchronized String decode(byte[] bytes) throws DataFormatException {
+            inflater.setInput(bytes);
+            ByteArrayOutputStream output = new ByteArrayOutputStream(bytes.length * 4);
+            int length;
+            do {
+                length = inflater.inflate(chunk);
+                output.write(chunk, 0, length);
+            } while (length > 0 || !inflater.needsInput() && !inflater.finished());
+            return new String(output.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
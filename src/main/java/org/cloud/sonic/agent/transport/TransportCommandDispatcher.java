@@ -0,0 +1,180 @@
+/*
+ *  Copyright (C) [SonicCloudOrg] Sonic Project
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.cloud.sonic.agent.transport;
+
+import com.alibaba.fastjson.JSONObject;
+import lombok.extern.slf4j.Slf4j;
+import org.cloud.sonic.agent.tools.AgentExecutors;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * server下发指令的分发器
+ * <p>
+ * 按消息类型分为三个通道，各自使用独立的有界线程池：
+ * CONTROL：auth、心跳、重启、强制停止等，执行很快，不会排在测试套件后面；
+ * STEP：单步调试；
+ * SUITE：测试套件，解析后交给 {@link org.cloud.sonic.agent.tests.SuiteScheduler} 排队执行，超出的在准入队列中等待，队列满时拒绝。
+ * <p>
+ * 每个通道统计排队时间与执行时间，随心跳上报
+ */
+@Slf4j
+public class TransportCommandDispatcher {
+
+    public enum Lane {
+        CONTROL("control", 2, 1024),
+        STEP("step", 2, 256),
+        SUITE("suite", 1, 64);
+
+        private final String detail;
+
+        private final int threads;
+
+        private final int queueSize;
+
+        Lane(String detail, int threads, int queueSize) {
+            this.detail = detail;
+            this.threads = threads;
+            this.queueSize = queueSize;
+        }
+
+        public String getDetail() {
+            return detail;
+        }
+
+        /**
+         * 未知类型按CONTROL处理
+         */
+        public static Lane of(String msg) {
+            if ("suite".equals(msg)) {
+                return SUITE;
+            }
+            if ("runStep".equals(msg)) {
+                return STEP;
+            }
+            return CONTROL;
+        }
+    }
+
+    /**
+     * 单个通道的排队时间与执行时间，窗口在每次取快照后重置
+     */
+    private static class LaneStats {
+        private long count;
+        private long waitTotal;
+        private long waitMax;
+        private long runTotal;
+        private long runMax;
+        private long rejected;
+
+        synchronized void record(long waitMs, long runMs) {
+            count++;
+            waitTotal += waitMs;
+            waitMax = Math.max(waitMax, waitMs);
+            runTotal += runMs;
+            runMax = Math.max(runMax, runMs);
+        }
+
+        synchronized void reject() {
+            rejected++;
+        }
+
+        synchronized JSONObject snapshot() {
+            JSONObject result = new JSONObject();
+            result.put("count", count);
+            result.put("waitAvg", count == 0 ? 0 : waitTotal / count);
+            result.put("waitMax", waitMax);
+            result.put("runAvg", count == 0 ? 0 : runTotal / count);
+            result.put("runMax", runMax);
+            result.put("rejected", rejected);
+            count = 0;
+            waitTotal = 0;
+            waitMax = 0;
+            runTotal = 0;
+            runMax = 0;
+            rejected = 0;
+            return result;
+        }
+    }
+
+    private final Map<Lane, ThreadPoolExecutor> executors = new EnumMap<>(Lane.class);
+
+    private final Map<Lane, LaneStats> stats = new EnumMap<>(Lane.class);
+
+    /**
+     * @param suiteConcurrency 同时处理的测试套件消息数
+     */
+    public TransportCommandDispatcher(int suiteConcurrency) {
+        for (Lane lane : Lane.values()) {
+            int threads = lane == Lane.SUITE ? Math.max(suiteConcurrency, 1) : lane.threads;
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(lane.queueSize),
+                    AgentExecutors.newThreadFactory("transport-command-" + lane.detail));
+            executor.allowCoreThreadTimeOut(true);
+            executors.put(lane, executor);
+            stats.put(lane, new LaneStats());
+        }
+    }
+
+    /**
+     * 按消息类型放入对应通道执行
+     *
+     * @return 通道队列已满被拒绝时返回false
+     */
+    public boolean dispatch(String msg, Runnable command) {
+        Lane lane = Lane.of(msg);
+        LaneStats laneStats = stats.get(lane);
+        long enqueueTime = System.currentTimeMillis();
+        try {
+            executors.get(lane).execute(() -> {
+                long startTime = System.currentTimeMillis();
+                try {
+                    command.run();
+                } catch (Throwable e) {
+                    log.error("Handle server message {} failed.", msg, e);
+                } finally {
+                    laneStats.record(startTime - enqueueTime, System.currentTimeMillis() - startTime);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            laneStats.reject();
+            log.error("{} queue is full, server message {} rejected.", lane.detail, msg);
+            return false;
+        }
+    }
+
+    /**
+     * 各通道自上次调用以来的排队、执行时间，以及当前排队数与运行数
+     */
+    public JSONObject getStats() {
+        JSONObject result = new JSONObject();
+        for (Lane lane : Lane.values()) {
+            ThreadPoolExecutor executor = executors.get(lane);
+            JSONObject laneStats = stats.get(lane).snapshot();
+            laneStats.put("queued", executor.getQueue().size());
+            laneStats.put("running", executor.getActiveCount());
+            result.put(lane.detail, laneStats);
+        }
+        return result;
+    }
+}
@@ -18,12 +18,20 @@ package org.cloud.sonic.agent.transport;
 
 import com.alibaba.fastjson.JSONObject;
 import lombok.extern.slf4j.Slf4j;
+import org.cloud.sonic.agent.tools.ScheduleTool;
 import org.cloud.sonic.agent.tools.SpringTool;
 
 import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 /**
+ * 与server的连接维护
+ * 定时发送ping；连接断开后按带随机抖动的指数退避重连，避免server重启后所有agent同时重连；
+ * 重连时带上server下发的session，server可以据此告知已收到的消息，agent只补发之后的部分
+ *
  * @author Eason
  * @date 2022/6/12 02:45
  */
@@ -38,27 +46,137 @@ public class TransportConnectionThread implements Runnable {
 
     public static final TimeUnit TIME_UNIT = TimeUnit.SECONDS;
 
-    String serverHost = String.valueOf(SpringTool.getPropertiesValue("sonic.server.host"));
-    Integer serverPort = Integer.valueOf(SpringTool.getPropertiesValue("sonic.server.port"));
-    String key = String.valueOf(SpringTool.getPropertiesValue("sonic.agent.key"));
+    /**
+     * 重连退避的初始值与上限，毫秒
+     */
+    public static final long BACKOFF_BASE = 1000;
+
+    public static final long BACKOFF_MAX = 60 * 1000;
+
+    /**
+     * 重连时携带session的握手请求头
+     */
+    public static final String SESSION_HEADER = "Sonic-Session";
+
+    /**
+     * 连接后超过该时间仍未auth通过，关闭后重连，毫秒
+     */
+    public static final long CONNECT_TIMEOUT = 60 * 1000;
+
+    private static final Object lock = new Object();
+
+    /**
+     * 正在连接或等待auth结果的client
+     */
+    private static TransportClient connectingClient;
+
+    private static long connectStartTime = 0;
+
+    private static int failures = 0;
+
+    private static long nextAttemptTime = 0;
+
+    private static boolean isReconnectScheduled = false;
+
+    private static volatile String sessionToken;
 
     @Override
     public void run() {
         Thread.currentThread().setName(THREAD_NAME);
         if (TransportWorker.client == null) {
-            if (!TransportWorker.isKeyAuth) {
-                return;
-            }
-            //开发环境去掉/server
-            String url = String.format("ws://%s:%d/server/websockets/agent/%s",
-                    serverHost, serverPort, key).replace(":80/", "/");
-            URI uri = URI.create(url);
-            TransportClient transportClient = new TransportClient(uri);
-            transportClient.connect();
+            connect(false);
         } else {
             JSONObject ping = new JSONObject();
             ping.put("msg", "ping");
             TransportWorker.send(ping);
         }
     }
+
+    /**
+     * @param isScheduled 是否是退避结束后的重连
+     */
+    private static void connect(boolean isScheduled) {
+        if (!TransportWorker.isKeyAuth) {
+            return;
+        }
+        synchronized (lock) {
+            if (isScheduled) {
+                isReconnectScheduled = false;
+            }
+            long now = System.currentTimeMillis();
+            if (connectingClient != null && now - connectStartTime > CONNECT_TIMEOUT) {
+                log.info("Connect to server timeout, close it.");
+                connectingClient.close();
+                return;
+            }
+            if (TransportWorker.client != null || connectingClient != null || isReconnectScheduled
+                    || now < nextAttemptTime) {
+                return;
+            }
+            Map<String, String> headers = new HashMap<>();
+            if (sessionToken != null) {
+                headers.put(SESSION_HEADER, sessionToken);
+            }
+            connectingClient = new TransportClient(serverUri(), headers);
+            connectStartTime = now;
+            connectingClient.connect();
+        }
+    }
+
+    private static URI serverUri() {
+        String serverHost = String.valueOf(SpringTool.getPropertiesValue("sonic.server.host"));
+        Integer serverPort = Integer.valueOf(SpringTool.getPropertiesValue("sonic.server.port"));
+        String key = String.valueOf(SpringTool.getPropertiesValue("sonic.agent.key"));
+        //开发环境去掉/server
+        String url = String.format("ws://%s:%d/server/websockets/agent/%s",
+                serverHost, serverPort, key).replace(":80/", "/");
+        return URI.create(url);
+    }
+
+    /**
+     * auth通过后调用，清空退避状态并保存server下发的session
+     */
+    public static void onAuthPassed(TransportClient client, String session) {
+        synchronized (lock) {
+            if (connectingClient == client) {
+                connectingClient = null;
+            }
+            failures = 0;
+            nextAttemptTime = 0;
+            if (session != null) {
+                sessionToken = session;
+            }
+        }
+    }
+
+    /**
+     * 连接失败或断开时调用，退避后重连
+     */
+    public static void onDisconnected(TransportClient client) {
+        synchronized (lock) {
+            if (client != connectingClient && client != TransportWorker.client) {
+                return;
+            }
+            if (client == connectingClient) {
+                connectingClient = null;
+            }
+            if (!TransportWorker.isKeyAuth) {
+                return;
+            }
+            failures++;
+            long delay = backoff(failures);
+            nextAttemptTime = System.currentTimeMillis() + delay;
+            isReconnectScheduled = true;
+            ScheduleTool.schedule(() -> connect(true), delay, TimeUnit.MILLISECONDS);
+            log.info("Server disconnected. Retry in {}ms...", delay);
+        }
+    }
+
+    /**
+     * 指数退避，在上限的一半到上限之间随机
+     */
+    static long backoff(int failures) {
+        long cap = Math.min(BACKOFF_MAX, BACKOFF_BASE << Math.min(failures - 1, 16));
+        return cap / 2 + ThreadLocalRandom.current().nextLong(cap / 2 + 1);
+    }
 }
@@ -0,0 +1,99 @@
+/*
+ *  Copyright (C) [SonicCloudOrg] Sonic Project
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.cloud.sonic.agent.transport;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 发往server的消息优先级通道
+ * <p>
+ * CONTROL：心跳、ping等控制消息，只保存在内存中，不重放；
+ * STATUS：设备状态、电量、用例结果等，持久化到发件箱；
+ * BULK：步骤日志、性能数据、录像等大量消息，持久化到发件箱。
+ * <p>
+ * 发送线程按权重轮流发送各通道的消息，高优先级通道不会被大量日志阻塞，低优先级通道也不会饿死
+ */
+public enum TransportLane {
+    CONTROL("control", 8),
+    STATUS("status", 4),
+    BULK("bulk", 1);
+
+    private static final Set<String> CONTROL_MESSAGES = new HashSet<>(Arrays.asList(
+            "ping", "heartBeat", "agentInfo", "debugUser", "errCall"
+    ));
+
+    private static final Set<String> BULK_MESSAGES = new HashSet<>(Arrays.asList(
+            "step", "log", "perform", "record"
+    ));
+
+    private final String detail;
+
+    /**
+     * 每轮调度中最多连续发送的批次数
+     */
+    private final int weight;
+
+    TransportLane(String detail, int weight) {
+        this.detail = detail;
+        this.weight = weight;
+    }
+
+    public String getDetail() {
+        return detail;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * 是否需要持久化并等待server确认
+     */
+    public boolean isDurable() {
+        return this != CONTROL;
+    }
+
+    /**
+     * 按消息的msg字段分类，未知类型按STATUS处理
+     */
+    public static TransportLane of(String msg) {
+        if (msg == null) {
+            return STATUS;
+        }
+        if (CONTROL_MESSAGES.contains(msg)) {
+            return CONTROL;
+        }
+        if (BULK_MESSAGES.contains(msg)) {
+            return BULK;
+        }
+        return STATUS;
+    }
+
+    /**
+     * @return 找不到时返回null
+     */
+    public static TransportLane ofDetail(String detail) {
+        for (TransportLane lane : values()) {
+            if (lane.detail.equals(detail)) {
+                return lane;
+            }
+        }
+        return null;
+    }
+}
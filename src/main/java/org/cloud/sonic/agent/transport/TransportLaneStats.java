@@ -0,0 +1,67 @@
+/*
+ *  Copyright (C) [SonicCloudOrg] Sonic Project
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.cloud.sonic.agent.transport;
+
+import com.alibaba.fastjson.JSONObject;
+
+/**
+ * 单个通道的发送延迟统计，延迟为消息写入到发送完成的时间
+ * 统计窗口在每次取快照后重置，累计发送数与丢弃数不重置
+ */
+public class TransportLaneStats {
+
+    private long windowCount;
+
+    private long windowLatency;
+
+    private long windowMaxLatency;
+
+    private long totalCount;
+
+    private long droppedCount;
+
+    public synchronized void record(long latencyMs) {
+        latencyMs = Math.max(latencyMs, 0);
+        windowCount++;
+        windowLatency += latencyMs;
+        windowMaxLatency = Math.max(windowMaxLatency, latencyMs);
+        totalCount++;
+    }
+
+    /**
+     * 队列满丢弃的消息数，只有不落盘的控制通道会丢弃
+     */
+    public synchronized void recordDropped(int count) {
+        droppedCount += count;
+    }
+
+    /**
+     * {"count":本窗口发送数,"avg":平均延迟ms,"max":最大延迟ms,"total":累计发送数,"dropped":累计丢弃数}
+     */
+    public synchronized JSONObject snapshot() {
+        JSONObject result = new JSONObject();
+        result.put("count", windowCount);
+        result.put("avg", windowCount == 0 ? 0 : windowLatency / windowCount);
+        result.put("max", windowMaxLatency);
+        result.put("total", totalCount);
+        result.put("dropped", droppedCount);
+        windowCount = 0;
+        windowLatency = 0;
+        windowMaxLatency = 0;
+        return result;
+    }
+}
@@ -0,0 +1,411 @@
+/*
+ *  Copyright (C) [SonicCloudOrg] Sonic Project
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.cloud.sonic.agent.transport;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 发往server的消息发件箱
+ * <p>
+ * 消息按顺序分配seq，追加写入目录下分段的内存映射文件，堆内存占用与积压量无关；
+ * server确认（ack）之后删除已全部确认的分段，重连或发送失败时从最后确认的位置按顺序重放，
+ * agent重启后未确认的消息依然保留。
+ * <p>
+ * 总大小超过上限时丢弃最旧的分段，避免server长时间不可用时占满磁盘。
+ * <p>
+ * 记录格式：int 内容长度 | long seq | long 写入时间 | UTF-8 内容，长度为0表示分段中后续没有数据；
+ * 长度最后写入，进程中途退出时不会读到半条记录。
+ */
+@Slf4j
+public class TransportOutbox {
+
+    public static final int SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    private static final int RECORD_HEADER = 20;
+
+    private static final String SEGMENT_SUFFIX = ".outbox";
+
+    private static final String ACK_FILE = "ack";
+
+    public static class Entry {
+        private final long seq;
+        private final String text;
+        private final long time;
+
+        Entry(long seq, String text, long time) {
+            this.seq = seq;
+            this.text = text;
+            this.time = time;
+        }
+
+        public long getSeq() {
+            return seq;
+        }
+
+        /**
+         * 写入发件箱的时间，毫秒
+         */
+        public long getTime() {
+            return time;
+        }
+
+        public String getText() {
+            return text;
+        }
+    }
+
+    private static class Segment {
+        private final File file;
+        private final long firstSeq;
+        private final int capacity;
+        private long lastSeq;
+        private int writePos;
+        private MappedByteBuffer buffer;
+
+        Segment(File file, long firstSeq, int capacity) {
+            this.file = file;
+            this.firstSeq = firstSeq;
+            this.capacity = capacity;
+            this.lastSeq = firstSeq - 1;
+        }
+
+        MappedByteBuffer buffer() throws IOException {
+            if (buffer == null) {
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                     FileChannel channel = raf.getChannel()) {
+                    buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+                }
+            }
+            return buffer;
+        }
+
+        /**
+         * 交给GC解除映射
+         */
+        void unmap() {
+            buffer = null;
+        }
+    }
+
+    private final File dir;
+
+    private final long maxBytes;
+
+    private final List<Segment> segments = new ArrayList<>();
+
+    /**
+     * 删除失败的文件（windows下映射未释放时无法删除），之后再次尝试
+     */
+    private final List<File> garbage = new ArrayList<>();
+
+    private final MappedByteBuffer ackBuffer;
+
+    private long lastSeq;
+
+    private long ackedSeq;
+
+    private long totalBytes;
+
+    private long droppedCount;
+
+    private Segment readSegment;
+
+    private int readPos;
+
+    private long readSeq;
+
+    /**
+     * @param dir      发件箱目录
+     * @param maxBytes 所有分段的总大小上限
+     */
+    public TransportOutbox(File dir, long maxBytes) throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("create outbox dir failed: " + dir.getAbsolutePath());
+        }
+        this.dir = dir;
+        this.maxBytes = Math.max(maxBytes, SEGMENT_SIZE * 2L);
+        try (RandomAccessFile raf = new RandomAccessFile(new File(dir, ACK_FILE), "rw");
+             FileChannel channel = raf.getChannel()) {
+            ackBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, 8);
+        }
+        ackedSeq = ackBuffer.getLong(0);
+        lastSeq = ackedSeq;
+        recover();
+        rewind();
+    }
+
+    private void recover() throws IOException {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            long firstSeq;
+            try {
+                firstSeq = Long.parseLong(file.getName().substring(0, file.getName().length() - SEGMENT_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            int capacity = (int) Math.min(file.length(), Integer.MAX_VALUE);
+            if (capacity < RECORD_HEADER) {
+                deleteFile(file);
+                continue;
+            }
+            Segment segment = new Segment(file, firstSeq, capacity);
+            ByteBuffer buffer = segment.buffer();
+            int pos = 0;
+            while (pos + RECORD_HEADER <= capacity) {
+                int length = buffer.getInt(pos);
+                if (length <= 0 || pos + RECORD_HEADER + length > capacity) {
+                    break;
+                }
+                segment.lastSeq = buffer.getLong(pos + 4);
+                pos += RECORD_HEADER + length;
+            }
+            segment.writePos = pos;
+            segment.unmap();
+            if (segment.lastSeq <= ackedSeq) {
+                deleteFile(file);
+                lastSeq = Math.max(lastSeq, segment.lastSeq);
+                continue;
+            }
+            segments.add(segment);
+            totalBytes += capacity;
+            lastSeq = Math.max(lastSeq, segment.lastSeq);
+        }
+        if (lastSeq > ackedSeq) {
+            log.info("Outbox recovered {} unacknowledged message(s).", lastSeq - ackedSeq);
+        }
+    }
+
+    /**
+     * 追加一条消息
+     *
+     * @return 消息的seq
+     */
+    public synchronized long append(String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length == 0) {
+            throw new IllegalArgumentException("empty message");
+        }
+        int need = RECORD_HEADER + bytes.length;
+        Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (segment == null || segment.writePos + need > segment.capacity) {
+            segment = roll(need);
+        }
+        MappedByteBuffer buffer = segment.buffer();
+        long seq = ++lastSeq;
+        buffer.putLong(segment.writePos + 4, seq);
+        buffer.putLong(segment.writePos + 12, System.currentTimeMillis());
+        ByteBuffer body = buffer.duplicate();
+        body.position(segment.writePos + RECORD_HEADER);
+        body.put(bytes);
+        buffer.putInt(segment.writePos, bytes.length);
+        segment.writePos += need;
+        segment.lastSeq = seq;
+        return seq;
+    }
+
+    /**
+     * 是否有未读取的消息
+     */
+    public synchronized boolean hasUnread() {
+        return readSeq <= lastSeq;
+    }
+
+    /**
+     * 按顺序读取未读取的消息，至少返回一条（如果有）
+     *
+     * @param maxCount 最多读取的条数
+     * @param maxChars 最多读取的字符数
+     */
+    public synchronized List<Entry> poll(int maxCount, int maxChars) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        int chars = 0;
+        while (entries.size() < maxCount && readSeq <= lastSeq && readSegment != null) {
+            ByteBuffer buffer = readSegment.buffer();
+            int length = readPos + RECORD_HEADER <= readSegment.capacity ? buffer.getInt(readPos) : 0;
+            if (length <= 0) {
+                int index = segments.indexOf(readSegment);
+                if (index < 0 || index + 1 >= segments.size()) {
+                    break;
+                }
+                readSegment.unmap();
+                readSegment = segments.get(index + 1);
+                readPos = 0;
+                continue;
+            }
+            if (!entries.isEmpty() && chars + length > maxChars) {
+                break;
+            }
+            long seq = buffer.getLong(readPos + 4);
+            long time = buffer.getLong(readPos + 12);
+            byte[] bytes = new byte[length];
+            ByteBuffer body = buffer.duplicate();
+            body.position(readPos + RECORD_HEADER);
+            body.get(bytes);
+            readPos += RECORD_HEADER + length;
+            readSeq = seq + 1;
+            String text = new String(bytes, StandardCharsets.UTF_8);
+            chars += text.length();
+            entries.add(new Entry(seq, text, time));
+        }
+        return entries;
+    }
+
+    /**
+     * server确认seq及之前的所有消息，删除已全部确认的分段
+     */
+    public synchronized void ack(long seq) {
+        if (seq <= ackedSeq) {
+            return;
+        }
+        ackedSeq = Math.min(seq, lastSeq);
+        ackBuffer.putLong(0, ackedSeq);
+        boolean readRemoved = false;
+        while (segments.size() > 1 && segments.get(0).lastSeq <= ackedSeq) {
+            readRemoved |= segments.get(0) == readSegment;
+            removeOldest();
+        }
+        if (readRemoved || readSeq <= ackedSeq) {
+            rewind();
+        }
+        deleteGarbage();
+    }
+
+    /**
+     * 读取位置回到最后确认的消息之后，重连或发送失败时调用，之后按顺序重放
+     */
+    public synchronized void rewind() {
+        readSeq = ackedSeq + 1;
+        readSegment = null;
+        readPos = 0;
+        for (Segment segment : segments) {
+            if (segment.lastSeq >= readSeq || segment == segments.get(segments.size() - 1)) {
+                readSegment = segment;
+                break;
+            }
+        }
+        if (readSegment == null) {
+            return;
+        }
+        try {
+            ByteBuffer buffer = readSegment.buffer();
+            while (readPos + RECORD_HEADER <= readSegment.capacity) {
+                int length = buffer.getInt(readPos);
+                if (length <= 0 || buffer.getLong(readPos + 4) >= readSeq) {
+                    break;
+                }
+                readPos += RECORD_HEADER + length;
+            }
+        } catch (IOException e) {
+            log.error("Outbox rewind failed.", e);
+        }
+    }
+
+    /**
+     * 尚未确认的消息数
+     */
+    public synchronized long pending() {
+        return lastSeq - ackedSeq;
+    }
+
+    /**
+     * 因超过大小上限被丢弃的消息数
+     */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    public synchronized long getLastSeq() {
+        return lastSeq;
+    }
+
+    public synchronized long getAckedSeq() {
+        return ackedSeq;
+    }
+
+    private Segment roll(int need) throws IOException {
+        if (!segments.isEmpty()) {
+            Segment sealed = segments.get(segments.size() - 1);
+            if (sealed != readSegment) {
+                sealed.unmap();
+            }
+        }
+        long firstSeq = lastSeq + 1;
+        Segment segment = new Segment(new File(dir, String.format("%020d%s", firstSeq, SEGMENT_SUFFIX)),
+                firstSeq, Math.max(SEGMENT_SIZE, need));
+        segments.add(segment);
+        totalBytes += segment.capacity;
+        if (readSegment == null) {
+            readSegment = segment;
+            readPos = 0;
+        }
+        while (totalBytes > maxBytes && segments.size() > 1) {
+            Segment oldest = segments.get(0);
+            long lost = oldest.lastSeq - Math.max(ackedSeq, oldest.firstSeq - 1);
+            if (lost > 0) {
+                droppedCount += lost;
+                log.warn("Outbox is full, drop {} unacknowledged message(s) from seq {}.", lost, oldest.firstSeq);
+            }
+            boolean readRemoved = oldest == readSegment;
+            ackedSeq = Math.max(ackedSeq, oldest.lastSeq);
+            ackBuffer.putLong(0, ackedSeq);
+            removeOldest();
+            if (readRemoved || readSeq <= ackedSeq) {
+                rewind();
+            }
+        }
+        return segment;
+    }
+
+    private void removeOldest() {
+        Segment oldest = segments.remove(0);
+        totalBytes -= oldest.capacity;
+        oldest.unmap();
+        deleteFile(oldest.file);
+    }
+
+    private void deleteFile(File file) {
+        if (!file.delete() && file.exists()) {
+            garbage.add(file);
+        }
+    }
+
+    private void deleteGarbage() {
+        Iterator<File> iterator = garbage.iterator();
+        while (iterator.hasNext()) {
+            File file = iterator.next();
+            if (file.delete() || !file.exists()) {
+                iterator.remove();
+            }
+        }
+    }
+}
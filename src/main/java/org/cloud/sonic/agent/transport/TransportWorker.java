@@ -16,46 +16,352 @@
  */
 package org.cloud.sonic.agent.transport;
 
+import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
 import lombok.extern.slf4j.Slf4j;
+import org.cloud.sonic.agent.tools.AgentExecutors;
 import org.cloud.sonic.agent.tools.BytesTool;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.LinkedBlockingDeque;
 
+/**
+ * 发往server的消息队列
+ * <p>
+ * 消息按 {@link TransportLane} 分为控制、状态、日志三个通道：控制消息放在有界的内存队列中，满了丢弃最旧的，
+ * 发送失败时未发出的控制消息放回队首，放不下的计入丢弃数；
+ * 状态与日志消息分别写入磁盘上的 {@link TransportOutbox}，断线或agent重启都不会丢失，堆内存占用不随积压增长。
+ * <p>
+ * 发送线程阻塞等待新消息，有消息时立即发送，各通道按权重轮流发送；积压的消息一次取出，
+ * server支持时合并为一个batch消息发送，不支持时逐条发送；消息按auth时协商的编码发送，见 {@link TransportCodec}。
+ * 持久化通道的每条消息带有lane与seq，server支持ack时收到确认后才从发件箱删除，重连后从最后确认的位置重放；
+ * 不支持时发送成功即视为确认
+ */
 @Configuration
 @Slf4j
 public class TransportWorker {
-    private static LinkedBlockingQueue<JSONObject> dataQueue = new LinkedBlockingQueue<>();
-    public static ExecutorService cachedThreadPool = Executors.newCachedThreadPool();
+    /**
+     * 单个batch最多包含的消息数
+     */
+    public static final int MAX_BATCH_SIZE = 200;
+
+    /**
+     * 单个batch最大的字符数，超过后剩余消息放到下一个batch
+     */
+    public static final int MAX_BATCH_CHARS = 512 * 1024;
+
+    /**
+     * 控制通道最多缓存的消息数
+     */
+    public static final int CONTROL_QUEUE_SIZE = 1024;
+
+    @Value("${sonic.agent.outbox.path:test-output/outbox}")
+    private String outboxPath;
+
+    @Value("${sonic.agent.outbox.max-size-mb:512}")
+    private long outboxMaxSizeMb;
+
+    @Value("${sonic.agent.suite-concurrency:2}")
+    private int suiteConcurrency;
+
+    private static final LinkedBlockingDeque<TransportOutbox.Entry> controlQueue = new LinkedBlockingDeque<>(CONTROL_QUEUE_SIZE);
+    private static final Map<TransportLane, TransportOutbox> outboxes = new EnumMap<>(TransportLane.class);
+    private static final Map<TransportLane, TransportLaneStats> laneStats = new EnumMap<>(TransportLane.class);
+    /**
+     * 新消息到达时唤醒发送线程
+     */
+    private static final Object signal = new Object();
+    public static ExecutorService cachedThreadPool;
+    /**
+     * server下发指令的分发器
+     */
+    public static TransportCommandDispatcher dispatcher;
     public static TransportClient client = null;
     public static Boolean isKeyAuth = true;
+    /**
+     * server是否支持batch消息，由auth结果中的batch字段决定，旧版本server没有该字段时逐条发送
+     */
+    public static volatile boolean isBatchSupported = false;
+    /**
+     * server是否会回复ack，由auth结果中的ack字段决定
+     */
+    public static volatile boolean isAckSupported = false;
+
+    static {
+        for (TransportLane lane : TransportLane.values()) {
+            laneStats.put(lane, new TransportLaneStats());
+        }
+    }
+
+    @Bean
+    @DependsOn({"agentExecutorsInit"})
+    public void transportThreadPoolInit() {
+        cachedThreadPool = AgentExecutors.newExecutor("transport");
+        dispatcher = new TransportCommandDispatcher(suiteConcurrency);
+    }
+
+    @Bean
+    public void transportOutboxInit() throws IOException {
+        for (TransportLane lane : TransportLane.values()) {
+            if (lane.isDurable()) {
+                outboxes.put(lane, new TransportOutbox(new File(outboxPath, lane.getDetail()), outboxMaxSizeMb * 1024 * 1024));
+            }
+        }
+    }
 
     public static void send(JSONObject jsonObject) {
-        dataQueue.offer(jsonObject);
+        send(jsonObject.getString("msg"), jsonObject.toJSONString());
+    }
+
+    /**
+     * 发送已序列化的消息
+     *
+     * @param msg  消息的msg字段，用于选择通道
+     * @param text 序列化后的JSON
+     */
+    public static void send(String msg, String text) {
+        TransportLane lane = TransportLane.of(msg);
+        if (lane.isDurable()) {
+            try {
+                outboxes.get(lane).append(text);
+            } catch (IOException e) {
+                log.error("write message to outbox failed, message dropped: {}", text, e);
+                return;
+            }
+        } else {
+            TransportOutbox.Entry entry = new TransportOutbox.Entry(0, text, System.currentTimeMillis());
+            while (!controlQueue.offer(entry)) {
+                if (controlQueue.poll() != null) {
+                    laneStats.get(lane).recordDropped(1);
+                }
+            }
+        }
+        synchronized (signal) {
+            signal.notifyAll();
+        }
+    }
+
+    /**
+     * server确认收到该通道seq及之前的所有消息
+     */
+    public static void ack(String lane, long seq) {
+        TransportOutbox outbox = outboxes.get(TransportLane.ofDetail(lane));
+        if (outbox != null) {
+            outbox.ack(seq);
+        }
+    }
+
+    /**
+     * 重新认证通过后调用，从最后确认的位置重放
+     */
+    public static void rewind() {
+        outboxes.values().forEach(TransportOutbox::rewind);
+    }
+
+    /**
+     * 各通道自上次调用以来的发送延迟与当前积压
+     */
+    public static JSONObject getLaneStats() {
+        JSONObject result = new JSONObject();
+        for (TransportLane lane : TransportLane.values()) {
+            JSONObject stats = laneStats.get(lane).snapshot();
+            TransportOutbox outbox = outboxes.get(lane);
+            stats.put("pending", outbox == null ? controlQueue.size() : outbox.pending());
+            result.put(lane.getDetail(), stats);
+        }
+        return result;
     }
 
     public static void readQueue() {
         cachedThreadPool.execute(() -> {
+            int[] credits = new int[TransportLane.values().length];
             while (isKeyAuth) {
+                List<TransportOutbox.Entry> entries = null;
+                TransportLane lane = null;
+                // 逐条发送时已经发出的条数，失败后只放回之后的控制消息
+                int sent = 0;
                 try {
-                    if (client != null && client.isOpen()) {
-                        if (!dataQueue.isEmpty()) {
-                            JSONObject m = dataQueue.poll();
-                            m.put("agentId", BytesTool.agentId);
-                            client.send(m.toJSONString());
-                        } else {
-                            Thread.sleep(1000);
+                    TransportClient current = client;
+                    if (current == null || !current.isOpen()) {
+                        Thread.sleep(500);
+                        continue;
+                    }
+                    lane = nextLane(credits);
+                    if (lane == null) {
+                        continue;
+                    }
+                    entries = poll(lane);
+                    if (entries.isEmpty()) {
+                        continue;
+                    }
+                    if (entries.size() == 1 || !isBatchSupported) {
+                        for (TransportOutbox.Entry entry : entries) {
+                            current.sendMessage(toMessage(new StringBuilder(entry.getText().length() + 64), lane, entry).toString());
+                            sent++;
                         }
                     } else {
-                        Thread.sleep(5000);
+                        current.sendMessage(toBatch(lane, entries));
                     }
+                    if (lane.isDurable() && !isAckSupported) {
+                        outboxes.get(lane).ack(entries.get(entries.size() - 1).getSeq());
+                    }
+                    long now = System.currentTimeMillis();
+                    TransportLaneStats stats = laneStats.get(lane);
+                    for (TransportOutbox.Entry entry : entries) {
+                        stats.record(now - entry.getTime());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
                 } catch (Exception e) {
-                    e.printStackTrace();
+                    log.error("send {} {} message(s) to server failed, retry after reconnect.",
+                            entries == null ? 0 : entries.size() - sent, lane == null ? "" : lane.getDetail(), e);
+                    if (lane != null && !lane.isDurable() && entries != null) {
+                        requeueControl(entries.subList(sent, entries.size()));
+                    }
+                    rewind();
+                    try {
+                        Thread.sleep(1000);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
                 }
             }
         });
     }
+
+    /**
+     * 发送失败的控制消息按原顺序放回队首，队列已被新消息占满时放不下的计入丢弃数
+     */
+    private static void requeueControl(List<TransportOutbox.Entry> entries) {
+        int dropped = 0;
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            if (!controlQueue.offerFirst(entries.get(i))) {
+                dropped += i + 1;
+                break;
+            }
+        }
+        if (dropped > 0) {
+            laneStats.get(TransportLane.CONTROL).recordDropped(dropped);
+            log.info("control queue is full, {} unsent control message(s) dropped.", dropped);
+        }
+    }
+
+    /**
+     * 加权轮询选择下一个发送的通道：按优先级选择还有消息且本轮还有额度的通道，
+     * 有消息的通道额度都用完后开始新的一轮；没有消息时最多等待1秒
+     *
+     * @return 没有消息时返回null
+     */
+    private static TransportLane nextLane(int[] credits) throws InterruptedException {
+        synchronized (signal) {
+            boolean waited = false;
+            while (true) {
+                boolean any = false;
+                for (TransportLane lane : TransportLane.values()) {
+                    if (!hasPending(lane)) {
+                        continue;
+                    }
+                    any = true;
+                    if (credits[lane.ordinal()] > 0) {
+                        credits[lane.ordinal()]--;
+                        return lane;
+                    }
+                }
+                if (any) {
+                    for (TransportLane lane : TransportLane.values()) {
+                        credits[lane.ordinal()] = lane.getWeight();
+                    }
+                    continue;
+                }
+                if (waited) {
+                    return null;
+                }
+                signal.wait(1000);
+                waited = true;
+            }
+        }
+    }
+
+    private static boolean hasPending(TransportLane lane) {
+        TransportOutbox outbox = outboxes.get(lane);
+        return outbox == null ? !controlQueue.isEmpty() : outbox.hasUnread();
+    }
+
+    private static List<TransportOutbox.Entry> poll(TransportLane lane) throws IOException {
+        TransportOutbox outbox = outboxes.get(lane);
+        if (outbox != null) {
+            return outbox.poll(MAX_BATCH_SIZE, MAX_BATCH_CHARS);
+        }
+        List<TransportOutbox.Entry> entries = new ArrayList<>();
+        controlQueue.drainTo(entries, MAX_BATCH_SIZE);
+        return entries;
+    }
+
+    /**
+     * 在已序列化的消息开头补上agentId，持久化通道再补上lane与seq，不再重新序列化
+     * {"agentId":1,"lane":"bulk","seq":2,...}；消息本身已带有agentId（如agentInfo）时不再重复添加
+     */
+    private static StringBuilder toMessage(StringBuilder builder, TransportLane lane, TransportOutbox.Entry entry) {
+        String text = entry.getText();
+        builder.append('{');
+        boolean prefixed = false;
+        if (!hasAgentId(text)) {
+            builder.append("\"agentId\":").append(BytesTool.agentId);
+            prefixed = true;
+        }
+        if (lane.isDurable()) {
+            if (prefixed) {
+                builder.append(',');
+            }
+            builder.append("\"lane\":\"").append(lane.getDetail()).append("\",\"seq\":").append(entry.getSeq());
+            prefixed = true;
+        }
+        if (prefixed && text.length() > 2) {
+            builder.append(',');
+        }
+        return builder.append(text, 1, text.length());
+    }
+
+    /**
+     * 消息顶层是否已有agentId，先做字符串匹配，只有可能存在时才解析
+     */
+    private static boolean hasAgentId(String text) {
+        return text.contains("\"agentId\"") && JSON.parseObject(text).containsKey("agentId");
+    }
+
+    /**
+     * {"msg":"batch","agentId":1,"lane":"bulk","seq":3,"data":[{...},{...}]}，seq为其中最后一条消息的seq
+     */
+    private static String toBatch(TransportLane lane, List<TransportOutbox.Entry> entries) {
+        int chars = 96;
+        for (TransportOutbox.Entry entry : entries) {
+            chars += entry.getText().length() + 64;
+        }
+        StringBuilder builder = new StringBuilder(chars);
+        builder.append("{\"msg\":\"batch\",\"agentId\":").append(BytesTool.agentId)
+                .append(",\"lane\":\"").append(lane.getDetail()).append('"');
+        if (lane.isDurable()) {
+            builder.append(",\"seq\":").append(entries.get(entries.size() - 1).getSeq());
+        }
+        builder.append(",\"data\":[");
+        for (int i = 0; i < entries.size(); i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            toMessage(builder, lane, entries.get(i));
+        }
+        return builder.append("]}").toString();
+    }
 }
@@ -24,9 +24,14 @@ import org.cloud.sonic.agent.bridge.android.AndroidDeviceBridgeTool;
 import org.cloud.sonic.agent.common.config.WsEndpointConfigure;
 import org.cloud.sonic.agent.common.maps.AndroidAPKMap;
 import org.cloud.sonic.agent.common.maps.ScreenMap;
+import org.cloud.sonic.agent.tests.android.minicap.FrameDuplicateDetector;
+import org.cloud.sonic.agent.tests.android.minicap.MiniCapOutputSocketThread;
 import org.cloud.sonic.agent.tests.android.minicap.MiniCapUtil;
+import org.cloud.sonic.agent.tests.android.scrcpy.ScrcpyOutputSocketThread;
 import org.cloud.sonic.agent.tests.android.scrcpy.ScrcpyServerUtil;
+import org.cloud.sonic.agent.tools.AgentExecutors;
 import org.cloud.sonic.agent.tools.BytesTool;
+import org.cloud.sonic.agent.tools.Lifecycle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -39,19 +44,24 @@ import java.io.IOException;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicReference;
 
 @Component
 @ServerEndpoint(value = "/websockets/android/screen/{key}/{udId}/{token}", configurator = WsEndpointConfigure.class)
 public class AndroidScreenWSServer implements IAndroidWSServer {
 
     private final Logger logger = LoggerFactory.getLogger(AndroidScreenWSServer.class);
+    /**
+     * 切换投屏时等待旧输出线程退出的最长时间
+     */
+    private static final long OLD_SCREEN_EXIT_TIMEOUT_SECONDS = 5;
     @Value("${sonic.agent.key}")
     private String key;
     private Map<Session, Thread> rotationMap = new ConcurrentHashMap<>();
     private Map<Session, Integer> rotationStatusMap = new ConcurrentHashMap<>();
     private Map<Session, String> typeMap = new ConcurrentHashMap<>();
     private Map<Session, String> picMap = new ConcurrentHashMap<>();
+    private Map<Session, String> profileMap = new ConcurrentHashMap<>();
+    private Map<Session, String> dedupMap = new ConcurrentHashMap<>();
 
     @OnOpen
     public void onOpen(Session session, @PathParam("key") String secretKey,
@@ -115,7 +125,7 @@ public class AndroidScreenWSServer implements IAndroidWSServer {
 
                         String finalPath = path;
 
-                        Thread rotationPro = new Thread(() -> {
+                        Thread rotationPro = AgentExecutors.newThread(String.format("android-rotation-%s", iDevice.getSerialNumber()), () -> {
                             try {
                                 //开始启动
                                 iDevice.executeShellCommand(String.format("CLASSPATH=%s exec app_process /system/bin org.cloud.sonic.android.plugin.SonicPluginMonitorService", finalPath)
@@ -160,6 +170,25 @@ public class AndroidScreenWSServer implements IAndroidWSServer {
                 startScreen(session);
                 break;
             }
+            case "dedup": {
+                // minicap重复帧检测模式：hash、phash、none
+                dedupMap.put(session, msg.getString("detail"));
+                Thread screenThread = ScreenMap.getMap().get(session);
+                if (screenThread instanceof MiniCapOutputSocketThread) {
+                    ((MiniCapOutputSocketThread) screenThread).setDuplicateDetector(
+                            FrameDuplicateDetector.create(msg.getString("detail")));
+                }
+                break;
+            }
+            case "profile": {
+                // scrcpy码率档位，auto为按网络自动调整
+                profileMap.put(session, msg.getString("detail"));
+                Thread screenThread = ScreenMap.getMap().get(session);
+                if (screenThread instanceof ScrcpyOutputSocketThread) {
+                    ((ScrcpyOutputSocketThread) screenThread).pinProfile(msg.getString("detail"));
+                }
+                break;
+            }
         }
     }
 
@@ -169,14 +198,16 @@ public class AndroidScreenWSServer implements IAndroidWSServer {
             Thread old = ScreenMap.getMap().get(session);
             if (old != null) {
                 old.interrupt();
-                do {
-                    try {
-                        Thread.sleep(1000);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
+                // 等待旧的输出线程退出并从ScreenMap移除，卡在adb调用等情况下不能一直占用消息线程
+                try {
+                    if (!((Lifecycle.Aware) old).getLifecycle().awaitTerminated(OLD_SCREEN_EXIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                        logger.warn("{} : old screen thread {} did not exit in {}s, replace it.",
+                                session.getId(), old.getName(), OLD_SCREEN_EXIT_TIMEOUT_SECONDS);
+                        ScreenMap.getMap().remove(session, old);
                     }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 }
-                while (ScreenMap.getMap().get(session) != null);
             }
             if (typeMap.get(session) == null) {
                 typeMap.put(session, "scrcpy");
@@ -186,17 +217,24 @@ public class AndroidScreenWSServer implements IAndroidWSServer {
                     ScrcpyServerUtil scrcpyServerUtil = new ScrcpyServerUtil();
                     Thread scrcpyThread = scrcpyServerUtil.start(iDevice.getSerialNumber(), rotationStatusMap.get(session), session);
                     ScreenMap.getMap().put(session, scrcpyThread);
+                    if (profileMap.get(session) != null && scrcpyThread instanceof ScrcpyOutputSocketThread) {
+                        ((ScrcpyOutputSocketThread) scrcpyThread).pinProfile(profileMap.get(session));
+                    }
                     break;
                 }
                 case "minicap": {
                     MiniCapUtil miniCapUtil = new MiniCapUtil();
-                    AtomicReference<String[]> banner = new AtomicReference<>(new String[24]);
+                    // 画面尺寸由采集中心直接推送，这里不需要头部信息
                     Thread miniCapThread = miniCapUtil.start(
-                            iDevice.getSerialNumber(), banner, null,
+                            iDevice.getSerialNumber(), null, null,
                             picMap.get(session) == null ? "high" : picMap.get(session),
                             rotationStatusMap.get(session), session
                     );
                     ScreenMap.getMap().put(session, miniCapThread);
+                    if (dedupMap.get(session) != null && miniCapThread instanceof MiniCapOutputSocketThread) {
+                        ((MiniCapOutputSocketThread) miniCapThread).setDuplicateDetector(
+                                FrameDuplicateDetector.create(dedupMap.get(session)));
+                    }
                     break;
                 }
             }
@@ -219,6 +257,8 @@ public class AndroidScreenWSServer implements IAndroidWSServer {
         }
         typeMap.remove(session);
         picMap.remove(session);
+        profileMap.remove(session);
+        dedupMap.remove(session);
         try {
             session.close();
         } catch (IOException e) {
@@ -27,6 +27,10 @@ import org.cloud.sonic.agent.common.config.WsEndpointConfigure;
 import org.cloud.sonic.agent.common.maps.AndroidAPKMap;
 import org.cloud.sonic.agent.tools.BytesTool;
 import org.cloud.sonic.agent.tools.PortTool;
+import org.cloud.sonic.agent.tools.WebSocketOutbox;
+import org.cloud.sonic.agent.tools.nio.DeviceChannel;
+import org.cloud.sonic.agent.tools.nio.DeviceSocketReactor;
+import org.cloud.sonic.agent.tools.nio.LengthPrefixedHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -36,9 +40,6 @@ import javax.websocket.*;
 import javax.websocket.server.PathParam;
 import javax.websocket.server.ServerEndpoint;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
@@ -62,8 +63,7 @@ public class AndroidTerminalWSServer {
     private String key;
     private Map<Session, IDevice> udIdMap = new ConcurrentHashMap<>();
     private Map<Session, Future<?>> terminalMap = new ConcurrentHashMap<>();
-    private Map<Session, Thread> socketMap = new ConcurrentHashMap<>();
-    private Map<Session, OutputStream> outputStreamMap = new ConcurrentHashMap<>();
+    private Map<Session, DeviceChannel> socketMap = new ConcurrentHashMap<>();
     private Map<Session, Future<?>> logcatMap = new ConcurrentHashMap<>();
 
     @OnOpen
@@ -113,9 +113,9 @@ public class AndroidTerminalWSServer {
         switch (msg.getString("type")) {
             case "appList": {
                 startService(udIdMap.get(session), session);
-                if (outputStreamMap.get(session) != null) {
+                if (socketMap.get(session) != null) {
                     try {
-                        outputStreamMap.get(session).write("action_get_all_app_info".getBytes(StandardCharsets.UTF_8));
+                        socketMap.get(session).write("action_get_all_app_info".getBytes(StandardCharsets.UTF_8));
                     } catch (IOException e) {
                         e.printStackTrace();
                     }
@@ -124,9 +124,9 @@ public class AndroidTerminalWSServer {
             }
             case "wifiList": {
                 startService(udIdMap.get(session), session);
-                if (outputStreamMap.get(session) != null) {
+                if (socketMap.get(session) != null) {
                     try {
-                        outputStreamMap.get(session).write("action_get_all_wifi_info".getBytes(StandardCharsets.UTF_8));
+                        socketMap.get(session).write("action_get_all_wifi_info".getBytes(StandardCharsets.UTF_8));
                     } catch (IOException e) {
                         e.printStackTrace();
                     }
@@ -258,9 +258,15 @@ public class AndroidTerminalWSServer {
                 logger.error(e.getMessage());
             }
         }
-        Thread s = socketMap.get(session);
+        DeviceChannel s = socketMap.remove(session);
+        WebSocketOutbox.remove(session);
         if (s != null) {
-            s.interrupt();
+            try {
+                s.write("org.cloud.sonic.android.STOP".getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            s.close();
         }
         terminalMap.remove(session);
         Future<?> logcat = logcatMap.get(session);
@@ -282,7 +288,7 @@ public class AndroidTerminalWSServer {
     }
 
     public void startService(IDevice iDevice, Session session) {
-        if (socketMap.get(session) != null && socketMap.get(session).isAlive()) {
+        if (socketMap.get(session) != null && socketMap.get(session).isOpen()) {
             return;
         }
         AndroidDeviceBridgeTool.executeCommand(iDevice, "am start -n org.cloud.sonic.android/.MainActivity");
@@ -300,108 +306,49 @@ public class AndroidTerminalWSServer {
             }
             has = AndroidDeviceBridgeTool.executeCommand(iDevice, "cat /proc/net/unix | grep sonicmanagersocket");
         }
-        Thread manager = new ManagerThread(iDevice, session, outputStreamMap);
-        manager.start();
-        int w = 0;
-        while (outputStreamMap.get(session) == null) {
-            if (w > 10) {
-                break;
-            }
-            try {
-                Thread.sleep(500);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-            w++;
+        int managerPort = PortTool.getPort();
+        AndroidDeviceBridgeTool.forward(iDevice, managerPort, "sonicmanagersocket");
+        try {
+            DeviceChannel manager = DeviceSocketReactor.getInstance().connect(
+                    String.format("manager-%s-%s", iDevice.getSerialNumber(), session.getId()), managerPort,
+                    new ManagerHandler(iDevice, session, managerPort));
+            socketMap.put(session, manager);
+        } catch (IOException e) {
+            log.info("error: {}", e.getMessage());
+            AndroidDeviceBridgeTool.removeForward(iDevice, managerPort, "sonicmanagersocket");
         }
-        socketMap.put(session, manager);
     }
 
-    static class ManagerThread extends Thread {
-
-        private Socket managerSocket = null;
-        private InputStream inputStream = null;
-        private OutputStream outputStream = null;
+    static class ManagerHandler extends LengthPrefixedHandler {
 
         private IDevice iDevice;
         private Session session;
-        private Map<Session, OutputStream> outputStreamMap;
+        private int managerPort;
 
-        public ManagerThread(IDevice iDevice, Session session, Map<Session, OutputStream> outputStreamMap) {
+        public ManagerHandler(IDevice iDevice, Session session, int managerPort) {
             this.iDevice = iDevice;
             this.session = session;
-            this.outputStreamMap = outputStreamMap;
+            this.managerPort = managerPort;
         }
 
         @Override
-        public void run() {
-            int managerPort = PortTool.getPort();
-            AndroidDeviceBridgeTool.forward(iDevice, managerPort, "sonicmanagersocket");
-            try {
-                managerSocket = new Socket("localhost", managerPort);
-                inputStream = managerSocket.getInputStream();
-                outputStreamMap.put(session, managerSocket.getOutputStream());
-                while (managerSocket.isConnected() && !Thread.interrupted()) {
-                    byte[] lengthBytes = inputStream.readNBytes(32);
-                    if (lengthBytes.length == 0) {
-                        break;
-                    }
-                    StringBuffer binStr = new StringBuffer();
-                    for (byte lengthByte : lengthBytes) {
-                        binStr.append(lengthByte);
-                    }
-                    Integer readLen = Integer.valueOf(binStr.toString(), 2);
-
-                    // 根据长度读取数据体
-                    byte[] dataBytes = inputStream.readNBytes(readLen);
-                    String dataJson = new String(dataBytes);
-                    JSONObject managerDetail = new JSONObject();
-                    JSONObject data = JSON.parseObject(dataJson);
-                    if (data.getString("appName") != null) {
-                        managerDetail.put("msg", "appListDetail");
-                    } else {
-                        managerDetail.put("msg", "wifiListDetail");
-                    }
-                    managerDetail.put("detail", JSON.parseObject(dataJson));
-                    BytesTool.sendText(session, managerDetail.toJSONString());
-                }
-            } catch (IOException e) {
-                log.info("error: {}", e.getMessage());
+        protected void onMessage(ByteBuffer message) {
+            String dataJson = StandardCharsets.UTF_8.decode(message).toString();
+            JSONObject managerDetail = new JSONObject();
+            JSONObject data = JSON.parseObject(dataJson);
+            if (data.getString("appName") != null) {
+                managerDetail.put("msg", "appListDetail");
+            } else {
+                managerDetail.put("msg", "wifiListDetail");
             }
-            AndroidDeviceBridgeTool.removeForward(iDevice, managerPort, "sonicmanagersocket");
-            outputStreamMap.remove(session);
+            managerDetail.put("detail", data);
+            WebSocketOutbox.sendText(session, managerDetail.toJSONString());
         }
 
         @Override
-        public void interrupt() {
-            super.interrupt();
-            stopManager();
-        }
-
-        public void stopManager() {
-            if (outputStream != null) {
-                try {
-                    outputStream.write("org.cloud.sonic.android.STOP".getBytes(StandardCharsets.UTF_8));
-                    outputStream.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-            if (inputStream != null) {
-                try {
-                    inputStream.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-            if (managerSocket != null && managerSocket.isConnected()) {
-                try {
-                    managerSocket.close();
-                    log.info("manager socket closed.");
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
+        public void onClosed() {
+            AndroidDeviceBridgeTool.removeForward(iDevice, managerPort, "sonicmanagersocket");
+            log.info("manager socket closed.");
         }
     }
 }
@@ -24,16 +24,20 @@ import org.cloud.sonic.agent.bridge.android.AndroidDeviceBridgeTool;
 import org.cloud.sonic.agent.bridge.android.AndroidDeviceLocalStatus;
 import org.cloud.sonic.agent.bridge.android.AndroidDeviceThreadPool;
 import org.cloud.sonic.agent.bridge.android.AndroidSupplyTool;
+import org.cloud.sonic.agent.bridge.android.UiaServerPool;
 import org.cloud.sonic.agent.common.config.WsEndpointConfigure;
 import org.cloud.sonic.agent.common.interfaces.DeviceStatus;
 import org.cloud.sonic.agent.common.interfaces.PlatformType;
 import org.cloud.sonic.agent.common.maps.*;
 import org.cloud.sonic.agent.common.models.HandleDes;
+import org.cloud.sonic.agent.tests.TaskKey;
 import org.cloud.sonic.agent.tests.TaskManager;
-import org.cloud.sonic.agent.tests.android.AndroidRunStepThread;
 import org.cloud.sonic.agent.tools.*;
 import org.cloud.sonic.agent.tools.file.DownloadTool;
 import org.cloud.sonic.agent.tools.file.UploadTools;
+import org.cloud.sonic.agent.tools.nio.DeviceChannel;
+import org.cloud.sonic.agent.tools.nio.DeviceSocketHandler;
+import org.cloud.sonic.agent.tools.nio.DeviceSocketReactor;
 import org.cloud.sonic.agent.tools.poco.PocoTool;
 import org.cloud.sonic.agent.transport.TransportWorker;
 import org.slf4j.Logger;
@@ -48,8 +52,9 @@ import javax.websocket.server.PathParam;
 import javax.websocket.server.ServerEndpoint;
 import java.io.File;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
@@ -67,7 +72,7 @@ public class AndroidWSServer implements IAndroidWSServer {
     private String key;
     @Value("${sonic.agent.port}")
     private int port;
-    private Map<Session, OutputStream> outputMap = new ConcurrentHashMap<>();
+    private Map<Session, DeviceChannel> outputMap = new ConcurrentHashMap<>();
     private List<Session> NotStopSession = new ArrayList<>();
     @Autowired
     private AgentManagerTool agentManagerTool;
@@ -140,7 +145,7 @@ public class AndroidWSServer implements IAndroidWSServer {
         Semaphore isTouchFinish = new Semaphore(0);
         String finalPath = path;
 
-        Thread touchPro = new Thread(() -> {
+        Thread touchPro = AgentExecutors.newThread(String.format("android-touch-%s", iDevice.getSerialNumber()), () -> {
             try {
                 //开始启动
                 iDevice.executeShellCommand(String.format("CLASSPATH=%s exec app_process /system/bin org.cloud.sonic.android.plugin.SonicPluginTouchService", finalPath)
@@ -190,50 +195,37 @@ public class AndroidWSServer implements IAndroidWSServer {
                 }
             }
             AndroidDeviceBridgeTool.forward(iDevice, finalTouchPort, "sonictouchservice");
-            Socket touchSocket = null;
-            OutputStream outputStream = null;
             try {
-                touchSocket = new Socket("localhost", finalTouchPort);
-                outputStream = touchSocket.getOutputStream();
-                outputMap.put(session, outputStream);
-                while (outputMap.get(session) != null && (touchPro.isAlive())) {
-                    Thread.sleep(1000);
-                }
-            } catch (IOException | InterruptedException e) {
+                // touch服务只写不读，连接交给统一的IO线程，不再占用一个线程等待
+                DeviceChannel touchChannel = DeviceSocketReactor.getInstance().connect(
+                        String.format("touch-%s-%s", iDevice.getSerialNumber(), session.getId()), finalTouchPort,
+                        new DeviceSocketHandler() {
+                            private final ByteBuffer discard = ByteBuffer.allocate(1024);
+
+                            @Override
+                            public boolean onReadable(ReadableByteChannel channel) throws IOException {
+                                int read;
+                                while ((read = channel.read(discard)) > 0) {
+                                    discard.clear();
+                                }
+                                return read == 0 && touchPro.isAlive();
+                            }
+
+                            @Override
+                            public void onClosed() {
+                                outputMap.remove(session);
+                                if (touchPro.isAlive()) {
+                                    touchPro.interrupt();
+                                    logger.info("touch thread closed.");
+                                }
+                                AndroidDeviceBridgeTool.removeForward(iDevice, finalTouchPort, "sonictouchservice");
+                            }
+                        });
+                outputMap.put(session, touchChannel);
+            } catch (IOException e) {
                 e.printStackTrace();
-            } finally {
-                if (NotStopSession.contains(session)) {
-                    try {
-                        outputStream.write("r\n".getBytes());
-                        outputStream.flush();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    } finally {
-                        NotStopSession.remove(session);
-                    }
-                }
-                if (touchPro.isAlive()) {
-                    touchPro.interrupt();
-                    logger.info("touch thread closed.");
-                }
-                if (touchSocket != null && touchSocket.isConnected()) {
-                    try {
-                        touchSocket.close();
-                        logger.info("touch socket closed.");
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-                if (outputStream != null) {
-                    try {
-                        outputStream.close();
-                        logger.info("touch output stream closed.");
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
+                AndroidDeviceBridgeTool.removeForward(iDevice, finalTouchPort, "sonictouchservice");
             }
-            AndroidDeviceBridgeTool.removeForward(iDevice, finalTouchPort, "sonictouchservice");
         });
 
         AndroidDeviceThreadPool.cachedThreadPool.execute(() -> AndroidDeviceBridgeTool.pushYadb(iDevice));
@@ -337,11 +329,10 @@ public class AndroidWSServer implements IAndroidWSServer {
                         + " shell app_process -Djava.class.path=/data/local/tmp/yadb /data/local/tmp com.ysbing.yadb.Main -keyboard " + msg.getString("detail"));
                 break;
             case "touch":
-                OutputStream outputStream = outputMap.get(session);
-                if (outputStream != null) {
+                DeviceChannel touchChannel = outputMap.get(session);
+                if (touchChannel != null) {
                     try {
-                        outputStream.write(msg.getString("detail").getBytes());
-                        outputStream.flush();
+                        touchChannel.write(msg.getString("detail").getBytes());
                     } catch (IOException e) {
                         e.printStackTrace();
                     }
@@ -394,9 +385,7 @@ public class AndroidWSServer implements IAndroidWSServer {
                     }
                     case "stopStep": {
                         TaskManager.forceStopDebugStepThread(
-                                AndroidRunStepThread.ANDROID_RUN_STEP_TASK_PRE.formatted(
-                                        0, msg.getInteger("caseId"), msg.getString("udId")
-                                )
+                                new TaskKey(PlatformType.ANDROID, 0, msg.getInteger("caseId"), msg.getString("udId"))
                         );
                         break;
                     }
@@ -528,11 +517,17 @@ public class AndroidWSServer implements IAndroidWSServer {
         AndroidDeviceThreadPool.cachedThreadPool.execute(() -> {
             try {
                 AndroidDeviceLocalStatus.startDebug(iDevice.getSerialNumber());
-                int port = AndroidDeviceBridgeTool.startUiaServer(iDevice);
-                finalAndroidStepHandler1.startAndroidDriver(iDevice, port);
+                UiaServerPool.Lease uiaLease = UiaServerPool.lease(iDevice);
+                finalAndroidStepHandler1.setUiaLease(uiaLease);
+                finalAndroidStepHandler1.startAndroidDriver(iDevice, uiaLease.getPort());
                 result.put("status", "success");
                 result.put("detail", "初始化Driver完成！");
                 HandlerMap.getAndroidMap().put(session.getId(), finalAndroidStepHandler1);
+                // 初始化期间会话已退出，exit拿不到handler，由这里归还UIA2服务，否则该设备之后无法再租用
+                if (session.getUserProperties().containsKey("exited")
+                        && HandlerMap.getAndroidMap().remove(session.getId(), finalAndroidStepHandler1)) {
+                    finalAndroidStepHandler1.closeAndroidDriver();
+                }
             } catch (Exception e) {
                 logger.error(e.getMessage());
                 result.put("status", "error");
@@ -546,17 +541,16 @@ public class AndroidWSServer implements IAndroidWSServer {
     }
 
     private void exit(Session session) {
+        session.getUserProperties().put("exited", true);
         AndroidDeviceLocalStatus.finish(session.getUserProperties().get("udId") + "");
         IDevice iDevice = udIdMap.get(session);
         try {
-            AndroidStepHandler androidStepHandler = HandlerMap.getAndroidMap().get(session.getId());
+            AndroidStepHandler androidStepHandler = HandlerMap.getAndroidMap().remove(session.getId());
             if (androidStepHandler != null) {
                 androidStepHandler.closeAndroidDriver();
             }
         } catch (Exception e) {
             logger.info("关闭driver异常!");
-        } finally {
-            HandlerMap.getAndroidMap().remove(session.getId());
         }
         if (iDevice != null) {
             AndroidDeviceBridgeTool.executeCommand(iDevice, "am force-stop org.cloud.sonic.android");
@@ -566,7 +560,19 @@ public class AndroidWSServer implements IAndroidWSServer {
             SGMTool.stopProxy(iDevice.getSerialNumber());
             AndroidAPKMap.getMap().remove(iDevice.getSerialNumber());
         }
-        outputMap.remove(session);
+        DeviceChannel touchChannel = outputMap.remove(session);
+        if (touchChannel != null) {
+            if (NotStopSession.contains(session)) {
+                try {
+                    touchChannel.write("r\n".getBytes());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    NotStopSession.remove(session);
+                }
+            }
+            touchChannel.close();
+        }
         removeUdIdMapAndSet(session);
         WebSocketSessionMap.removeSession(session);
         try {
@@ -20,8 +20,11 @@ import com.android.ddmlib.IDevice;
 import org.cloud.sonic.agent.bridge.android.AndroidDeviceBridgeTool;
 import org.cloud.sonic.agent.common.config.WsEndpointConfigure;
 import org.cloud.sonic.agent.common.maps.AndroidAPKMap;
-import org.cloud.sonic.agent.tools.BytesTool;
 import org.cloud.sonic.agent.tools.PortTool;
+import org.cloud.sonic.agent.tools.WebSocketOutbox;
+import org.cloud.sonic.agent.tools.nio.DeviceChannel;
+import org.cloud.sonic.agent.tools.nio.DeviceSocketReactor;
+import org.cloud.sonic.agent.tools.nio.LengthPrefixedHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -34,8 +37,6 @@ import javax.websocket.Session;
 import javax.websocket.server.PathParam;
 import javax.websocket.server.ServerEndpoint;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -47,7 +48,7 @@ public class AudioWSServer {
     @Value("${sonic.agent.key}")
     private String key;
     private Map<Session, IDevice> udIdMap = new ConcurrentHashMap<>();
-    private Map<Session, Thread> audioMap = new ConcurrentHashMap<>();
+    private Map<Session, DeviceChannel> audioMap = new ConcurrentHashMap<>();
 
     @OnOpen
     public void onOpen(Session session, @PathParam("key") String secretKey, @PathParam("udId") String udId) throws Exception {
@@ -95,73 +96,33 @@ public class AudioWSServer {
             has = AndroidDeviceBridgeTool.executeCommand(iDevice, "cat /proc/net/unix | grep sonicaudioservice");
         }
         int appAudioPort = PortTool.getPort();
-        Thread audio = new Thread(() -> {
-            try {
-                AndroidDeviceBridgeTool.forward(iDevice, appAudioPort, "sonicaudioservice");
-                Socket audioSocket = null;
-                InputStream inputStream = null;
-                try {
-                    audioSocket = new Socket("localhost", appAudioPort);
-                    inputStream = audioSocket.getInputStream();
-                    while (audioSocket.isConnected() && !Thread.interrupted()) {
-                        byte[] lengthBytes = inputStream.readNBytes(32);
-                        if (Thread.interrupted() || lengthBytes.length == 0) {
-                            break;
-                        }
-                        StringBuffer binStr = new StringBuffer();
-                        for (byte lengthByte : lengthBytes) {
-                            binStr.append(lengthByte);
-                        }
-                        Integer readLen = Integer.valueOf(binStr.toString(), 2);
-                        byte[] dataBytes = inputStream.readNBytes(readLen);
-                        ByteBuffer byteBuffer = ByteBuffer.allocate(dataBytes.length);
-                        byteBuffer.put(dataBytes);
-                        byteBuffer.flip();
-                        BytesTool.sendByte(session, byteBuffer);
-                    }
-                } catch (IOException e) {
-                    e.printStackTrace();
-                } finally {
-                    if (audioSocket != null && audioSocket.isConnected()) {
-                        try {
-                            audioSocket.close();
-                        } catch (IOException e) {
-                            e.printStackTrace();
+        AndroidDeviceBridgeTool.forward(iDevice, appAudioPort, "sonicaudioservice");
+        try {
+            DeviceChannel audio = DeviceSocketReactor.getInstance().connect(
+                    String.format("audio-%s-%s", iDevice.getSerialNumber(), session.getId()), appAudioPort,
+                    new LengthPrefixedHandler() {
+                        @Override
+                        protected void onMessage(ByteBuffer message) {
+                            WebSocketOutbox.sendByte(session, message);
                         }
-                    }
-                    if (inputStream != null) {
-                        try {
-                            inputStream.close();
-                        } catch (IOException e) {
-                            e.printStackTrace();
+
+                        @Override
+                        public void onClosed() {
+                            AndroidDeviceBridgeTool.removeForward(iDevice, appAudioPort, "sonicaudioservice");
                         }
-                    }
-                }
-            } catch (Exception e) {
-            }
+                    });
+            audioMap.put(session, audio);
+        } catch (IOException e) {
+            e.printStackTrace();
             AndroidDeviceBridgeTool.removeForward(iDevice, appAudioPort, "sonicaudioservice");
-        });
-        audio.start();
-        audioMap.put(session, audio);
+        }
     }
 
     private void stopAudio(Session session) {
-        if (audioMap.get(session) != null) {
-            audioMap.get(session).interrupt();
-            int wait = 0;
-            while (!audioMap.get(session).isInterrupted()) {
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-                wait++;
-                if (wait >= 3) {
-                    break;
-                }
-            }
+        DeviceChannel audio = audioMap.remove(session);
+        if (audio != null) {
+            audio.close();
         }
-        audioMap.remove(session);
     }
 
 //    @OnMessage
@@ -190,6 +151,7 @@ public class AudioWSServer {
 
     private void exit(Session session) {
         stopAudio(session);
+        WebSocketOutbox.remove(session);
         udIdMap.remove(session);
         try {
             session.close();
@@ -22,14 +22,16 @@ import org.cloud.sonic.agent.automation.IOSStepHandler;
 import org.cloud.sonic.agent.bridge.ios.IOSDeviceLocalStatus;
 import org.cloud.sonic.agent.bridge.ios.IOSDeviceThreadPool;
 import org.cloud.sonic.agent.bridge.ios.SibTool;
+import org.cloud.sonic.agent.bridge.ios.WdaPool;
 import org.cloud.sonic.agent.common.config.WsEndpointConfigure;
 import org.cloud.sonic.agent.common.interfaces.DeviceStatus;
+import org.cloud.sonic.agent.common.interfaces.PlatformType;
 import org.cloud.sonic.agent.common.maps.DevicesLockMap;
 import org.cloud.sonic.agent.common.maps.HandlerMap;
 import org.cloud.sonic.agent.common.maps.WebSocketSessionMap;
 import org.cloud.sonic.agent.common.models.HandleDes;
+import org.cloud.sonic.agent.tests.TaskKey;
 import org.cloud.sonic.agent.tests.TaskManager;
-import org.cloud.sonic.agent.tests.ios.IOSRunStepThread;
 import org.cloud.sonic.agent.tools.AgentManagerTool;
 import org.cloud.sonic.agent.tools.PortTool;
 import org.cloud.sonic.agent.tools.SGMTool;
@@ -101,22 +103,24 @@ public class IOSWSServer implements IIOSWSServer {
             return;
         }
         saveUdIdMapAndSet(session, udId);
-        int[] ports = SibTool.startWda(udId);
+        // 复用设备上已启动的WDA，关闭driver时归还
+        WdaPool.Lease wdaLease = WdaPool.lease(udId);
         JSONObject picFinish = new JSONObject();
         picFinish.put("msg", "picFinish");
-        picFinish.put("wda", ports[0]);
-        picFinish.put("port", ports[1]);
+        picFinish.put("wda", wdaLease.getWdaPort());
+        picFinish.put("port", wdaLease.getMjpegPort());
         sendText(session, picFinish.toJSONString());
-        if (ports[0] != 0) {
+        if (wdaLease.getWdaPort() != 0) {
             SibTool.orientationWatcher(udId, session);
         }
 
         IOSDeviceThreadPool.cachedThreadPool.execute(() -> {
             IOSStepHandler iosStepHandler = new IOSStepHandler();
             iosStepHandler.setTestMode(0, 0, udId, DeviceStatus.DEBUGGING, session.getId());
+            iosStepHandler.setWdaLease(wdaLease);
             JSONObject result = new JSONObject();
             try {
-                iosStepHandler.startIOSDriver(udId, ports[0]);
+                iosStepHandler.startIOSDriver(udId, wdaLease.getWdaPort());
                 result.put("status", "success");
                 result.put("width", iosStepHandler.getDriver().getWindowSize().getWidth());
                 result.put("height", iosStepHandler.getDriver().getWindowSize().getHeight());
@@ -280,9 +284,7 @@ public class IOSWSServer implements IIOSWSServer {
                         }
                         case "stopStep": {
                             TaskManager.forceStopDebugStepThread(
-                                    IOSRunStepThread.IOS_RUN_STEP_TASK_PRE.formatted(
-                                            0, msg.getInteger("caseId"), msg.getString("udId")
-                                    )
+                                    new TaskKey(PlatformType.IOS, 0, msg.getInteger("caseId"), msg.getString("udId"))
                             );
                             break;
                         }
@@ -0,0 +1,74 @@
+package org.cloud.sonic.agent.tests;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class LogSpoolTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("log-spool").toFile();
+        LogSpool.start(dir, 4096, Long.MAX_VALUE);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        LogSpool.stop();
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void testRotateAndReplay() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            LogSpool.append(1, 2, "192.168.1.2:5555", "{\"msg\":\"step\",\"i\":" + i + "}");
+            LogSpool.append(1, 3, "192.168.1.2:5555", "{\"msg\":\"step\",\"other\":" + i + "}");
+        }
+        LogSpool.close(1, 2, "192.168.1.2:5555");
+        LogSpool.stop();
+        String[] names = dir.list();
+        Assert.assertNotNull(names);
+        Assert.assertTrue(names.length > 2);
+        for (String name : names) {
+            Assert.assertTrue(name, name.startsWith("1-2-192.168.1.2_5555.") || name.startsWith("1-3-192.168.1.2_5555."));
+        }
+        List<String> lines = new ArrayList<>();
+        Assert.assertEquals(1000, LogSpool.replay(1, 2, "192.168.1.2:5555", lines::add));
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals("{\"msg\":\"step\",\"i\":" + i + "}", lines.get(i));
+        }
+    }
+
+    @Test
+    public void testReplayOpenFile() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            LogSpool.append(5, 6, "emulator-5554", "{\"msg\":\"step\",\"i\":" + i + "}");
+        }
+        // 写线程处理完队列后刷新，未关闭的文件也可以读取
+        List<String> lines = new ArrayList<>();
+        for (int retry = 0; retry < 50 && lines.size() < 10; retry++) {
+            Thread.sleep(20);
+            lines.clear();
+            LogSpool.replay(5, 6, "emulator-5554", lines::add);
+        }
+        Assert.assertEquals(10, lines.size());
+        LogSpool.append(5, 6, "emulator-5554", "{\"msg\":\"status\"}");
+        LogSpool.close(5, 6, "emulator-5554");
+        LogSpool.stop();
+        lines.clear();
+        Assert.assertEquals(11, LogSpool.replay(5, 6, "emulator-5554", lines::add));
+    }
+}
@@ -0,0 +1,72 @@
+package org.cloud.sonic.agent.tests;
+
+import com.alibaba.fastjson.JSONObject;
+import org.cloud.sonic.agent.tools.LogClock;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比旧的日志时间戳处理与 {@link LogClock}
+ * 模拟monkey、fastbot运行时的一条步骤日志：补上cid、rid、udId与时间后序列化，
+ * testing为发往server的毫秒时间戳，debugging为展示给前端的 HH:mm:ss
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LogUtilBenchmark {
+
+    private static final String DETAIL = "点击坐标 (540, 1170)，耗时 12 ms";
+
+    @Benchmark
+    public String legacyTesting() {
+        JSONObject log = new JSONObject();
+        log.put("msg", "step");
+        log.put("des", "");
+        log.put("status", 1);
+        log.put("log", DETAIL);
+        log.put("cid", 12);
+        log.put("rid", 345);
+        log.put("udId", "emulator-5554");
+        log.put("time", new Date());
+        return log.toJSONString();
+    }
+
+    @Benchmark
+    public String logClockTesting() {
+        LogEvent log = LogEvent.of("step");
+        log.put("des", "");
+        log.put("status", 1);
+        log.put("log", DETAIL);
+        log.put("cid", 12);
+        log.put("rid", 345);
+        log.put("udId", "emulator-5554");
+        log.put("time", LogClock.now());
+        return log.toJSONString();
+    }
+
+    @Benchmark
+    public String legacyTimestamp() {
+        SimpleDateFormat sf = new SimpleDateFormat("HH:mm:ss");
+        return sf.format(new Date());
+    }
+
+    @Benchmark
+    public String logClockTimestamp() {
+        return LogClock.formatTime();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(LogUtilBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
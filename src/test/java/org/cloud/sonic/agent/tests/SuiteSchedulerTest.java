@@ -0,0 +1,116 @@
+package org.cloud.sonic.agent.tests;
+
+import org.cloud.sonic.agent.common.interfaces.PlatformType;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SuiteSchedulerTest {
+    private final Set<String> busyDevices = ConcurrentHashMap.newKeySet();
+    private final Map<String, AtomicInteger> runningByDevice = new ConcurrentHashMap<>();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger peak = new AtomicInteger();
+    private final AtomicInteger started = new AtomicInteger();
+    private final AtomicInteger overlapped = new AtomicInteger();
+
+    private class FakeCase extends Thread implements SuiteCase {
+        private final TaskKey key;
+
+        FakeCase(int rid, int cid, String udId) {
+            this.key = new TaskKey(PlatformType.ANDROID, rid, cid, udId);
+        }
+
+        @Override
+        public TaskKey getTaskKey() {
+            return key;
+        }
+
+        @Override
+        public boolean occupyDevice() {
+            return busyDevices.add(key.getUdId());
+        }
+
+        @Override
+        public void onWaitDevice() {
+        }
+
+        @Override
+        public void onWaitDeviceTimeOut() {
+        }
+
+        @Override
+        public void run() {
+            started.incrementAndGet();
+            peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+            if (runningByDevice.computeIfAbsent(key.getUdId(), k -> new AtomicInteger()).incrementAndGet() > 1) {
+                overlapped.incrementAndGet();
+            }
+            try {
+                Thread.sleep(30);
+            } catch (InterruptedException ignored) {
+            } finally {
+                runningByDevice.get(key.getUdId()).decrementAndGet();
+                running.decrementAndGet();
+                busyDevices.remove(key.getUdId());
+                TaskManager.onBootThreadFinished(key, this);
+                SuiteScheduler.onCaseFinished(key);
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        SuiteScheduler.setMaxRunning(0);
+    }
+
+    private void awaitFinished(int resultId) throws InterruptedException {
+        for (int i = 0; i < 500 && SuiteScheduler.isRunning(resultId); i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertFalse(SuiteScheduler.isRunning(resultId));
+    }
+
+    @Test
+    public void testSerialPerDeviceWithCap() throws Exception {
+        SuiteScheduler.setMaxRunning(2);
+        List<SuiteCase> cases = new ArrayList<>();
+        for (int cid = 1; cid <= 3; cid++) {
+            for (String udId : new String[]{"emulator-5554", "emulator-5556", "00008030-001A2B3C4D5E6F70"}) {
+                cases.add(new FakeCase(1, cid, udId));
+            }
+        }
+        SuiteScheduler.enqueue(cases);
+        // 重复下发的用例忽略
+        SuiteScheduler.enqueue(List.of(new FakeCase(1, 1, "emulator-5554")));
+        awaitFinished(1);
+        Assert.assertEquals(9, started.get());
+        Assert.assertEquals(0, overlapped.get());
+        Assert.assertTrue(peak.get() <= 2);
+    }
+
+    @Test
+    public void testBusyDeviceAndCancel() throws Exception {
+        busyDevices.add("busy-device");
+        SuiteScheduler.enqueue(List.of(new FakeCase(2, 1, "busy-device"), new FakeCase(2, 2, "busy-device")));
+        Thread.sleep(50);
+        Assert.assertEquals(0, started.get());
+        busyDevices.remove("busy-device");
+        SuiteScheduler.onDeviceFree("busy-device");
+        awaitFinished(2);
+        Assert.assertEquals(2, started.get());
+
+        busyDevices.add("busy-device");
+        SuiteScheduler.enqueue(List.of(new FakeCase(3, 1, "busy-device")));
+        Assert.assertTrue(SuiteScheduler.isRunning(3));
+        SuiteScheduler.cancel(3);
+        Assert.assertFalse(SuiteScheduler.isRunning(3));
+        busyDevices.remove("busy-device");
+    }
+}
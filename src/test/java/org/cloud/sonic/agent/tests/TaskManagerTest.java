@@ -0,0 +1,65 @@
+package org.cloud.sonic.agent.tests;
+
+import org.cloud.sonic.agent.common.interfaces.PlatformType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+public class TaskManagerTest {
+    @Test
+    public void testUdIdWithDash() throws Exception {
+        String udId = "00008030-001A2B3C4D5E6F70";
+        TaskKey key = new TaskKey(PlatformType.IOS, 11, 22, udId);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread child = new Thread(() -> {
+            try {
+                Thread.sleep(60_000);
+            } catch (InterruptedException ignored) {
+            }
+        });
+        Thread[] boot = new Thread[1];
+        boot[0] = new Thread(() -> {
+            try {
+                TaskManager.startChildThread(key, child);
+                release.await();
+            } catch (InterruptedException ignored) {
+            } finally {
+                TaskManager.onBootThreadFinished(key, boot[0]);
+            }
+        });
+        TaskManager.startBootThread(key, boot[0]);
+        Assert.assertTrue(TaskManager.ridRunning(11, udId));
+        Assert.assertTrue(TaskManager.udIdRunning(udId));
+        Assert.assertFalse(TaskManager.ridRunning(11, "001A2B3C4D5E6F70"));
+        Assert.assertFalse(TaskManager.ridRunning(12, udId));
+
+        release.countDown();
+        boot[0].join();
+        child.join(5000);
+        Assert.assertFalse(child.isAlive());
+        Assert.assertFalse(TaskManager.ridRunning(11, udId));
+        Assert.assertFalse(TaskManager.udIdRunning(udId));
+    }
+
+    @Test
+    public void testForceStopSuite() throws Exception {
+        String udId = "emulator-5554";
+        TaskKey key = new TaskKey(PlatformType.ANDROID, 1, 2, udId);
+        Thread[] boot = new Thread[1];
+        boot[0] = new Thread(() -> {
+            try {
+                Thread.sleep(60_000);
+            } catch (InterruptedException ignored) {
+            } finally {
+                TaskManager.onBootThreadFinished(key, boot[0]);
+            }
+        });
+        TaskManager.startBootThread(key, boot[0]);
+        Assert.assertTrue(TaskManager.ridRunning(1, udId));
+        TaskManager.forceStopSuite(PlatformType.ANDROID, 1, 2, udId);
+        Assert.assertFalse(TaskManager.ridRunning(1, udId));
+        boot[0].join(5000);
+        Assert.assertFalse(boot[0].isAlive());
+    }
+}
@@ -0,0 +1,99 @@
+package org.cloud.sonic.agent.tests.android.scrcpy;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比旧的起始码查找循环与 {@link NalUnitParser}
+ * 模拟1080p60、8Mbps的码流，每60帧一个IDR，按5KB分块读入，每次调用处理1秒的数据
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NalUnitParserBenchmark {
+
+    private static final int FPS = 60;
+    private static final int BITRATE = 8_000_000;
+    private static final int READ_BUFFER_SIZE = 1024 * 5;
+    private static final int LEGACY_BUFFER_SIZE = 1024 * 1024 * 10;
+
+    private byte[] stream;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1080);
+        int frameBytes = BITRATE / 8 / FPS;
+        int idrBytes = frameBytes * 10;
+        int total = BITRATE / 8 + idrBytes;
+        stream = new byte[total];
+        int offset = 0;
+        for (int frame = 0; frame < FPS && offset < total; frame++) {
+            int length = Math.min(frame == 0 ? idrBytes : frameBytes, total - offset);
+            byte[] body = new byte[length];
+            random.nextBytes(body);
+            // 模拟编码器的防竞争字节，避免随机数据里出现起始码
+            for (int i = 2; i < length; i++) {
+                if (body[i - 2] == 0 && body[i - 1] == 0 && (body[i] & 0xff) <= 3) {
+                    body[i] = 3;
+                }
+            }
+            body[0] = 0;
+            body[1] = 0;
+            body[2] = 0;
+            body[3] = 1;
+            body[4] = (byte) (frame == 0 ? 0x65 : 0x41);
+            System.arraycopy(body, 0, stream, offset, length);
+            offset += length;
+        }
+    }
+
+    @Benchmark
+    public void legacyLoop(Blackhole blackhole) {
+        byte[] buffer = new byte[LEGACY_BUFFER_SIZE];
+        int bufferLength = 0;
+        for (int read = 0; read < stream.length; read += READ_BUFFER_SIZE) {
+            int readLength = Math.min(READ_BUFFER_SIZE, stream.length - read);
+            System.arraycopy(stream, read, buffer, bufferLength, readLength);
+            bufferLength += readLength;
+            for (int i = 5; i < bufferLength - 4; i++) {
+                if (buffer[i] == 0x00 &&
+                        buffer[i + 1] == 0x00 &&
+                        buffer[i + 2] == 0x00 &&
+                        buffer[i + 3] == 0x01
+                ) {
+                    byte[] naluBuffer = new byte[i];
+                    System.arraycopy(buffer, 0, naluBuffer, 0, i);
+                    blackhole.consume(naluBuffer);
+                    bufferLength -= i;
+                    System.arraycopy(buffer, i, buffer, 0, bufferLength);
+                    i = 5;
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void nalUnitParser(Blackhole blackhole) {
+        NalUnitParser parser = new NalUnitParser();
+        NalUnitParser.NalUnitConsumer consumer = nalUnit -> blackhole.consume(nalUnit.toByteArray());
+        for (int read = 0; read < stream.length; read += READ_BUFFER_SIZE) {
+            parser.feed(stream, read, Math.min(READ_BUFFER_SIZE, stream.length - read));
+            parser.parse(consumer);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(NalUnitParserBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
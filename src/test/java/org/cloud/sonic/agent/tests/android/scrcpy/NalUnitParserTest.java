@@ -0,0 +1,72 @@
+package org.cloud.sonic.agent.tests.android.scrcpy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class NalUnitParserTest {
+
+    private static final byte[] SPS = {0, 0, 0, 1, 0x67, 0x42, 0x00, 0x1f};
+    private static final byte[] PPS = {0, 0, 1, 0x68, (byte) 0xce, 0x3c};
+    private static final byte[] IDR = {0, 0, 0, 1, 0x65, 1, 2, 3, 4, 5, 6, 7};
+    private static final byte[] SLICE = {0, 0, 1, 0x41, 9, 8, 7};
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] all = new byte[length];
+        int offset = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, all, offset, part.length);
+            offset += part.length;
+        }
+        return all;
+    }
+
+    @Test
+    public void testMixedStartCodes() {
+        NalUnitParser parser = new NalUnitParser(64);
+        List<byte[]> units = new ArrayList<>();
+        byte[] stream = concat(SPS, PPS, IDR, SLICE, SPS);
+        parser.feed(stream, 0, stream.length);
+        parser.parse(nalUnit -> units.add(nalUnit.toByteArray()));
+        Assert.assertEquals(4, units.size());
+        Assert.assertArrayEquals(SPS, units.get(0));
+        Assert.assertArrayEquals(PPS, units.get(1));
+        Assert.assertArrayEquals(IDR, units.get(2));
+        Assert.assertArrayEquals(SLICE, units.get(3));
+        Assert.assertEquals(SPS.length, parser.pending());
+    }
+
+    @Test
+    public void testSplitReadsAndWrapAround() {
+        NalUnitParser parser = new NalUnitParser(16);
+        List<Integer> types = new ArrayList<>();
+        List<byte[]> units = new ArrayList<>();
+        byte[] stream = concat(SPS, PPS, IDR, SLICE, SLICE, IDR, SLICE, SPS);
+        for (int i = 0; i < stream.length; i += 3) {
+            parser.feed(stream, i, Math.min(3, stream.length - i));
+            parser.parse(nalUnit -> {
+                types.add(nalUnit.type());
+                units.add(nalUnit.toByteArray());
+            });
+        }
+        Assert.assertEquals(List.of(7, 8, 5, 1, 1, 5, 1), types);
+        Assert.assertArrayEquals(IDR, units.get(5));
+        Assert.assertArrayEquals(SLICE, units.get(6));
+    }
+
+    @Test
+    public void testLeadingHeader() {
+        NalUnitParser parser = new NalUnitParser(64);
+        List<Integer> types = new ArrayList<>();
+        byte[] stream = concat(new byte[]{'s', 'o', 'n', 'i', 'c'}, SPS, PPS);
+        parser.feed(stream, 0, stream.length);
+        parser.parse(nalUnit -> types.add(nalUnit.type()));
+        Assert.assertEquals(List.of(-1, 7), types);
+    }
+}
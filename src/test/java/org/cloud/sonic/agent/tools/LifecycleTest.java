@@ -0,0 +1,61 @@
+package org.cloud.sonic.agent.tools;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class LifecycleTest {
+    @Test
+    public void testReady() throws InterruptedException {
+        Lifecycle lifecycle = new Lifecycle();
+        Thread thread = new Thread(() -> {
+            lifecycle.markStarted();
+            lifecycle.markReady();
+            lifecycle.markTerminated();
+        });
+        thread.start();
+        Assert.assertTrue(lifecycle.awaitReady(5, TimeUnit.SECONDS));
+        Assert.assertTrue(lifecycle.awaitTerminated(5, TimeUnit.SECONDS));
+        // 结束后仍保持就绪
+        Assert.assertTrue(lifecycle.isReady());
+    }
+
+    @Test
+    public void testTerminatedBeforeReady() throws InterruptedException {
+        Lifecycle lifecycle = new Lifecycle();
+        new Thread(lifecycle::markTerminated).start();
+        long start = System.nanoTime();
+        Assert.assertFalse(lifecycle.awaitReady(5, TimeUnit.SECONDS));
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        Assert.assertFalse(lifecycle.isReady());
+        Assert.assertTrue(lifecycle.started().isDone());
+    }
+
+    @Test
+    public void testTimeout() throws InterruptedException {
+        Lifecycle lifecycle = new Lifecycle();
+        Assert.assertFalse(lifecycle.awaitReady(50, TimeUnit.MILLISECONDS));
+        Assert.assertFalse(lifecycle.awaitTerminated(50, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testAwaitAllTerminated() throws InterruptedException {
+        Lifecycle first = new Lifecycle();
+        Lifecycle second = new Lifecycle();
+        Thread waiter = new Thread(() -> {
+            try {
+                Lifecycle.awaitAllTerminated(first, second);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiter.start();
+        first.markTerminated();
+        waiter.join(100);
+        Assert.assertTrue(waiter.isAlive());
+        second.markTerminated();
+        waiter.join(5000);
+        Assert.assertFalse(waiter.isAlive());
+    }
+}
@@ -0,0 +1,29 @@
+package org.cloud.sonic.agent.tools;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+public class LogClockTest {
+    @Test
+    public void testFormatTime() {
+        SimpleDateFormat sf = new SimpleDateFormat("HH:mm:ss");
+        long base = 1_700_000_000_000L;
+        for (long offset : new long[]{0, 1, 999, 1000, 59_999, 3_600_000, 86_399_999}) {
+            Assert.assertEquals(sf.format(new Date(base + offset)), LogClock.formatTime(base + offset));
+        }
+        // 回到之前的秒数时重新格式化
+        Assert.assertEquals(sf.format(new Date(base)), LogClock.formatTime(base));
+    }
+
+    @Test
+    public void testNow() throws InterruptedException {
+        long before = System.currentTimeMillis();
+        Thread.sleep(20);
+        long now = LogClock.now();
+        Assert.assertTrue(now >= before);
+        Assert.assertTrue(now <= System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,31 @@
+package org.cloud.sonic.agent.tools;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class XxHash64Test {
+    @Test
+    public void testReferenceValues() {
+        Assert.assertEquals(0xef46db3751d8e999L, XxHash64.hash(new byte[0]));
+        Assert.assertEquals(0xd24ec4f1a98c6e5bL, XxHash64.hash("a".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertEquals(0xfbcea83c8a378bf1L,
+                XxHash64.hash("Nobody inspects the spammish repetition".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testDirectBufferSlice() {
+        byte[] bytes = new byte[1000];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (i * 31);
+        }
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length + 10);
+        direct.position(10);
+        direct.put(bytes);
+        direct.position(10);
+        Assert.assertEquals(XxHash64.hash(bytes), XxHash64.hash(direct, 0));
+        Assert.assertEquals(10, direct.position());
+    }
+}
@@ -0,0 +1,47 @@
+package org.cloud.sonic.agent.transport;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+
+public class TransportCodecTest {
+
+    private static byte[] toBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void testRoundTripSharesContext() throws DataFormatException {
+        TransportCodec codec = new TransportCodec();
+        TransportCodec.Decoder decoder = new TransportCodec.Decoder();
+        int raw = 0;
+        int encoded = 0;
+        for (int i = 0; i < 100; i++) {
+            String text = "{\"agentId\":1,\"lane\":\"bulk\",\"seq\":" + i + ",\"msg\":\"step\",\"des\":\"点击 button"
+                    + "\",\"status\":1,\"log\":\"id:btn" + i + "\",\"cid\":12,\"rid\":345,\"udId\":\"R58M123ABC\"}";
+            byte[] bytes = toBytes(codec.encode(text));
+            Assert.assertEquals(text, decoder.decode(bytes));
+            raw += text.getBytes(StandardCharsets.UTF_8).length;
+            encoded += bytes.length;
+        }
+        Assert.assertTrue(encoded * 4 < raw);
+    }
+
+    @Test
+    public void testLargeMessage() throws DataFormatException {
+        StringBuilder builder = new StringBuilder("{\"msg\":\"perform\",\"log\":\"");
+        for (int i = 0; i < 50000; i++) {
+            builder.append(Integer.toHexString(i * 31));
+        }
+        String text = builder.append("\"}").toString();
+        TransportCodec codec = new TransportCodec();
+        TransportCodec.Decoder decoder = new TransportCodec.Decoder();
+        Assert.assertEquals(text, decoder.decode(toBytes(codec.encode(text))));
+        Assert.assertEquals("{}", decoder.decode(toBytes(codec.encode("{}"))));
+    }
+}
@@ -0,0 +1,89 @@
+package org.cloud.sonic.agent.transport;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+public class TransportOutboxTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("outbox").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private static String message(int i) {
+        return "{\"msg\":\"step\",\"index\":" + i + "}";
+    }
+
+    @Test
+    public void testReplayAfterRewind() throws IOException {
+        TransportOutbox outbox = new TransportOutbox(dir, 0);
+        for (int i = 0; i < 10; i++) {
+            outbox.append(message(i));
+        }
+        List<TransportOutbox.Entry> entries = outbox.poll(4, Integer.MAX_VALUE);
+        Assert.assertEquals(4, entries.size());
+        Assert.assertEquals(1, entries.get(0).getSeq());
+        outbox.ack(2);
+        outbox.rewind();
+        entries = outbox.poll(100, Integer.MAX_VALUE);
+        Assert.assertEquals(8, entries.size());
+        Assert.assertEquals(3, entries.get(0).getSeq());
+        Assert.assertEquals(message(2), entries.get(0).getText());
+        Assert.assertEquals(8, outbox.pending());
+    }
+
+    @Test
+    public void testRecoverUnacknowledged() throws IOException {
+        TransportOutbox outbox = new TransportOutbox(dir, 0);
+        for (int i = 0; i < 5; i++) {
+            outbox.append(message(i));
+        }
+        outbox.ack(3);
+
+        TransportOutbox reopened = new TransportOutbox(dir, 0);
+        Assert.assertEquals(2, reopened.pending());
+        List<TransportOutbox.Entry> entries = reopened.poll(100, Integer.MAX_VALUE);
+        Assert.assertEquals(2, entries.size());
+        Assert.assertEquals(message(3), entries.get(0).getText());
+        Assert.assertEquals(6, reopened.append(message(5)));
+    }
+
+    @Test
+    public void testCompactAndCap() throws IOException {
+        char[] chars = new char[512 * 1024];
+        java.util.Arrays.fill(chars, 'a');
+        String big = "{\"log\":\"" + new String(chars) + "\"}";
+        TransportOutbox outbox = new TransportOutbox(dir, TransportOutbox.SEGMENT_SIZE * 2L);
+        for (int i = 0; i < 40; i++) {
+            outbox.append(big);
+        }
+        Assert.assertTrue(outbox.getDroppedCount() > 0);
+        Assert.assertTrue(dir.listFiles((d, name) -> name.endsWith(".outbox")).length <= 2);
+        List<TransportOutbox.Entry> entries = outbox.poll(100, Integer.MAX_VALUE);
+        Assert.assertEquals(40, entries.get(entries.size() - 1).getSeq());
+        Assert.assertEquals(outbox.getAckedSeq() + 1, entries.get(0).getSeq());
+        outbox.ack(40);
+        Assert.assertEquals(0, outbox.pending());
+        Assert.assertEquals(1, dir.listFiles((d, name) -> name.endsWith(".outbox")).length);
+    }
+}